@@ -0,0 +1,5 @@
+package ast;
+
+public enum Backend {
+    Jasmin, ClassFile
+}
@@ -1,9 +1,9 @@
 package ast;
 
-import ast.Type.ArrayType.ArrayType;
 import ast.Type.PrimitiveType.BooleanType;
 import ast.Type.PrimitiveType.IntType;
 import ast.Type.PrimitiveType.StringType;
+import ast.Type.Type;
 import ast.node.Program;
 import ast.node.declaration.ClassDeclaration;
 import ast.node.declaration.MethodDeclaration;
@@ -14,6 +14,19 @@ import ast.node.expression.Value.IntValue;
 import ast.node.expression.Value.ObjectValue;
 import ast.node.expression.Value.StringValue;
 import ast.node.statement.*;
+import classFile.AssemblerException;
+import classFile.ClassFileAssembler;
+import classFile.JasminClass;
+import classFile.JasminMethod;
+import classFile.LocalSlotAllocator;
+import classFile.PeepholeOptimizer;
+import ir.Function;
+import ir.IdiomRecognizer;
+import ir.SsaBuilder;
+import ir.SsaOptimizer;
+import ir.StackCodeGenerator;
+import profile.Profile;
+import profile.Profiler;
 import symbolTable.*;
 
 import java.io.IOException;
@@ -22,8 +35,11 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 
 public class GeneratorVisitorImpl implements Visitor {
+    // bytes of output the runtime class gathers before it writes them out
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
 
     private HashMap<String, SymbolTable> classSymbolTable;
     private HashMap<String, ClassDeclaration> classDecMap;
@@ -32,6 +48,41 @@ public class GeneratorVisitorImpl implements Visitor {
     private int variableIndex = 0;
     private String curClassName;
     private int labelIndex = 0;
+    private Backend backend = Backend.Jasmin;
+    private boolean optimize = true;
+    private boolean optimizationReport = false;
+    // optimized methods go through the ssa form, the ast is only turned into code directly with -O0 or --no-ssa
+    private boolean ssa = true;
+    // how many turns a loop of unknown length does per test once unrolled
+    private int unrollFactor = 4;
+    // set once a method calls a helper of the runtime class, which is then written out after the program's classes
+    private boolean runtimeUsed = false;
+    // with --profile-generate every method entry, loop turn, arm of a conditional and call site counts itself in
+    // the profile class, which writes the counts to profileFile when the program exits. the sites are numbered
+    // in the order they are generated
+    private String profileFile;
+    private ArrayList<String> profileSites = new ArrayList<>();
+    // what --profile-use read, null without it
+    private Profile profile;
+    // with --profile-time every method tells the profiler class when it is entered and left, and every loop keeps
+    // its turns in a local of its own that it hands over once it is left. with --profile-alloc every new tells it
+    // its site and how many bytes it takes. methods, loops and sites are numbered in the order they are generated,
+    // and the report goes to profilerFile as json or, without one, to the standard error
+    private boolean profileTime = false;
+    private boolean profileAlloc = false;
+    private String profilerFile;
+    private ArrayList<String> timedMethods = new ArrayList<>();
+    private ArrayList<String> timedLoops = new ArrayList<>();
+    private ArrayList<Integer> timedLines = new ArrayList<>();
+    private ArrayList<Integer> timedLoopLines = new ArrayList<>();
+    private ArrayList<String> allocationSites = new ArrayList<>();
+    private ArrayList<Integer> allocationLines = new ArrayList<>();
+    private ArrayList<String> allocationKinds = new ArrayList<>();
+    // self calls on this whose value the method returns right away, they store their arguments over the
+    // method's own and jump back to tailCallLabel instead of taking another frame
+    private MethodDeclaration curMethod;
+    private String tailCallLabel;
+    private HashSet<Assign> tailCalls = new HashSet<>();
 
     private String getFreshLabel() {
         return "Label" + String.valueOf(labelIndex++);
@@ -39,12 +90,63 @@ public class GeneratorVisitorImpl implements Visitor {
 
     public void setClassSymbolTable(HashMap<String, SymbolTable> classSymbolTable) { this.classSymbolTable = classSymbolTable; }
 
+    public void setBackend(Backend backend) { this.backend = backend; }
+
+    public void setOptimize(boolean optimize) { this.optimize = optimize; }
+
+    public void setOptimizationReport(boolean optimizationReport) { this.optimizationReport = optimizationReport; }
+
+    public void setSsa(boolean ssa) { this.ssa = ssa; }
+
+    public void setUnrollFactor(int unrollFactor) { this.unrollFactor = unrollFactor; }
+
+    public void setProfileFile(String profileFile) { this.profileFile = profileFile; }
+
+    public void setProfile(Profile profile) { this.profile = profile; }
+
+    public void setProfileTime(boolean profileTime) { this.profileTime = profileTime; }
+
+    public void setProfileAlloc(boolean profileAlloc) { this.profileAlloc = profileAlloc; }
+
+    public void setProfilerFile(String profilerFile) { this.profilerFile = profilerFile; }
+
+    // the generated code is jasmin text, with --backend=class it is parsed and assembled in process into a
+    // .class file, otherwise it is written out as a .j file for jasmin
     private void writeToFile(String name) {
+        JasminClass jasminClass;
+        try {
+            jasminClass = JasminClass.parse(generatedCode);
+            if (optimize) {
+                LocalSlotAllocator slotAllocator = new LocalSlotAllocator();
+                PeepholeOptimizer peephole = new PeepholeOptimizer();
+                for (JasminMethod method : jasminClass.getMethods()) {
+                    int savedSlots = slotAllocator.allocate(method);
+                    int saved = peephole.optimize(method);
+                    if (optimizationReport) {
+                        System.out.println("locals: " + name + "." + method.getName() + " saved " + savedSlots +
+                                " slots");
+                        System.out.println("peephole: " + name + "." + method.getName() + " saved " + saved +
+                                " instructions");
+                    }
+                }
+            }
+            jasminClass.computeLimits();
+        }
+        catch (AssemblerException e) {
+            System.out.println("Code generation failed for class " + name + ": " + e.getMessage());
+            return;
+        }
         try {
-            Path file = Paths.get("./output/" + name + ".j");
-            Files.write(file, generatedCode);
+            if (backend == Backend.ClassFile) {
+                byte[] classFile = new ClassFileAssembler().assemble(jasminClass);
+                Files.write(Paths.get("./output/" + name + ".class"), classFile);
+            }
+            else {
+                Path file = Paths.get("./output/" + name + ".j");
+                Files.write(file, jasminClass.toLines());
+            }
         }
-        catch (IOException e) {
+        catch (IOException | AssemblerException e) {
             e.printStackTrace();
         }
     }
@@ -52,10 +154,6 @@ public class GeneratorVisitorImpl implements Visitor {
     @Override
     public void visit(Program program) {
         String mainClass = program.getMainClass().getName().getName();
-        starterClassCodeGenerator(mainClass);
-        writeToFile("JavaMain");
-
-        generatedCode = new ArrayList<>();
         objectCodeGenerator();
         writeToFile("Object");
 
@@ -68,6 +166,29 @@ public class GeneratorVisitorImpl implements Visitor {
             classDec.accept(this);
             writeToFile(classDec.getName().getName());
         }
+
+        if (runtimeUsed) {
+            generatedCode = new ArrayList<>();
+            runtimeCodeGenerator();
+            writeToFile(IdiomRecognizer.RUNTIME_CLASS);
+        }
+
+        // the starter class is written last, it flushes the output of the runtime class if there is one
+        generatedCode = new ArrayList<>();
+        starterClassCodeGenerator(mainClass);
+        writeToFile("JavaMain");
+
+        if (profileFile != null) {
+            generatedCode = new ArrayList<>();
+            profileCodeGenerator();
+            writeToFile(Profile.RUNTIME_CLASS);
+        }
+
+        if (profileTime || profileAlloc) {
+            generatedCode = new ArrayList<>();
+            profilerCodeGenerator();
+            writeToFile(Profiler.RUNTIME_CLASS);
+        }
     }
 
     @Override
@@ -117,10 +238,8 @@ public class GeneratorVisitorImpl implements Visitor {
 
         generatedCode.addAll(classDeclaration.getInitMethodDecCode(initCode));
 
-        for (MethodDeclaration methodDec : classDeclaration.getMethodDeclarations()) {
-            generatedCode.addAll(methodDec.getGeneratedCode());
+        for (MethodDeclaration methodDec : classDeclaration.getMethodDeclarations())
             methodDec.accept(this);
-        }
 
         SymbolTable.pop();
     }
@@ -130,12 +249,42 @@ public class GeneratorVisitorImpl implements Visitor {
         SymbolTable symbolTable = new SymbolTable(SymbolTable.top);
         SymbolTable.push(symbolTable);
 
-        variableIndex = 1;
+        boolean viaSsa = optimize && ssa;
+        generatedCode.addAll(viaSsa ? methodDeclaration.getSignatureCode() : methodDeclaration.getGeneratedCode());
+        variableIndex = methodDeclaration.getFirstVariableIndex();
 
         for (VarDeclaration arg : methodDeclaration.getArgs()) {
             arg.accept(this);
             variableIndex++;
         }
+
+        // locals are zeroed again after a tail call jumps back, like in a new frame
+        curMethod = methodDeclaration;
+        tailCalls.clear();
+        tailCallLabel = null;
+        Expression returnValue = methodDeclaration.getReturnValue();
+        boolean tailReturn = optimize && isSelfCall(returnValue);
+        if (optimize && returnValue instanceof Identifier && isLocal(((Identifier) returnValue).getName())) {
+            ArrayList<Statement> body = methodDeclaration.getBody();
+            if (!body.isEmpty())
+                findTailCalls(body.get(body.size() - 1), ((Identifier) returnValue).getName());
+        }
+        if (tailReturn || !tailCalls.isEmpty()) {
+            if (optimizationReport)
+                System.out.println("tail calls: " + curClassName + "." + methodDeclaration.getName().getName() +
+                        " jumps back to its start for " + (tailCalls.size() + (tailReturn ? 1 : 0)) + " self calls");
+            if (!viaSsa) {
+                tailCallLabel = getFreshLabel();
+                generatedCode.add(tailCallLabel + " :");
+            }
+        }
+        if (viaSsa) {
+            generateViaSsa(methodDeclaration, tailReturn);
+            curMethod = null;
+            SymbolTable.pop();
+            return;
+        }
+
         for (VarDeclaration localVar : methodDeclaration.getLocalVars()) {
             localVar.accept(this);
             if (localVar.getType().subtype(new BooleanType())) {
@@ -152,17 +301,103 @@ public class GeneratorVisitorImpl implements Visitor {
             }
             variableIndex++;
         }
+        countSite(Profile.METHOD, methodDeclaration.getLine());
+        int timed = timedMethods.size();
+        if (profileTime) {
+            timedMethods.add(curClassName + "." + methodDeclaration.getName().getName());
+            timedLines.add(methodDeclaration.getLine());
+            generatedCode.add("ldc " + timed);
+            generatedCode.add("invokestatic " + Profiler.RUNTIME_CLASS + "/enter(I)V");
+        }
         for (Statement statement : methodDeclaration.getBody()) {
             statement.accept(this);
         }
 
-        methodDeclaration.getReturnValue().accept(this);
-        generatedCode.add(methodDeclaration.getReturnCode());
+        if (tailReturn)
+            generateTailCall(((MethodCall) returnValue).getArgs());
+        else {
+            returnValue.accept(this);
+            if (profileTime) {
+                generatedCode.add("ldc " + timed);
+                generatedCode.add("invokestatic " + Profiler.RUNTIME_CLASS + "/exit(I)V");
+            }
+            generatedCode.add(methodDeclaration.getReturnCode());
+        }
         generatedCode.add(".end method");
+        curMethod = null;
 
         SymbolTable.pop();
     }
 
+    private void generateViaSsa(MethodDeclaration methodDeclaration, boolean tailReturn) {
+        SsaBuilder builder = new SsaBuilder(classDecMap);
+        builder.setProfile(profile);
+        Function function = builder.build(classDecMap.get(curClassName), methodDeclaration, tailCalls, tailReturn);
+        SsaOptimizer ssaOptimizer = new SsaOptimizer();
+        ssaOptimizer.setOptimizationReport(optimizationReport);
+        ssaOptimizer.setProfile(profile);
+        ssaOptimizer.setUnrollFactor(unrollFactor);
+        ssaOptimizer.optimize(function);
+        runtimeUsed |= ssaOptimizer.isRuntimeUsed();
+        StackCodeGenerator stackCodeGenerator = new StackCodeGenerator();
+        generatedCode.addAll(stackCodeGenerator.generate(function));
+        runtimeUsed |= stackCodeGenerator.isRuntimeUsed();
+        generatedCode.add(".end method");
+    }
+
+    private boolean isLocal(String name) {
+        for (VarDeclaration var : curMethod.getArgs()) {
+            if (var.getIdentifier().getName().equals(name))
+                return true;
+        }
+        for (VarDeclaration var : curMethod.getLocalVars()) {
+            if (var.getIdentifier().getName().equals(name))
+                return true;
+        }
+        return false;
+    }
+
+    private boolean isSelfCall(Expression expression) {
+        if (!(expression instanceof MethodCall) || !(((MethodCall) expression).getInstance() instanceof This))
+            return false;
+        MethodCall methodCall = (MethodCall) expression;
+        return resolveMethod(methodCall.getInstance(), methodCall.getMethodName(), methodCall.getTarget()) == curMethod;
+    }
+
+    // collects the assignments of a self call to returned that nothing but the return follows
+    private void findTailCalls(Statement statement, String returned) {
+        if (statement instanceof Block) {
+            ArrayList<Statement> body = ((Block) statement).getBody();
+            if (!body.isEmpty())
+                findTailCalls(body.get(body.size() - 1), returned);
+        }
+        else if (statement instanceof Conditional) {
+            findTailCalls(((Conditional) statement).getConsequenceBody(), returned);
+            findTailCalls(((Conditional) statement).getAlternativeBody(), returned);
+        }
+        else if (statement instanceof Assign) {
+            Assign assign = (Assign) statement;
+            if (assign.getlValue() instanceof Identifier &&
+                    ((Identifier) assign.getlValue()).getName().equals(returned) && isSelfCall(assign.getrValue()))
+                tailCalls.add(assign);
+        }
+    }
+
+    // every argument is evaluated before any of them is overwritten
+    private void generateTailCall(ArrayList<Expression> args) {
+        for (Expression arg : args)
+            arg.accept(this);
+        int firstArgIndex = curMethod.getFirstVariableIndex();
+        for (int i = args.size() - 1; i >= 0; i--) {
+            Type type = curMethod.getArgs().get(i).getType();
+            if (type.subtype(new IntType()) || type.subtype(new BooleanType()))
+                generatedCode.add("istore " + (firstArgIndex + i));
+            else
+                generatedCode.add("astore " + (firstArgIndex + i));
+        }
+        generatedCode.add("goto " + tailCallLabel);
+    }
+
     @Override
     public void visit(VarDeclaration varDeclaration) {
         int index = -1;
@@ -191,7 +426,7 @@ public class GeneratorVisitorImpl implements Visitor {
     @Override
     public void visit(BinaryExpression binaryExpression) {
         BinaryOperator op = binaryExpression.getBinaryOperator();
-        if (op == BinaryOperator.add || op == BinaryOperator.sub || op == BinaryOperator.mult || op == BinaryOperator.div) {
+        if (op.isArithmetic()) {
             binaryExpression.getLeft().accept(this);
             binaryExpression.getRight().accept(this);
             generatedCode.add(op.getInstruction());
@@ -307,38 +542,58 @@ public class GeneratorVisitorImpl implements Visitor {
 
     @Override
     public void visit(MethodCall methodCall) {
-        methodCall.getInstance().accept(this);
+        countSite(Profile.CALL, methodCall.getLine());
+        generateInvocation(methodCall.getInstance(), methodCall.getMethodName(), methodCall.getArgs(),
+                methodCall.getTarget());
+    }
 
-        MethodDeclaration methodDec = null;
-        ClassDeclaration classDec = classDecMap.get(methodCall.getInstance().getType().toString());
-        while (classDec != null) {
-            if (classDec.containsMethod(methodCall.getMethodName())) {
-                methodDec = classDec.getMethodDeclaration(methodCall.getMethodName());
+    private MethodDeclaration resolveMethod(Expression instance, Identifier methodName, MethodDeclaration target) {
+        MethodDeclaration methodDec = target;
+        ClassDeclaration classDec = classDecMap.get(instance.getType().toString());
+        while (methodDec == null && classDec != null) {
+            if (classDec.containsMethod(methodName)) {
+                methodDec = classDec.getMethodDeclaration(methodName);
                 break;
             }
 
             else
                 classDec = classDecMap.get(classDec.getParentName().getName());
         }
+        return methodDec;
+    }
+
+    private void generateInvocation(Expression instance, Identifier methodName, ArrayList<Expression> args,
+                                    MethodDeclaration target) {
+        MethodDeclaration methodDec = resolveMethod(instance, methodName, target);
 
-        for (Expression arg : methodCall.getArgs()) {
+        // a static method is only called through this or a new object, neither of which can be null
+        if (!methodDec.isStatic()) {
+            instance.accept(this);
+        }
+
+        for (Expression arg : args) {
             arg.accept(this);
         }
 
-        generatedCode.add("invokevirtual " + methodCall.getInstance().getType().toString() + "/"
-                + methodDec.getInvokationCode());
+        generatedCode.add((methodDec.isStatic() ? "invokestatic " : "invokevirtual ") + instance.getType().toString() +
+                "/" + methodDec.getInvokationCode());
     }
 
     @Override
     public void visit(NewArray newArray) {
+        if (newArray.getExpression() instanceof IntValue) {
+            int length = ((IntValue) newArray.getExpression()).getConstant();
+            countAllocation("new int[" + length + "]", Profiler.getIntArraySize(length), newArray.getLine());
+        }
         newArray.getExpression().accept(this);
         generatedCode.addAll(newArray.getGeneratedCode());
     }
 
     @Override
     public void visit(NewClass newClass) {
-        generatedCode.addAll(newClass.getGeneratedCode());
         ClassDeclaration classDec = classDecMap.get(newClass.getClassName().getName());
+        countAllocation("new " + newClass.getClassName().getName(), getObjectSize(classDec), newClass.getLine());
+        generatedCode.addAll(newClass.getGeneratedCode());
         generatedCode.add(classDec.getInitMethod());
     }
 
@@ -350,9 +605,8 @@ public class GeneratorVisitorImpl implements Visitor {
     @Override
     public void visit(UnaryExpression unaryExpression) {
         if (unaryExpression.getUnaryOperator() == UnaryOperator.minus) {
-            generatedCode.add("iconst_0");
             unaryExpression.getValue().accept(this);
-            generatedCode.add("isub");
+            generatedCode.addAll(unaryExpression.getGeneratedCode());
         }
         if (unaryExpression.getUnaryOperator() == UnaryOperator.not) {
             unaryExpression.getValue().accept(this);
@@ -389,6 +643,10 @@ public class GeneratorVisitorImpl implements Visitor {
 
     @Override
     public void visit(Assign assign) {
+        if (tailCalls.contains(assign)) {
+            generateTailCall(((MethodCall) assign.getrValue()).getArgs());
+            return;
+        }
         Expression lvalue = assign.getlValue();
         if (lvalue instanceof Identifier) {
             Identifier identifier = (Identifier)lvalue;
@@ -427,22 +685,94 @@ public class GeneratorVisitorImpl implements Visitor {
         }
     }
 
+    // emits code that jumps to target when condition evaluates to jumpWhen and falls through otherwise
+    private void generateJump(Expression condition, boolean jumpWhen, String target) {
+        if (condition instanceof BooleanValue) {
+            if (((BooleanValue) condition).isConstant() == jumpWhen)
+                generatedCode.add("goto " + target);
+            return;
+        }
+        if (condition instanceof UnaryExpression &&
+                ((UnaryExpression) condition).getUnaryOperator() == UnaryOperator.not) {
+            generateJump(((UnaryExpression) condition).getValue(), !jumpWhen, target);
+            return;
+        }
+        if (!(condition instanceof BinaryExpression)) {
+            condition.accept(this);
+            generatedCode.add((jumpWhen ? "ifne " : "ifeq ") + target);
+            return;
+        }
+
+        BinaryExpression binaryExpression = (BinaryExpression) condition;
+        BinaryOperator op = binaryExpression.getBinaryOperator();
+        Expression left = binaryExpression.getLeft();
+        Expression right = binaryExpression.getRight();
+        if (op == BinaryOperator.and || op == BinaryOperator.or) {
+            // a && b jumps when false as soon as a is false, a || b jumps when true as soon as a is true
+            boolean shortCircuit = op == BinaryOperator.or;
+            if (jumpWhen == shortCircuit) {
+                generateJump(left, jumpWhen, target);
+                generateJump(right, jumpWhen, target);
+            }
+            else {
+                String skip = getFreshLabel();
+                generateJump(left, !jumpWhen, skip);
+                generateJump(right, jumpWhen, target);
+                generatedCode.add(skip + " :");
+            }
+        }
+        else if (op == BinaryOperator.gt || op == BinaryOperator.lt ||
+                ((op == BinaryOperator.eq || op == BinaryOperator.neq) &&
+                        (left.getType().subtype(new IntType()) || left.getType().subtype(new BooleanType())))) {
+            String instruction = jumpWhen ? op.getInstruction() : op.getNegatedInstruction();
+            left.accept(this);
+            if (isZero(right)) {
+                generatedCode.add(instruction.replace("if_icmp", "if") + " " + target);
+            }
+            else {
+                right.accept(this);
+                generatedCode.add(instruction + " " + target);
+            }
+        }
+        else if (op == BinaryOperator.eq || op == BinaryOperator.neq) {
+            left.accept(this);
+            right.accept(this);
+            generatedCode.add("invokevirtual java/lang/Object/equals(Ljava/lang/Object;)Z");
+            generatedCode.add(((op == BinaryOperator.eq) == jumpWhen ? "ifne " : "ifeq ") + target);
+        }
+        else {
+            condition.accept(this);
+            generatedCode.add((jumpWhen ? "ifne " : "ifeq ") + target);
+        }
+    }
+
+    private boolean isZero(Expression expression) {
+        if (expression instanceof IntValue)
+            return ((IntValue) expression).getConstant() == 0;
+        if (expression instanceof BooleanValue)
+            return !((BooleanValue) expression).isConstant();
+        return false;
+    }
+
     @Override
     public void visit(Conditional conditional) {
-        conditional.getExpression().accept(this);
-        if (conditional.getAlternativeBody() != null) {
+        // an instrumented conditional counts the times it does nothing as well
+        if (conditional.getAlternativeBody() != null || profileFile != null) {
             String elseLabel = getFreshLabel();
-            generatedCode.add("ifeq " + elseLabel);
+            generateJump(conditional.getExpression(), false, elseLabel);
+            countSite(Profile.THEN, conditional.getLine());
             conditional.getConsequenceBody().accept(this);
             String contLabel = getFreshLabel();
             generatedCode.add("goto " + contLabel);
             generatedCode.add(elseLabel + " :");
-            conditional.getAlternativeBody().accept(this);
+            countSite(Profile.ELSE, conditional.getLine());
+            if (conditional.getAlternativeBody() != null)
+                conditional.getAlternativeBody().accept(this);
             generatedCode.add(contLabel + " :");
         }
         else {
             String contLabel = getFreshLabel();
-            generatedCode.add("ifeq " + contLabel);
+            generateJump(conditional.getExpression(), false, contLabel);
             conditional.getConsequenceBody().accept(this);
             generatedCode.add(contLabel + " :");
         }
@@ -450,52 +780,95 @@ public class GeneratorVisitorImpl implements Visitor {
 
     @Override
     public void visit(MethodCallInMain methodCallInMain) {
-        methodCallInMain.getInstance().accept(this);
-
-        MethodDeclaration methodDec = null;
-        ClassDeclaration classDec = classDecMap.get(methodCallInMain.getInstance().getType().toString());
-        while (classDec != null) {
-            if (classDec.containsMethod(methodCallInMain.getMethodName())) {
-                methodDec = classDec.getMethodDeclaration(methodCallInMain.getMethodName());
-                break;
-            }
-            else
-                classDec = classDecMap.get(classDec.getParentName().getName());
-        }
-
-        for (Expression arg : methodCallInMain.getArgs()) {
-            arg.accept(this);
-        }
-
-        generatedCode.add("invokevirtual " + methodCallInMain.getInstance().getType().toString() + "/"
-                + methodDec.getInvokationCode());
+        countSite(Profile.CALL, methodCallInMain.getLine());
+        generateInvocation(methodCallInMain.getInstance(), methodCallInMain.getMethodName(),
+                methodCallInMain.getArgs(), methodCallInMain.getTarget());
+        generatedCode.add("pop");
     }
 
     @Override
     public void visit(While loop) {
+        // locals are all declared before the body, the slots after them are free
+        int turns = variableIndex;
+        if (profileTime) {
+            variableIndex++;
+            generatedCode.add("iconst_0");
+            generatedCode.add("istore " + turns);
+        }
         String nStart = getFreshLabel();
         generatedCode.add("goto " + nStart);
         String nStmt = getFreshLabel();
         generatedCode.add(nStmt + " :");
+        countSite(Profile.LOOP, loop.getLine());
+        if (profileTime)
+            generatedCode.add("iinc " + turns + " 1");
         loop.getBody().accept(this);
         generatedCode.add(nStart + " :");
-        loop.getCondition().accept(this);
-        generatedCode.add("ifne " + nStmt);
+        generateJump(loop.getCondition(), true, nStmt);
+        if (profileTime) {
+            generatedCode.add("ldc " + timedLoops.size());
+            generatedCode.add("iload " + turns);
+            generatedCode.add("invokestatic " + Profiler.RUNTIME_CLASS + "/turns(II)V");
+            timedLoops.add(curClassName + "." + curMethod.getName().getName());
+            timedLoopLines.add(loop.getLine());
+        }
     }
 
     @Override
     public void visit(Write write) {
-        generatedCode.add(write.getPrintStream());
         write.getArg().accept(this);
-        if (write.getArg().getType().subtype(new ArrayType())) {
-            generatedCode.add("invokestatic java/util/Arrays.toString([I)Ljava/lang/String;");
-            generatedCode.add("invokevirtual java/io/PrintStream/println(Ljava/lang/String;)V");
+        generatedCode.add(write.getInvokeCode(IdiomRecognizer.RUNTIME_CLASS));
+        runtimeUsed = true;
+    }
+
+    // tells the profiler about an allocation of size bytes at a site of the current method
+    private void countAllocation(String kind, int size, int line) {
+        if (!profileAlloc)
+            return;
+        generatedCode.add("ldc " + allocationSites.size());
+        generatedCode.add("ldc " + size);
+        generatedCode.add("invokestatic " + Profiler.RUNTIME_CLASS + "/allocate(II)V");
+        allocationSites.add(curClassName + "." + curMethod.getName().getName());
+        allocationLines.add(line);
+        allocationKinds.add(kind);
+    }
+
+    // booleans take a byte and everything else four, references are compressed
+    private int getObjectSize(ClassDeclaration classDec) {
+        int fieldBytes = 0;
+        while (classDec != null) {
+            for (VarDeclaration field : classDec.getVarDeclarations())
+                fieldBytes += field.getType() instanceof BooleanType ? 1 : 4;
+            classDec = classDec.hasParent() ? classDecMap.get(classDec.getParentName().getName()) : null;
         }
-        else
-            generatedCode.add(write.getInvokeCode());
+        return Profiler.getObjectSize(fieldBytes);
+    }
+
+    // adds one to the counter of a site of the current method when the program is instrumented
+    private void countSite(String kind, int line) {
+        if (profileFile == null)
+            return;
+        generatedCode.add("getstatic " + Profile.RUNTIME_CLASS + "/counts [I");
+        generatedCode.add("ldc " + profileSites.size());
+        generatedCode.add("dup2");
+        generatedCode.add("iaload");
+        generatedCode.add("iconst_1");
+        generatedCode.add("iadd");
+        generatedCode.add("iastore");
+        profileSites.add(Profile.getSite(kind, curClassName, curMethod.getName().getName(), line));
     }
 
     public void starterClassCodeGenerator(String mainClass) {
+        // the profile and profiler classes are threads that write their reports once the program exits, by returning
+        // or not, and output still in the buffer of the runtime class when the program stops on an exception is
+        // written then too
+        String hooks = "";
+        if (runtimeUsed)
+            hooks += addShutdownHook(IdiomRecognizer.RUNTIME_CLASS);
+        if (profileFile != null)
+            hooks += addShutdownHook(Profile.RUNTIME_CLASS);
+        if (profileTime || profileAlloc)
+            hooks += addShutdownHook(Profiler.RUNTIME_CLASS);
         String code = ".class public JavaMain\n" +
                 ".super java/lang/Object\n" +
                 ".method public <init>()V\n" +
@@ -504,16 +877,25 @@ public class GeneratorVisitorImpl implements Visitor {
                 "return\n" +
                 ".end method\n" +
                 ".method public static main([Ljava/lang/String;)V\n" +
-                ".limit stack 2\n" +
+                hooks +
                 "new " + mainClass + " \n" +
                 "dup\n" +
                 "invokespecial " + mainClass + "/<init>()V\n" +
                 "invokevirtual " + mainClass + "/main()I\n" +
+                (runtimeUsed ? "invokestatic " + IdiomRecognizer.RUNTIME_CLASS + "/flush()V\n" : "") +
                 "return\n" +
                 ".end method";
         generatedCode.add(code);
     }
 
+    private static String addShutdownHook(String threadClass) {
+        return "invokestatic java/lang/Runtime/getRuntime()Ljava/lang/Runtime;\n" +
+                "new " + threadClass + "\n" +
+                "dup\n" +
+                "invokespecial " + threadClass + "/<init>()V\n" +
+                "invokevirtual java/lang/Runtime/addShutdownHook(Ljava/lang/Thread;)V\n";
+    }
+
     public void objectCodeGenerator() {
         String code = ".class public Object\n" +
                 ".super java/lang/Object\n" +
@@ -523,13 +905,1022 @@ public class GeneratorVisitorImpl implements Visitor {
                 "return\n" +
                 ".end method\n" +
                 ".method public toString()Ljava/lang/String;\n" +
-                ".limit stack 2\n" +
                 "ldc \"Object\"\n" +
                 "areturn\n" +
                 ".end method";
         generatedCode.add(code);
     }
 
+    // the helpers loops are replaced with: copy and fill take the bulk path of the jdk when every index is in
+    // range, and otherwise do what the loop did element by element, exception included. writeln goes through
+    // println, which formats ints and arrays straight into a buffer of bytes and hands it to System.out only when
+    // it is full, when the program exits and, if the program runs in a terminal, at the end of every line. the
+    // text is the one PrintStream.println and Arrays.toString make, a string with anything but ascii in it is left
+    // to System.out to encode. the program has one thread, so the buffer takes no lock
+    public void runtimeCodeGenerator() {
+        String runtime = IdiomRecognizer.RUNTIME_CLASS;
+        String code = ".class public " + runtime + "\n" +
+                ".super java/lang/Thread\n" +
+                ".field public static buffer [B\n" +
+                ".field public static position I\n" +
+                ".field public static newline [B\n" +
+                ".field public static lines Z\n" +
+                ".method static <clinit>()V\n" +
+                "ldc " + OUTPUT_BUFFER_SIZE + "\n" +
+                "newarray byte\n" +
+                "putstatic " + runtime + "/buffer [B\n" +
+                "invokestatic java/lang/System/lineSeparator()Ljava/lang/String;\n" +
+                "invokevirtual java/lang/String/getBytes()[B\n" +
+                "putstatic " + runtime + "/newline [B\n" +
+                // there is a console when both standard input and output are a terminal
+                "invokestatic java/lang/System/console()Ljava/io/Console;\n" +
+                "ifnull Done\n" +
+                "iconst_1\n" +
+                "putstatic " + runtime + "/lines Z\n" +
+                "Done :\n" +
+                "return\n" +
+                ".end method\n" +
+                ".method public <init>()V\n" +
+                "aload_0 ; push this\n" +
+                "invokespecial java/lang/Thread/<init>()V ; call super\n" +
+                "return\n" +
+                ".end method\n" +
+                // the shutdown hook
+                ".method public run()V\n" +
+                "invokestatic " + runtime + "/flush()V\n" +
+                "return\n" +
+                ".end method\n" +
+                ".method public static flush()V\n" +
+                "getstatic " + runtime + "/position I\n" +
+                "ifle Done\n" +
+                "getstatic java/lang/System/out Ljava/io/PrintStream;\n" +
+                "getstatic " + runtime + "/buffer [B\n" +
+                "iconst_0\n" +
+                "getstatic " + runtime + "/position I\n" +
+                "invokevirtual java/io/PrintStream/write([BII)V\n" +
+                "iconst_0\n" +
+                "putstatic " + runtime + "/position I\n" +
+                "Done :\n" +
+                "return\n" +
+                ".end method\n" +
+                // makes room for size more bytes
+                ".method public static reserve(I)V\n" +
+                ".var 0 is size I\n" +
+                "getstatic " + runtime + "/position I\n" +
+                "iload_0\n" +
+                "iadd\n" +
+                "getstatic " + runtime + "/buffer [B\n" +
+                "arraylength\n" +
+                "if_icmple Done\n" +
+                "invokestatic " + runtime + "/flush()V\n" +
+                "Done :\n" +
+                "return\n" +
+                ".end method\n" +
+                ".method public static putByte(I)V\n" +
+                ".var 0 is value I\n" +
+                "iconst_1\n" +
+                "invokestatic " + runtime + "/reserve(I)V\n" +
+                "getstatic " + runtime + "/buffer [B\n" +
+                "getstatic " + runtime + "/position I\n" +
+                "iload_0\n" +
+                "bastore\n" +
+                "getstatic " + runtime + "/position I\n" +
+                "iconst_1\n" +
+                "iadd\n" +
+                "putstatic " + runtime + "/position I\n" +
+                "return\n" +
+                ".end method\n" +
+                // the digits are taken from the negative of the value, which every int has
+                ".method public static putInt(I)V\n" +
+                ".var 0 is value I\n" +
+                ".var 1 is rest I\n" +
+                ".var 2 is end I\n" +
+                ".var 3 is buffer [B\n" +
+                ".var 4 is i I\n" +
+                "bipush 11\n" +
+                "invokestatic " + runtime + "/reserve(I)V\n" +
+                "getstatic " + runtime + "/buffer [B\n" +
+                "astore_3\n" +
+                "iload_0\n" +
+                "istore_1\n" +
+                "iload_0\n" +
+                "iflt Negative\n" +
+                "iload_0\n" +
+                "ineg\n" +
+                "istore_1\n" +
+                "goto Count\n" +
+                "Negative :\n" +
+                "aload_3\n" +
+                "getstatic " + runtime + "/position I\n" +
+                "bipush 45\n" +
+                "bastore\n" +
+                "getstatic " + runtime + "/position I\n" +
+                "iconst_1\n" +
+                "iadd\n" +
+                "putstatic " + runtime + "/position I\n" +
+                "Count :\n" +
+                "getstatic " + runtime + "/position I\n" +
+                "iconst_1\n" +
+                "iadd\n" +
+                "istore_2\n" +
+                "iload_1\n" +
+                "istore 4\n" +
+                "goto Digits\n" +
+                "Shorten :\n" +
+                "iload 4\n" +
+                "bipush 10\n" +
+                "idiv\n" +
+                "istore 4\n" +
+                "iinc 2 1\n" +
+                "Digits :\n" +
+                "iload 4\n" +
+                "bipush -10\n" +
+                "if_icmple Shorten\n" +
+                "iload_2\n" +
+                "istore 4\n" +
+                "Digit :\n" +
+                "iinc 4 -1\n" +
+                "aload_3\n" +
+                "iload 4\n" +
+                "bipush 48\n" +
+                "iload_1\n" +
+                "bipush 10\n" +
+                "irem\n" +
+                "isub\n" +
+                "bastore\n" +
+                "iload_1\n" +
+                "bipush 10\n" +
+                "idiv\n" +
+                "istore_1\n" +
+                "iload_1\n" +
+                "ifne Digit\n" +
+                "iload_2\n" +
+                "putstatic " + runtime + "/position I\n" +
+                "return\n" +
+                ".end method\n" +
+                ".method public static putLine()V\n" +
+                ".var 0 is newline [B\n" +
+                ".var 1 is i I\n" +
+                "getstatic " + runtime + "/newline [B\n" +
+                "astore_0\n" +
+                "aload_0\n" +
+                "arraylength\n" +
+                "invokestatic " + runtime + "/reserve(I)V\n" +
+                "iconst_0\n" +
+                "istore_1\n" +
+                "goto Test\n" +
+                "Loop :\n" +
+                "getstatic " + runtime + "/buffer [B\n" +
+                "getstatic " + runtime + "/position I\n" +
+                "aload_0\n" +
+                "iload_1\n" +
+                "baload\n" +
+                "bastore\n" +
+                "getstatic " + runtime + "/position I\n" +
+                "iconst_1\n" +
+                "iadd\n" +
+                "putstatic " + runtime + "/position I\n" +
+                "iinc 1 1\n" +
+                "Test :\n" +
+                "iload_1\n" +
+                "aload_0\n" +
+                "arraylength\n" +
+                "if_icmplt Loop\n" +
+                "getstatic " + runtime + "/lines Z\n" +
+                "ifeq Done\n" +
+                "invokestatic " + runtime + "/flush()V\n" +
+                "Done :\n" +
+                "return\n" +
+                ".end method\n" +
+                ".method public static println(I)V\n" +
+                ".var 0 is value I\n" +
+                "iload_0\n" +
+                "invokestatic " + runtime + "/putInt(I)V\n" +
+                "invokestatic " + runtime + "/putLine()V\n" +
+                "return\n" +
+                ".end method\n" +
+                ".method public static println([I)V\n" +
+                ".var 0 is array [I\n" +
+                ".var 1 is i I\n" +
+                "aload_0\n" +
+                "ifnonnull Elements\n" +
+                "ldc \"null\"\n" +
+                "invokestatic " + runtime + "/println(Ljava/lang/String;)V\n" +
+                "return\n" +
+                "Elements :\n" +
+                "bipush 91\n" +
+                "invokestatic " + runtime + "/putByte(I)V\n" +
+                "iconst_0\n" +
+                "istore_1\n" +
+                "goto Test\n" +
+                "Loop :\n" +
+                "iload_1\n" +
+                "ifeq First\n" +
+                "bipush 44\n" +
+                "invokestatic " + runtime + "/putByte(I)V\n" +
+                "bipush 32\n" +
+                "invokestatic " + runtime + "/putByte(I)V\n" +
+                "First :\n" +
+                "aload_0\n" +
+                "iload_1\n" +
+                "iaload\n" +
+                "invokestatic " + runtime + "/putInt(I)V\n" +
+                "iinc 1 1\n" +
+                "Test :\n" +
+                "iload_1\n" +
+                "aload_0\n" +
+                "arraylength\n" +
+                "if_icmplt Loop\n" +
+                "bipush 93\n" +
+                "invokestatic " + runtime + "/putByte(I)V\n" +
+                "invokestatic " + runtime + "/putLine()V\n" +
+                "return\n" +
+                ".end method\n" +
+                ".method public static println(Ljava/lang/String;)V\n" +
+                ".var 0 is string Ljava/lang/String;\n" +
+                ".var 1 is i I\n" +
+                ".var 2 is c I\n" +
+                "aload_0\n" +
+                "ifnonnull Chars\n" +
+                "ldc \"null\"\n" +
+                "astore_0\n" +
+                "Chars :\n" +
+                "iconst_0\n" +
+                "istore_1\n" +
+                "goto Test\n" +
+                "Loop :\n" +
+                "aload_0\n" +
+                "iload_1\n" +
+                "invokevirtual java/lang/String/charAt(I)C\n" +
+                "istore_2\n" +
+                "iload_2\n" +
+                "sipush 128\n" +
+                "if_icmpge Encoded\n" +
+                "iload_2\n" +
+                "invokestatic " + runtime + "/putByte(I)V\n" +
+                "iinc 1 1\n" +
+                "Test :\n" +
+                "iload_1\n" +
+                "aload_0\n" +
+                "invokevirtual java/lang/String/length()I\n" +
+                "if_icmplt Loop\n" +
+                "invokestatic " + runtime + "/putLine()V\n" +
+                "return\n" +
+                // the rest goes through System.out, after what is buffered
+                "Encoded :\n" +
+                "invokestatic " + runtime + "/flush()V\n" +
+                "getstatic java/lang/System/out Ljava/io/PrintStream;\n" +
+                "aload_0\n" +
+                "iload_1\n" +
+                "invokevirtual java/lang/String/substring(I)Ljava/lang/String;\n" +
+                "invokevirtual java/io/PrintStream/print(Ljava/lang/String;)V\n" +
+                "invokestatic " + runtime + "/putLine()V\n" +
+                "return\n" +
+                ".end method\n" +
+                ".method public static copy([II[III)V\n" +
+                ".var 0 is src [I\n" +
+                ".var 1 is srcPos I\n" +
+                ".var 2 is dst [I\n" +
+                ".var 3 is dstPos I\n" +
+                ".var 4 is count I\n" +
+                ".var 5 is i I\n" +
+                "iconst_0\n" +
+                "istore 5\n" +
+                "aload_0\n" +
+                "ifnull Loop\n" +
+                "aload_2\n" +
+                "ifnull Loop\n" +
+                "iload_1\n" +
+                "iflt Loop\n" +
+                "iload_3\n" +
+                "iflt Loop\n" +
+                "iload_1\n" +
+                "aload_0\n" +
+                "arraylength\n" +
+                "iload 4\n" +
+                "isub\n" +
+                "if_icmpgt Loop\n" +
+                "iload_3\n" +
+                "aload_2\n" +
+                "arraylength\n" +
+                "iload 4\n" +
+                "isub\n" +
+                "if_icmpgt Loop\n" +
+                // the loop reads each element before it writes over it, arraycopy does not when the range moves up
+                "aload_0\n" +
+                "aload_2\n" +
+                "if_acmpne Bulk\n" +
+                "iload_3\n" +
+                "iload_1\n" +
+                "if_icmpgt Loop\n" +
+                "Bulk :\n" +
+                "aload_0\n" +
+                "iload_1\n" +
+                "aload_2\n" +
+                "iload_3\n" +
+                "iload 4\n" +
+                "invokestatic java/lang/System/arraycopy(Ljava/lang/Object;ILjava/lang/Object;II)V\n" +
+                "return\n" +
+                "Loop :\n" +
+                "aload_2\n" +
+                "iload_3\n" +
+                "iload 5\n" +
+                "iadd\n" +
+                "aload_0\n" +
+                "iload_1\n" +
+                "iload 5\n" +
+                "iadd\n" +
+                "iaload\n" +
+                "iastore\n" +
+                "iinc 5 1\n" +
+                "iload 5\n" +
+                "iload 4\n" +
+                "if_icmplt Loop\n" +
+                "return\n" +
+                ".end method\n" +
+                ".method public static fill([IIII)V\n" +
+                ".var 0 is array [I\n" +
+                ".var 1 is from I\n" +
+                ".var 2 is count I\n" +
+                ".var 3 is value I\n" +
+                ".var 4 is i I\n" +
+                "iconst_0\n" +
+                "istore 4\n" +
+                "aload_0\n" +
+                "ifnull Loop\n" +
+                "iload_1\n" +
+                "iflt Loop\n" +
+                "iload_1\n" +
+                "aload_0\n" +
+                "arraylength\n" +
+                "iload_2\n" +
+                "isub\n" +
+                "if_icmpgt Loop\n" +
+                "aload_0\n" +
+                "iload_1\n" +
+                "iload_1\n" +
+                "iload_2\n" +
+                "iadd\n" +
+                "iload_3\n" +
+                "invokestatic java/util/Arrays/fill([IIII)V\n" +
+                "return\n" +
+                "Loop :\n" +
+                "aload_0\n" +
+                "iload_1\n" +
+                "iload 4\n" +
+                "iadd\n" +
+                "iload_3\n" +
+                "iastore\n" +
+                "iinc 4 1\n" +
+                "iload 4\n" +
+                "iload_2\n" +
+                "if_icmplt Loop\n" +
+                "return\n" +
+                ".end method\n" +
+                ".method public static sum([IIII)I\n" +
+                ".var 0 is array [I\n" +
+                ".var 1 is from I\n" +
+                ".var 2 is count I\n" +
+                ".var 3 is sum I\n" +
+                ".var 4 is i I\n" +
+                "iconst_0\n" +
+                "istore 4\n" +
+                "Loop :\n" +
+                "iload_3\n" +
+                "aload_0\n" +
+                "iload_1\n" +
+                "iload 4\n" +
+                "iadd\n" +
+                "iaload\n" +
+                "iadd\n" +
+                "istore_3\n" +
+                "iinc 4 1\n" +
+                "iload 4\n" +
+                "iload_2\n" +
+                "if_icmplt Loop\n" +
+                "iload_3\n" +
+                "ireturn\n" +
+                ".end method";
+        generatedCode.add(code);
+    }
+
+    // the counters of the instrumented program and the thread that writes them out, one record per site in the
+    // order they were numbered. the sites are a single string with a line for each
+    public void profileCodeGenerator() {
+        StringBuilder sites = new StringBuilder();
+        for (String site : profileSites)
+            sites.append(site).append("\\n");
+        String code = ".class public " + Profile.RUNTIME_CLASS + "\n" +
+                ".super java/lang/Thread\n" +
+                ".field public static counts [I\n" +
+                ".method static <clinit>()V\n" +
+                "ldc " + profileSites.size() + "\n" +
+                "newarray int\n" +
+                "putstatic " + Profile.RUNTIME_CLASS + "/counts [I\n" +
+                "return\n" +
+                ".end method\n" +
+                ".method public <init>()V\n" +
+                "aload_0 ; push this\n" +
+                "invokespecial java/lang/Thread/<init>()V ; call super\n" +
+                "return\n" +
+                ".end method\n" +
+                ".method public run()V\n" +
+                ".var 1 is out Ljava/io/PrintStream;\n" +
+                ".var 2 is sites Ljava/lang/String;\n" +
+                ".var 3 is start I\n" +
+                ".var 4 is end I\n" +
+                ".var 5 is i I\n" +
+                "new java/io/PrintStream\n" +
+                "dup\n" +
+                "ldc " + quote(profileFile) + "\n" +
+                "invokespecial java/io/PrintStream/<init>(Ljava/lang/String;)V\n" +
+                "astore_1\n" +
+                "ldc \"" + sites + "\"\n" +
+                "astore_2\n" +
+                "iconst_0\n" +
+                "istore_3\n" +
+                "iconst_0\n" +
+                "istore 5\n" +
+                "Loop :\n" +
+                "aload_2\n" +
+                "bipush 10\n" +
+                "iload_3\n" +
+                "invokevirtual java/lang/String/indexOf(II)I\n" +
+                "istore 4\n" +
+                "iload 4\n" +
+                "iflt Done\n" +
+                "aload_1\n" +
+                "new java/lang/StringBuilder\n" +
+                "dup\n" +
+                "invokespecial java/lang/StringBuilder/<init>()V\n" +
+                "aload_2\n" +
+                "iload_3\n" +
+                "iload 4\n" +
+                "invokevirtual java/lang/String/substring(II)Ljava/lang/String;\n" +
+                "invokevirtual java/lang/StringBuilder/append(Ljava/lang/String;)Ljava/lang/StringBuilder;\n" +
+                "ldc \" \"\n" +
+                "invokevirtual java/lang/StringBuilder/append(Ljava/lang/String;)Ljava/lang/StringBuilder;\n" +
+                // counts past 2^31 still read right
+                "getstatic " + Profile.RUNTIME_CLASS + "/counts [I\n" +
+                "iload 5\n" +
+                "iaload\n" +
+                "invokestatic java/lang/Integer/toUnsignedString(I)Ljava/lang/String;\n" +
+                "invokevirtual java/lang/StringBuilder/append(Ljava/lang/String;)Ljava/lang/StringBuilder;\n" +
+                "invokevirtual java/lang/StringBuilder/toString()Ljava/lang/String;\n" +
+                "invokevirtual java/io/PrintStream/println(Ljava/lang/String;)V\n" +
+                "iload 4\n" +
+                "iconst_1\n" +
+                "iadd\n" +
+                "istore_3\n" +
+                "iinc 5 1\n" +
+                "goto Loop\n" +
+                "Done :\n" +
+                "aload_1\n" +
+                "invokevirtual java/io/PrintStream/close()V\n" +
+                "return\n" +
+                ".end method";
+        generatedCode.add(code);
+    }
+
+    // the counters of a thread are an array of longs: calls, total and self time and the callers still active of
+    // every method, the turns of every loop, the allocations and bytes of every site and, last, the depth of calls. its stack has the time the callees took
+    // and the start of every call still active, and is replaced by one twice as big when it fills up. the two
+    // arrays are kept in a thread local, and a queue of them all is only added to the first time a thread counts
+    // something. the report is written by the thread that runs when the program exits
+    public void profilerCodeGenerator() {
+        String profiler = Profiler.RUNTIME_CLASS;
+        int methods = timedMethods.size();
+        int loops = timedLoops.size();
+        int total = methods;
+        int self = 2 * methods;
+        int active = 3 * methods;
+        int turns = 4 * methods;
+        int sites = allocationSites.size();
+        int allocations = 4 * methods + loops;
+        int bytes = allocations + sites;
+        int depth = bytes + sites;
+        ArrayList<String> names = new ArrayList<>(timedMethods);
+        names.addAll(timedLoops);
+        names.addAll(allocationSites);
+        ArrayList<String> lines = new ArrayList<>();
+        ArrayList<String> kinds = new ArrayList<>();
+        for (int line : timedLines)
+            lines.add(String.valueOf(line));
+        for (int line : timedLoopLines)
+            lines.add(String.valueOf(line));
+        for (int line : allocationLines)
+            lines.add(String.valueOf(line));
+        for (int i = 0; i < methods + loops; i++)
+            kinds.add("");
+        kinds.addAll(allocationKinds);
+        boolean json = profilerFile != null;
+        String code = ".class public " + profiler + "\n" +
+                ".super java/lang/Thread\n" +
+                ".field public static states Ljava/lang/ThreadLocal;\n" +
+                ".field public static threads Ljava/util/concurrent/ConcurrentLinkedQueue;\n" +
+                ".method static <clinit>()V\n" +
+                "new java/lang/ThreadLocal\n" +
+                "dup\n" +
+                "invokespecial java/lang/ThreadLocal/<init>()V\n" +
+                "putstatic " + profiler + "/states Ljava/lang/ThreadLocal;\n" +
+                "new java/util/concurrent/ConcurrentLinkedQueue\n" +
+                "dup\n" +
+                "invokespecial java/util/concurrent/ConcurrentLinkedQueue/<init>()V\n" +
+                "putstatic " + profiler + "/threads Ljava/util/concurrent/ConcurrentLinkedQueue;\n" +
+                "return\n" +
+                ".end method\n" +
+                ".method public <init>()V\n" +
+                "aload_0 ; push this\n" +
+                "invokespecial java/lang/Thread/<init>()V ; call super\n" +
+                "return\n" +
+                ".end method\n" +
+                // the counters and the stack of the calling thread
+                ".method public static state()[[J\n" +
+                ".var 0 is state [[J\n" +
+                "getstatic " + profiler + "/states Ljava/lang/ThreadLocal;\n" +
+                "invokevirtual java/lang/ThreadLocal/get()Ljava/lang/Object;\n" +
+                "checkcast [[J\n" +
+                "astore_0\n" +
+                "aload_0\n" +
+                "ifnonnull Done\n" +
+                "iconst_2\n" +
+                "anewarray [J\n" +
+                "astore_0\n" +
+                "aload_0\n" +
+                "iconst_0\n" +
+                "ldc " + (depth + 1) + "\n" +
+                "newarray long\n" +
+                "aastore\n" +
+                "aload_0\n" +
+                "iconst_1\n" +
+                "bipush 64\n" +
+                "newarray long\n" +
+                "aastore\n" +
+                "getstatic " + profiler + "/states Ljava/lang/ThreadLocal;\n" +
+                "aload_0\n" +
+                "invokevirtual java/lang/ThreadLocal/set(Ljava/lang/Object;)V\n" +
+                "getstatic " + profiler + "/threads Ljava/util/concurrent/ConcurrentLinkedQueue;\n" +
+                "aload_0\n" +
+                "invokevirtual java/util/concurrent/ConcurrentLinkedQueue/add(Ljava/lang/Object;)Z\n" +
+                "pop\n" +
+                "Done :\n" +
+                "aload_0\n" +
+                "areturn\n" +
+                ".end method\n" +
+                ".method public static enter(I)V\n" +
+                ".var 0 is method I\n" +
+                ".var 1 is state [[J\n" +
+                ".var 2 is counters [J\n" +
+                ".var 3 is stack [J\n" +
+                ".var 4 is top I\n" +
+                "invokestatic " + profiler + "/state()[[J\n" +
+                "astore_1\n" +
+                "aload_1\n" +
+                "iconst_0\n" +
+                "aaload\n" +
+                "astore_2\n" +
+                "aload_1\n" +
+                "iconst_1\n" +
+                "aaload\n" +
+                "astore_3\n" +
+                "aload_2\n" +
+                "ldc " + depth + "\n" +
+                "laload\n" +
+                "l2i\n" +
+                "iconst_2\n" +
+                "imul\n" +
+                "istore 4\n" +
+                "iload 4\n" +
+                "aload_3\n" +
+                "arraylength\n" +
+                "if_icmplt Push\n" +
+                "aload_3\n" +
+                "aload_3\n" +
+                "arraylength\n" +
+                "iconst_2\n" +
+                "imul\n" +
+                "invokestatic java/util/Arrays/copyOf([JI)[J\n" +
+                "astore_3\n" +
+                "aload_1\n" +
+                "iconst_1\n" +
+                "aload_3\n" +
+                "aastore\n" +
+                "Push :\n" +
+                increment("aload_2", "iload_0") +
+                increment("aload_2", "ldc " + active + "\niload_0\niadd") +
+                increment("aload_2", "ldc " + depth) +
+                "aload_3\n" +
+                "iload 4\n" +
+                "lconst_0\n" +
+                "lastore\n" +
+                "aload_3\n" +
+                "iload 4\n" +
+                "iconst_1\n" +
+                "iadd\n" +
+                "invokestatic java/lang/System/nanoTime()J\n" +
+                "lastore\n" +
+                "return\n" +
+                ".end method\n" +
+                ".method public static exit(I)V\n" +
+                ".var 0 is method I\n" +
+                ".var 1 is now J\n" +
+                ".var 3 is state [[J\n" +
+                ".var 4 is counters [J\n" +
+                ".var 5 is stack [J\n" +
+                ".var 6 is top I\n" +
+                ".var 7 is elapsed J\n" +
+                "invokestatic java/lang/System/nanoTime()J\n" +
+                "lstore 1\n" +
+                "invokestatic " + profiler + "/state()[[J\n" +
+                "astore_3\n" +
+                "aload_3\n" +
+                "iconst_0\n" +
+                "aaload\n" +
+                "astore 4\n" +
+                "aload_3\n" +
+                "iconst_1\n" +
+                "aaload\n" +
+                "astore 5\n" +
+                "aload 4\n" +
+                "ldc " + depth + "\n" +
+                "laload\n" +
+                "l2i\n" +
+                "iconst_1\n" +
+                "isub\n" +
+                "istore 6\n" +
+                "aload 4\n" +
+                "ldc " + depth + "\n" +
+                "iload 6\n" +
+                "i2l\n" +
+                "lastore\n" +
+                "iload 6\n" +
+                "iconst_2\n" +
+                "imul\n" +
+                "istore 6\n" +
+                "lload 1\n" +
+                "aload 5\n" +
+                "iload 6\n" +
+                "iconst_1\n" +
+                "iadd\n" +
+                "laload\n" +
+                "lsub\n" +
+                "lstore 7\n" +
+                // self time is what the callees did not take
+                "aload 4\n" +
+                "ldc " + self + "\n" +
+                "iload_0\n" +
+                "iadd\n" +
+                "dup2\n" +
+                "laload\n" +
+                "lload 7\n" +
+                "ladd\n" +
+                "aload 5\n" +
+                "iload 6\n" +
+                "laload\n" +
+                "lsub\n" +
+                "lastore\n" +
+                "aload 4\n" +
+                "ldc " + active + "\n" +
+                "iload_0\n" +
+                "iadd\n" +
+                "dup2\n" +
+                "laload\n" +
+                "lconst_1\n" +
+                "lsub\n" +
+                "lastore\n" +
+                // a method that recursed adds its total once, when the outermost call returns
+                "aload 4\n" +
+                "ldc " + active + "\n" +
+                "iload_0\n" +
+                "iadd\n" +
+                "laload\n" +
+                "lconst_0\n" +
+                "lcmp\n" +
+                "ifne Caller\n" +
+                "aload 4\n" +
+                "ldc " + total + "\n" +
+                "iload_0\n" +
+                "iadd\n" +
+                "dup2\n" +
+                "laload\n" +
+                "lload 7\n" +
+                "ladd\n" +
+                "lastore\n" +
+                "Caller :\n" +
+                "iload 6\n" +
+                "ifle Done\n" +
+                "aload 5\n" +
+                "iload 6\n" +
+                "iconst_2\n" +
+                "isub\n" +
+                "dup2\n" +
+                "laload\n" +
+                "lload 7\n" +
+                "ladd\n" +
+                "lastore\n" +
+                "Done :\n" +
+                "return\n" +
+                ".end method\n" +
+                // the turns a loop took from when it was entered to when it was left
+                ".method public static turns(II)V\n" +
+                ".var 0 is loop I\n" +
+                ".var 1 is turns I\n" +
+                "invokestatic " + profiler + "/state()[[J\n" +
+                "iconst_0\n" +
+                "aaload\n" +
+                "ldc " + turns + "\n" +
+                "iload_0\n" +
+                "iadd\n" +
+                "dup2\n" +
+                "laload\n" +
+                "iload_1\n" +
+                "invokestatic java/lang/Integer/toUnsignedLong(I)J\n" +
+                "ladd\n" +
+                "lastore\n" +
+                "return\n" +
+                ".end method\n" +
+                // an allocation of size bytes at a site
+                ".method public static allocate(II)V\n" +
+                ".var 0 is site I\n" +
+                ".var 1 is size I\n" +
+                "invokestatic " + profiler + "/state()[[J\n" +
+                "iconst_0\n" +
+                "aaload\n" +
+                "dup\n" +
+                "ldc " + allocations + "\n" +
+                "iload_0\n" +
+                "iadd\n" +
+                "dup2\n" +
+                "laload\n" +
+                "lconst_1\n" +
+                "ladd\n" +
+                "lastore\n" +
+                "ldc " + bytes + "\n" +
+                "iload_0\n" +
+                "iadd\n" +
+                "dup2\n" +
+                "laload\n" +
+                "iload_1\n" +
+                "i2l\n" +
+                "ladd\n" +
+                "lastore\n" +
+                "return\n" +
+                ".end method\n" +
+                ".method public run()V\n" +
+                ".var 1 is totals [J\n" +
+                ".var 2 is states [Ljava/lang/Object;\n" +
+                ".var 3 is counters [J\n" +
+                ".var 4 is i I\n" +
+                ".var 5 is out Ljava/io/PrintStream;\n" +
+                ".var 6 is names [Ljava/lang/String;\n" +
+                ".var 7 is lines [Ljava/lang/String;\n" +
+                ".var 8 is best I\n" +
+                ".var 9 is args [Ljava/lang/Object;\n" +
+                ".var 10 is separator Ljava/lang/String;\n" +
+                ".var 11 is kinds [Ljava/lang/String;\n" +
+                "ldc " + depth + "\n" +
+                "newarray long\n" +
+                "astore_1\n" +
+                "getstatic " + profiler + "/threads Ljava/util/concurrent/ConcurrentLinkedQueue;\n" +
+                "invokevirtual java/util/concurrent/ConcurrentLinkedQueue/toArray()[Ljava/lang/Object;\n" +
+                "astore_2\n" +
+                "iconst_0\n" +
+                "istore 8\n" +
+                "goto Threads\n" +
+                "Thread :\n" +
+                "aload_2\n" +
+                "iload 8\n" +
+                "aaload\n" +
+                "checkcast [[J\n" +
+                "iconst_0\n" +
+                "aaload\n" +
+                "astore_3\n" +
+                "iconst_0\n" +
+                "istore 4\n" +
+                "goto Counters\n" +
+                "Counter :\n" +
+                "aload_1\n" +
+                "iload 4\n" +
+                "dup2\n" +
+                "laload\n" +
+                "aload_3\n" +
+                "iload 4\n" +
+                "laload\n" +
+                "ladd\n" +
+                "lastore\n" +
+                "iinc 4 1\n" +
+                "Counters :\n" +
+                "iload 4\n" +
+                "ldc " + depth + "\n" +
+                "if_icmplt Counter\n" +
+                "iinc 8 1\n" +
+                "Threads :\n" +
+                "iload 8\n" +
+                "aload_2\n" +
+                "arraylength\n" +
+                "if_icmplt Thread\n" +
+                (json ?
+                        "new java/io/PrintStream\n" +
+                        "dup\n" +
+                        "ldc " + quote(profilerFile) + "\n" +
+                        "invokespecial java/io/PrintStream/<init>(Ljava/lang/String;)V\n" :
+                        "getstatic java/lang/System/err Ljava/io/PrintStream;\n") +
+                "astore 5\n" +
+                split(names) +
+                "astore 6\n" +
+                split(lines) +
+                "astore 7\n" +
+                split(kinds) +
+                "astore 11\n";
+        StringBuilder report = new StringBuilder(code);
+        String between = json ? Profiler.JSON_START : "";
+        if (profileTime) {
+            report.append(print(json ? between + Profiler.JSON_METHODS : Profiler.TEXT_METHODS));
+            report.append(rankedReport("Method", total, methods, 0,
+                    json ? Profiler.JSON_METHOD : Profiler.TEXT_METHOD, json,
+                    "iload 8\n" +
+                    "laload\n",
+                    "ldc " + total + "\n" +
+                    "iload 8\n" +
+                    "iadd\n" +
+                    "laload\n" +
+                    "ldc 1000\n" +
+                    "i2l\n" +
+                    "ldiv\n",
+                    "ldc " + self + "\n" +
+                    "iload 8\n" +
+                    "iadd\n" +
+                    "laload\n" +
+                    "ldc 1000\n" +
+                    "i2l\n" +
+                    "ldiv\n"));
+            report.append(print(json ? Profiler.JSON_BETWEEN + Profiler.JSON_LOOPS : Profiler.TEXT_LOOPS));
+            report.append(rankedReport("Loop", turns, loops, methods,
+                    json ? Profiler.JSON_LOOP : Profiler.TEXT_LOOP, json,
+                    "ldc " + turns + "\n" +
+                    "iload 8\n" +
+                    "iadd\n" +
+                    "laload\n"));
+            between = Profiler.JSON_BETWEEN;
+        }
+        if (profileAlloc) {
+            report.append(print(json ? between + Profiler.JSON_ALLOCATIONS : Profiler.TEXT_ALLOCATIONS));
+            report.append(rankedReport("Site", bytes, sites, methods + loops,
+                    json ? Profiler.JSON_ALLOCATION : Profiler.TEXT_ALLOCATION, json,
+                    "ldc " + allocations + "\n" +
+                    "iload 8\n" +
+                    "iadd\n" +
+                    "laload\n",
+                    "ldc " + bytes + "\n" +
+                    "iload 8\n" +
+                    "iadd\n" +
+                    "laload\n"));
+        }
+        report.append(print(json ? Profiler.JSON_END : Profiler.TEXT_END));
+        report.append("aload 5\n" +
+                (json ? "invokevirtual java/io/PrintStream/close()V\n" :
+                        "invokevirtual java/io/PrintStream/flush()V\n") +
+                "return\n" +
+                ".end method");
+        generatedCode.add(report.toString());
+    }
+
+    // the names, lines or kinds of the entries of the report as an array, empty ones included
+    private static String split(ArrayList<String> values) {
+        return "ldc " + quote(String.join("\n", values)) + "\n" +
+                "ldc \"\\n\"\n" +
+                "iconst_m1\n" +
+                "invokevirtual java/lang/String/split(Ljava/lang/String;I)[Ljava/lang/String;\n";
+    }
+
+    private static String print(String text) {
+        return "aload 5\n" +
+                "ldc " + quote(text) + "\n" +
+                "invokevirtual java/io/PrintStream/print(Ljava/lang/String;)V\n";
+    }
+
+    // adds one to the long an array and an index, given as the code that loads them, point at
+    private static String increment(String array, String index) {
+        return array + "\n" +
+                index + "\n" +
+                "dup2\n" +
+                "laload\n" +
+                "lconst_1\n" +
+                "ladd\n" +
+                "lastore\n";
+    }
+
+    // writes count entries of the totals, in order of the ones at key down. the name, line and kind of entry i are
+    // at first + i, and every value loads a count of it from the totals with the entry's index in local 8. an entry
+    // is taken out of the order by setting its key to -1
+    private static String rankedReport(String label, int key, int count, int first, String format, boolean json,
+                                       String... values) {
+        StringBuilder code = new StringBuilder();
+        code.append("ldc \"\"\n" +
+                "astore 10\n" +
+                label + " :\n" +
+                "iconst_m1\n" +
+                "istore 8\n" +
+                "iconst_0\n" +
+                "istore 4\n" +
+                "goto " + label + "Entries\n" +
+                label + "Entry :\n" +
+                "aload_1\n" +
+                "ldc " + key + "\n" +
+                "iload 4\n" +
+                "iadd\n" +
+                "laload\n" +
+                "lconst_0\n" +
+                "lcmp\n" +
+                "iflt " + label + "Next\n" +
+                "iload 8\n" +
+                "iflt " + label + "Best\n" +
+                "aload_1\n" +
+                "ldc " + key + "\n" +
+                "iload 4\n" +
+                "iadd\n" +
+                "laload\n" +
+                "aload_1\n" +
+                "ldc " + key + "\n" +
+                "iload 8\n" +
+                "iadd\n" +
+                "laload\n" +
+                "lcmp\n" +
+                "ifle " + label + "Next\n" +
+                label + "Best :\n" +
+                "iload 4\n" +
+                "istore 8\n" +
+                label + "Next :\n" +
+                "iinc 4 1\n" +
+                label + "Entries :\n" +
+                "iload 4\n" +
+                "ldc " + count + "\n" +
+                "if_icmplt " + label + "Entry\n" +
+                "iload 8\n" +
+                "iflt " + label + "Done\n" +
+                "ldc " + (4 + values.length) + "\n" +
+                "anewarray java/lang/Object\n" +
+                "astore 9\n" +
+                "aload 9\n" +
+                "iconst_0\n" +
+                "aload 10\n" +
+                "aastore\n" +
+                "aload 9\n" +
+                "iconst_1\n" +
+                "aload 6\n" +
+                "ldc " + first + "\n" +
+                "iload 8\n" +
+                "iadd\n" +
+                "aaload\n" +
+                "aastore\n" +
+                "aload 9\n" +
+                "iconst_2\n" +
+                "aload 7\n" +
+                "ldc " + first + "\n" +
+                "iload 8\n" +
+                "iadd\n" +
+                "aaload\n" +
+                "aastore\n" +
+                "aload 9\n" +
+                "iconst_3\n" +
+                "aload 11\n" +
+                "ldc " + first + "\n" +
+                "iload 8\n" +
+                "iadd\n" +
+                "aaload\n" +
+                "aastore\n");
+        for (int i = 0; i < values.length; i++) {
+            code.append("aload 9\n" +
+                    "ldc " + (4 + i) + "\n" +
+                    "aload_1\n" +
+                    values[i] +
+                    "invokestatic java/lang/Long/valueOf(J)Ljava/lang/Long;\n" +
+                    "aastore\n");
+        }
+        code.append("aload 5\n" +
+                "ldc " + quote(format) + "\n" +
+                "aload 9\n" +
+                "invokevirtual java/io/PrintStream/format(Ljava/lang/String;[Ljava/lang/Object;)Ljava/io/PrintStream;\n" +
+                "pop\n" +
+                "ldc " + quote(json ? Profiler.JSON_SEPARATOR : Profiler.TEXT_SEPARATOR) + "\n" +
+                "astore 10\n" +
+                "aload_1\n" +
+                "ldc " + key + "\n" +
+                "iload 8\n" +
+                "iadd\n" +
+                "iconst_m1\n" +
+                "i2l\n" +
+                "lastore\n" +
+                "goto " + label + "\n" +
+                label + "Done :\n");
+        return code.toString();
+    }
+
+    // a string as the operand of ldc
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
     public void setClassDecMap(HashMap<String, ClassDeclaration> classDecMap) {
         this.classDecMap = classDecMap;
     }
@@ -11,6 +11,6 @@ public class ObjectType extends Type {
 
     @Override
     public String getTypeCode() {
-        return "java/lang/Object";
+        return "Ljava/lang/Object;";
     }
 }
@@ -467,7 +467,9 @@ public class VisitorImpl implements Visitor {
         }
 
         if (pass == Pass.Third) {
-            newArray.setType(new ArrayType());
+            ArrayType arrayType = new ArrayType();
+            arrayType.setSize(intValue.getConstant());
+            newArray.setType(arrayType);
         }
     }
 
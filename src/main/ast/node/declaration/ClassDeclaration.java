@@ -13,6 +13,7 @@ public class ClassDeclaration extends Declaration{
     private ClassDeclaration parentClass;
     private ArrayList<VarDeclaration> varDeclarations = new ArrayList<>();
     private ArrayList<MethodDeclaration> methodDeclarations = new ArrayList<>();
+    private boolean isFinal = false;
 
     public ClassDeclaration(Identifier name, Identifier parentName) {
         this.name = name;
@@ -51,6 +52,14 @@ public class ClassDeclaration extends Declaration{
         this.methodDeclarations.add(methodDeclaration);
     }
 
+    public boolean isFinal() {
+        return isFinal;
+    }
+
+    public void setFinal(boolean isFinal) {
+        this.isFinal = isFinal;
+    }
+
     public boolean hasParent() {
         return this.getParentName() != null && this.getParentName().getName() != null;
     }
@@ -67,7 +76,7 @@ public class ClassDeclaration extends Declaration{
     @Override
     public ArrayList<String> getGeneratedCode() {
         ArrayList<String> code = new ArrayList<>();
-        code.add(".class public " + name.getName());
+        code.add(".class public " + (isFinal ? "final " : "") + name.getName());
 
         if (!this.hasParent()) {
             code.add(".super java/lang/Object");
@@ -91,7 +100,6 @@ public class ClassDeclaration extends Declaration{
         }
 
         code.add(".method public <init>()V");
-        code.add(".limit stack 2");
         code.add("aload_0");
         code.add("invokespecial " + par + "/<init>()V");
         code.addAll(initCode);
@@ -17,6 +17,8 @@ public class MethodDeclaration extends Declaration {
     private ArrayList<VarDeclaration> args = new ArrayList<>();
     private ArrayList<VarDeclaration> localVars = new ArrayList<>();
     private ArrayList<Statement> body = new ArrayList<>();
+    private boolean isFinal = false;
+    private boolean isStatic = false;
 
     public MethodDeclaration(Identifier name) {
         this.name = name;
@@ -70,6 +72,27 @@ public class MethodDeclaration extends Declaration {
         this.localVars.add(localVar);
     }
 
+    public boolean isFinal() {
+        return isFinal;
+    }
+
+    public void setFinal(boolean isFinal) {
+        this.isFinal = isFinal;
+    }
+
+    public boolean isStatic() {
+        return isStatic;
+    }
+
+    public void setStatic(boolean isStatic) {
+        this.isStatic = isStatic;
+    }
+
+    // slot of the first argument, a static method has no this in slot 0
+    public int getFirstVariableIndex() {
+        return isStatic ? 0 : 1;
+    }
+
     @Override
     public String toString() {
         return "MethodDeclaration";
@@ -79,19 +102,37 @@ public class MethodDeclaration extends Declaration {
         visitor.visit(this);
     }
 
-    @Override
-    public ArrayList<String> getGeneratedCode() {
+    // the .method line and the declarations of the argument slots
+    public ArrayList<String> getSignatureCode() {
         ArrayList<String> code = new ArrayList<>();
         StringBuilder dec = new StringBuilder();
-        dec.append(".method public ").append(name.getName()).append("(");
+        dec.append(".method public ");
+        if (isStatic)
+            dec.append("static ");
+        if (isFinal)
+            dec.append("final ");
+        dec.append(name.getName()).append("(");
         for (VarDeclaration arg : args) {
             dec.append(arg.getType().getTypeCode());
         }
         dec.append(")");
         dec.append(this.getReturnType().getTypeCode());
         code.add(dec.toString());
-        code.add(".limit stack " + String.valueOf(localVars.size() + args.size() + 20));
-        code.add(".limit locals " + String.valueOf(args.size() + localVars.size() + 1));
+
+        // declared slot types, the class file backend builds its stack map frames from them
+        // .limit stack and .limit locals are computed from the finished instruction list
+        int index = getFirstVariableIndex();
+        for (VarDeclaration var : args)
+            code.add(".var " + index++ + " is " + var.getIdentifier().getName() + " " + var.getType().getTypeCode());
+        return code;
+    }
+
+    @Override
+    public ArrayList<String> getGeneratedCode() {
+        ArrayList<String> code = getSignatureCode();
+        int index = getFirstVariableIndex() + args.size();
+        for (VarDeclaration var : localVars)
+            code.add(".var " + index++ + " is " + var.getIdentifier().getName() + " " + var.getType().getTypeCode());
 
         return code;
     }
@@ -7,6 +7,8 @@ import java.util.ArrayList;
 public class ArrayCall extends Expression {
     private Expression instance;
     private Expression index;
+    // set by the optimizer when the index is known to be inside the array
+    private boolean inBounds = false;
 
     public ArrayCall(Expression instance, Expression index) {
         this.instance = instance;
@@ -29,6 +31,14 @@ public class ArrayCall extends Expression {
         this.index = index;
     }
 
+    public boolean isInBounds() {
+        return inBounds;
+    }
+
+    public void setInBounds(boolean inBounds) {
+        this.inBounds = inBounds;
+    }
+
     @Override
     public String toString() {
         return "ArrayCall";
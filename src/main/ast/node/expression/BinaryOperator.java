@@ -1,9 +1,12 @@
 package ast.node.expression;
 
 public enum BinaryOperator {
-    add, sub, mult, div, and, or, eq, neq, lt, gt, assign;
+    add, sub, mult, div, and, or, eq, neq, lt, gt, assign,
+    // only introduced by the optimizer, the grammar has no shift operators
+    shl, shr, ushr;
 
     private String instruction;
+    private String negatedInstruction;
 
     static {
         add.instruction = "iadd";
@@ -17,9 +20,25 @@ public enum BinaryOperator {
         lt.instruction = "if_icmplt";
         gt.instruction = "if_icmpgt";
         assign.instruction = "";
+        shl.instruction = "ishl";
+        shr.instruction = "ishr";
+        ushr.instruction = "iushr";
+
+        eq.negatedInstruction = "if_icmpne";
+        neq.negatedInstruction = "if_icmpeq";
+        lt.negatedInstruction = "if_icmpge";
+        gt.negatedInstruction = "if_icmple";
     }
 
     public String getInstruction() {
         return instruction;
     }
+
+    public String getNegatedInstruction() {
+        return negatedInstruction;
+    }
+
+    public boolean isArithmetic() {
+        return this == add || this == sub || this == mult || this == div || this == shl || this == shr || this == ushr;
+    }
 }
@@ -1,6 +1,7 @@
 package ast.node.expression;
 
 import ast.Visitor;
+import ast.node.declaration.MethodDeclaration;
 
 import java.util.ArrayList;
 
@@ -14,6 +15,8 @@ public class MethodCall extends Expression {
     }
 
     private ArrayList<Expression> args = new ArrayList<>();
+    // set by class hierarchy analysis when exactly one method can be the target
+    private MethodDeclaration target;
 
     public Expression getInstance() {
         return instance;
@@ -39,6 +42,14 @@ public class MethodCall extends Expression {
         this.args.add(arg);
     }
 
+    public MethodDeclaration getTarget() {
+        return target;
+    }
+
+    public void setTarget(MethodDeclaration target) {
+        this.target = target;
+    }
+
     @Override
     public String toString() {
         return "MethodCall";
@@ -1,6 +1,7 @@
 package ast.node.statement;
 
 import ast.Visitor;
+import ast.node.declaration.MethodDeclaration;
 import ast.node.expression.Expression;
 import ast.node.expression.Identifier;
 
@@ -16,6 +17,8 @@ public class MethodCallInMain extends Statement {
     }
 
     private ArrayList<Expression> args = new ArrayList<>();
+    // set by class hierarchy analysis when exactly one method can be the target
+    private MethodDeclaration target;
 
     public Expression getInstance() {
         return instance;
@@ -41,6 +44,14 @@ public class MethodCallInMain extends Statement {
         this.args.add(arg);
     }
 
+    public MethodDeclaration getTarget() {
+        return target;
+    }
+
+    public void setTarget(MethodDeclaration target) {
+        this.target = target;
+    }
+
     @Override
     public String toString() {
         return "MethodCallInMain";
@@ -27,12 +27,9 @@ public class Write extends Statement {
         visitor.visit(this);
     }
 
-    public String getInvokeCode() {
-        return "invokevirtual java/io/PrintStream/println(" + arg.getType().getTypeCode() + ")V";
-    }
-
-    public String getPrintStream() {
-        return "getstatic java/lang/System/out Ljava/io/PrintStream;";
+    // the runtime class writes every type writeln takes into its own buffer
+    public String getInvokeCode(String runtimeClass) {
+        return "invokestatic " + runtimeClass + "/println(" + arg.getType().getTypeCode() + ")V";
     }
 
 }
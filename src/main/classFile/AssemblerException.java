@@ -0,0 +1,7 @@
+package classFile;
+
+public class AssemblerException extends Exception {
+    public AssemblerException(String message) {
+        super(message);
+    }
+}
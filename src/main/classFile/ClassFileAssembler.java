@@ -0,0 +1,464 @@
+package classFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+// assembles the jasmin instruction lists built by the code generator straight into class file bytes
+public class ClassFileAssembler {
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int MAJOR_VERSION = 52;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_PROTECTED = 0x0004;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+    private static final int ACC_ABSTRACT = 0x0400;
+
+    private ConstantPool constantPool;
+    private String className;
+    private String superName;
+    private int accessFlags;
+    private ArrayList<byte[]> fields;
+    private ArrayList<byte[]> methods;
+
+    public String getClassName() {
+        return className;
+    }
+
+    public byte[] assemble(List<String> code) throws AssemblerException {
+        return assemble(JasminClass.parse(code));
+    }
+
+    public byte[] assemble(JasminClass jasminClass) throws AssemblerException {
+        constantPool = new ConstantPool();
+        className = jasminClass.getName();
+        superName = "java/lang/Object";
+        accessFlags = ACC_SUPER;
+        fields = new ArrayList<>();
+        methods = new ArrayList<>();
+
+        for (String directive : jasminClass.getDirectives()) {
+            if (directive.startsWith(".class"))
+                accessFlags |= parseAccessFlags(directive.split("\\s+"));
+            else if (directive.startsWith(".super"))
+                superName = directive.split("\\s+")[1];
+            else if (directive.startsWith(".field"))
+                fields.add(assembleField(directive));
+        }
+        for (JasminMethod method : jasminClass.getMethods())
+            methods.add(assembleMethod(method));
+
+        int thisIndex = constantPool.addClass(className);
+        int superIndex = constantPool.addClass(superName);
+        if (constantPool.getCount() > 0xFFFF)
+            throw new AssemblerException("too many constants in class " + className);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(0);
+            out.writeShort(MAJOR_VERSION);
+            out.writeShort(constantPool.getCount());
+            out.write(constantPool.toByteArray());
+            out.writeShort(accessFlags);
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(0);
+            out.writeShort(fields.size());
+            for (byte[] field : fields)
+                out.write(field);
+            out.writeShort(methods.size());
+            for (byte[] method : methods)
+                out.write(method);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static int parseAccessFlags(String[] tokens) {
+        int flags = 0;
+        for (String token : tokens) {
+            switch (token) {
+                case "public": flags |= ACC_PUBLIC; break;
+                case "private": flags |= ACC_PRIVATE; break;
+                case "protected": flags |= ACC_PROTECTED; break;
+                case "static": flags |= ACC_STATIC; break;
+                case "final": flags |= ACC_FINAL; break;
+                case "abstract": flags |= ACC_ABSTRACT; break;
+            }
+        }
+        return flags;
+    }
+
+    private byte[] assembleField(String text) throws AssemblerException {
+        String declaration = text;
+        int assignment = declaration.indexOf('=');
+        if (assignment != -1)
+            declaration = declaration.substring(0, assignment).trim();
+        String[] tokens = declaration.split("\\s+");
+        if (tokens.length < 3)
+            throw new AssemblerException("malformed field: " + text);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(parseAccessFlags(tokens));
+            out.writeShort(constantPool.addUtf8(tokens[tokens.length - 2]));
+            out.writeShort(constantPool.addUtf8(tokens[tokens.length - 1]));
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private byte[] assembleMethod(JasminMethod method) throws AssemblerException {
+        String name = method.getName();
+        String descriptor = method.getDescriptor();
+        int flags = parseAccessFlags(method.getHeader().split("\\s+"));
+        ArrayList<Instruction> instructions = method.getInstructions();
+
+        FrameAnalyzer analyzer = new FrameAnalyzer(className, name, descriptor, method.isStatic(),
+                method.getLocalTypes());
+        analyzer.analyze(instructions);
+        int maxStack = method.getMaxStack() == -1 ? analyzer.getMaxStack() : method.getMaxStack();
+        int maxLocals = method.getMaxLocals() == -1 ? analyzer.getMaxLocals() : method.getMaxLocals();
+        if (maxStack < analyzer.getMaxStack())
+            throw new AssemblerException(".limit stack " + maxStack + " of " + className + "." + name +
+                    " is exceeded, the method needs " + analyzer.getMaxStack());
+        if (maxLocals < analyzer.getMaxLocals())
+            throw new AssemblerException(".limit locals " + maxLocals + " of " + className + "." + name +
+                    " is exceeded, the method needs " + analyzer.getMaxLocals());
+
+        int[] offsets = new int[instructions.size() + 1];
+        byte[] code = assembleCode(instructions, analyzer, offsets, className + "." + name);
+        byte[] stackMapTable = assembleStackMapTable(instructions, analyzer, offsets);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(flags);
+            out.writeShort(constantPool.addUtf8(name));
+            out.writeShort(constantPool.addUtf8(descriptor));
+            out.writeShort(1);
+            out.writeShort(constantPool.addUtf8("Code"));
+            int attributesLength = stackMapTable == null ? 0 : 6 + stackMapTable.length;
+            out.writeInt(12 + code.length + attributesLength);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0);
+            if (stackMapTable == null)
+                out.writeShort(0);
+            else {
+                out.writeShort(1);
+                out.writeShort(constantPool.addUtf8("StackMapTable"));
+                out.writeInt(stackMapTable.length);
+                out.write(stackMapTable);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // unreachable instructions are left out, the verifier would otherwise need frames for them
+    private byte[] assembleCode(List<Instruction> instructions, FrameAnalyzer analyzer, int[] offsets,
+                                String methodName) throws AssemblerException {
+        CodeBuffer code = new CodeBuffer();
+        HashMap<String, Integer> labels = new HashMap<>();
+        ArrayList<int[]> fixups = new ArrayList<>();
+        ArrayList<String> fixupLabels = new ArrayList<>();
+
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction instruction = instructions.get(i);
+            offsets[i] = code.size();
+            if (!instruction.isLabel() && !analyzer.isReachable(i))
+                continue;
+            if (instruction.isLabel()) {
+                if (labels.put(instruction.getLabel(), code.size()) != null)
+                    throw new AssemblerException("duplicate label " + instruction.getLabel() + " in " + methodName);
+                continue;
+            }
+            Opcode opcode = instruction.getOpcode();
+            String operand = instruction.getOperand();
+            int start = code.size();
+            switch (opcode.getOperandKind()) {
+                case None:
+                    code.putByte(opcode.getCode());
+                    break;
+                case Byte:
+                    code.putByte(opcode.getCode());
+                    code.putByte(parseInt(operand));
+                    break;
+                case Short:
+                    code.putByte(opcode.getCode());
+                    code.putShort(parseInt(operand));
+                    break;
+                case Constant: {
+                    int index;
+                    if (operand.startsWith("\""))
+                        index = constantPool.addString(parseString(operand));
+                    else
+                        index = constantPool.addInteger(parseInt(operand));
+                    if (index <= 0xFF && opcode == Opcode.ldc) {
+                        code.putByte(Opcode.ldc.getCode());
+                        code.putByte(index);
+                    }
+                    else {
+                        code.putByte(Opcode.ldc_w.getCode());
+                        code.putShort(index);
+                    }
+                    break;
+                }
+                case Local: {
+                    int index = parseInt(operand);
+                    if (index <= 0xFF) {
+                        code.putByte(opcode.getCode());
+                        code.putByte(index);
+                    }
+                    else {
+                        code.putByte(Opcode.WIDE);
+                        code.putByte(opcode.getCode());
+                        code.putShort(index);
+                    }
+                    break;
+                }
+                case Increment: {
+                    String[] parts = operand.split("\\s+");
+                    int index = parseInt(parts[0]);
+                    int delta = parseInt(parts[1]);
+                    if (index <= 0xFF && delta >= Byte.MIN_VALUE && delta <= Byte.MAX_VALUE) {
+                        code.putByte(opcode.getCode());
+                        code.putByte(index);
+                        code.putByte(delta);
+                    }
+                    else {
+                        code.putByte(Opcode.WIDE);
+                        code.putByte(opcode.getCode());
+                        code.putShort(index);
+                        code.putShort(delta);
+                    }
+                    break;
+                }
+                case Branch:
+                    code.putByte(opcode.getCode());
+                    fixups.add(new int[] {start, code.size()});
+                    fixupLabels.add(operand);
+                    code.putShort(0);
+                    break;
+                case Field: {
+                    String[] parts = operand.split("\\s+");
+                    int slash = parts[0].lastIndexOf('/');
+                    code.putByte(opcode.getCode());
+                    code.putShort(constantPool.addFieldRef(parts[0].substring(0, slash),
+                            parts[0].substring(slash + 1), parts[1]));
+                    break;
+                }
+                case Method: {
+                    int paren = operand.indexOf('(');
+                    int slash = operand.lastIndexOf('/', paren);
+                    code.putByte(opcode.getCode());
+                    code.putShort(constantPool.addMethodRef(operand.substring(0, slash),
+                            operand.substring(slash + 1, paren), operand.substring(paren)));
+                    break;
+                }
+                case Class:
+                    code.putByte(opcode.getCode());
+                    code.putShort(constantPool.addClass(operand));
+                    break;
+                case ArrayType:
+                    code.putByte(opcode.getCode());
+                    code.putByte(parseArrayType(operand));
+                    break;
+            }
+        }
+
+        for (int i = 0; i < fixups.size(); i++) {
+            Integer target = labels.get(fixupLabels.get(i));
+            if (target == null)
+                throw new AssemblerException("undefined label " + fixupLabels.get(i) + " in " + methodName);
+            int offset = target - fixups.get(i)[0];
+            if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+                throw new AssemblerException("branch to " + fixupLabels.get(i) + " is too far in " + methodName);
+            code.patchShort(fixups.get(i)[1], offset);
+        }
+        offsets[instructions.size()] = code.size();
+        if (code.size() > 0xFFFF)
+            throw new AssemblerException("code of " + methodName + " is larger than 64K");
+        return code.toByteArray();
+    }
+
+    // one frame per branch target offset, each encoded relative to the previous one
+    private byte[] assembleStackMapTable(List<Instruction> instructions, FrameAnalyzer analyzer, int[] offsets)
+            throws AssemblerException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int count = 0;
+        int previousOffset = -1;
+        ArrayList<VerificationType> previousLocals = analyzer.getInitialFrame().getFrameLocals();
+        try {
+            for (int i = 0; i < instructions.size(); i++) {
+                if (!analyzer.isBranchTarget(i) || offsets[i] == previousOffset)
+                    continue;
+                // the frame that holds at an offset is the one of the first instruction after its labels
+                int next = i;
+                while (instructions.get(next).isLabel())
+                    next++;
+                Frame frame = analyzer.getFrame(next);
+                ArrayList<VerificationType> locals = frame.getFrameLocals();
+                ArrayList<VerificationType> stack = frame.getFrameStack();
+                int delta = previousOffset == -1 ? offsets[i] : offsets[i] - previousOffset - 1;
+
+                int common = 0;
+                while (common < locals.size() && common < previousLocals.size() &&
+                        locals.get(common).equals(previousLocals.get(common)))
+                    common++;
+                boolean sameLocals = common == locals.size() && common == previousLocals.size();
+
+                if (sameLocals && stack.isEmpty()) {
+                    if (delta < 64)
+                        out.writeByte(delta);
+                    else {
+                        out.writeByte(251);
+                        out.writeShort(delta);
+                    }
+                }
+                else if (sameLocals && stack.size() == 1) {
+                    if (delta < 64)
+                        out.writeByte(64 + delta);
+                    else {
+                        out.writeByte(247);
+                        out.writeShort(delta);
+                    }
+                    writeVerificationType(out, stack.get(0), offsets);
+                }
+                else if (stack.isEmpty() && common == previousLocals.size() && locals.size() - common <= 3) {
+                    out.writeByte(251 + locals.size() - common);
+                    out.writeShort(delta);
+                    for (int j = common; j < locals.size(); j++)
+                        writeVerificationType(out, locals.get(j), offsets);
+                }
+                else if (stack.isEmpty() && common == locals.size() && previousLocals.size() - common <= 3) {
+                    out.writeByte(251 - (previousLocals.size() - common));
+                    out.writeShort(delta);
+                }
+                else {
+                    out.writeByte(255);
+                    out.writeShort(delta);
+                    out.writeShort(locals.size());
+                    for (VerificationType type : locals)
+                        writeVerificationType(out, type, offsets);
+                    out.writeShort(stack.size());
+                    for (VerificationType type : stack)
+                        writeVerificationType(out, type, offsets);
+                }
+                count++;
+                previousOffset = offsets[i];
+                previousLocals = locals;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        if (count == 0)
+            return null;
+
+        byte[] frames = bytes.toByteArray();
+        byte[] table = new byte[frames.length + 2];
+        table[0] = (byte) (count >> 8);
+        table[1] = (byte) count;
+        System.arraycopy(frames, 0, table, 2, frames.length);
+        return table;
+    }
+
+    private void writeVerificationType(DataOutputStream out, VerificationType type, int[] offsets) throws IOException {
+        out.writeByte(type.getKind().getTag());
+        if (type.getKind() == VerificationType.Kind.Object)
+            out.writeShort(constantPool.addClass(type.getClassName()));
+        else if (type.getKind() == VerificationType.Kind.Uninitialized)
+            out.writeShort(offsets[type.getNewInstruction()]);
+    }
+
+    private static int parseInt(String operand) throws AssemblerException {
+        try {
+            return Integer.parseInt(operand.trim());
+        } catch (NumberFormatException e) {
+            throw new AssemblerException("invalid integer operand: " + operand);
+        }
+    }
+
+    private static String parseString(String literal) throws AssemblerException {
+        if (literal.length() < 2 || !literal.endsWith("\""))
+            throw new AssemblerException("invalid string operand: " + literal);
+        String value = literal.substring(1, literal.length() - 1);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                switch (next) {
+                    case 'n': result.append('\n'); break;
+                    case 't': result.append('\t'); break;
+                    case 'r': result.append('\r'); break;
+                    default: result.append(next);
+                }
+            }
+            else
+                result.append(c);
+        }
+        return result.toString();
+    }
+
+    private static int parseArrayType(String operand) throws AssemblerException {
+        switch (operand) {
+            case "boolean": return 4;
+            case "char": return 5;
+            case "float": return 6;
+            case "double": return 7;
+            case "byte": return 8;
+            case "short": return 9;
+            case "int": return 10;
+            case "long": return 11;
+            default: throw new AssemblerException("invalid array type: " + operand);
+        }
+    }
+
+    private static class CodeBuffer {
+        private byte[] data = new byte[64];
+        private int size = 0;
+
+        int size() {
+            return size;
+        }
+
+        void putByte(int value) {
+            if (size == data.length)
+                data = java.util.Arrays.copyOf(data, data.length * 2);
+            data[size++] = (byte) value;
+        }
+
+        void putShort(int value) {
+            putByte(value >> 8);
+            putByte(value);
+        }
+
+        void patchShort(int position, int value) {
+            data[position] = (byte) (value >> 8);
+            data[position + 1] = (byte) value;
+        }
+
+        byte[] toByteArray() {
+            return java.util.Arrays.copyOf(data, size);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package classFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+public class ConstantPool {
+    private static final int UTF8 = 1;
+    private static final int INTEGER = 3;
+    private static final int CLASS = 7;
+    private static final int STRING = 8;
+    private static final int FIELD_REF = 9;
+    private static final int METHOD_REF = 10;
+    private static final int NAME_AND_TYPE = 12;
+
+    private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private DataOutputStream out = new DataOutputStream(bytes);
+    private HashMap<String, Integer> entries = new HashMap<>();
+    private int count = 1;
+
+    public int addUtf8(String value) {
+        return add("utf8 " + value, UTF8, () -> out.writeUTF(value));
+    }
+
+    public int addInteger(int value) {
+        return add("int " + value, INTEGER, () -> out.writeInt(value));
+    }
+
+    public int addClass(String name) {
+        int nameIndex = addUtf8(name);
+        return add("class " + name, CLASS, () -> out.writeShort(nameIndex));
+    }
+
+    public int addString(String value) {
+        int valueIndex = addUtf8(value);
+        return add("string " + value, STRING, () -> out.writeShort(valueIndex));
+    }
+
+    public int addNameAndType(String name, String descriptor) {
+        int nameIndex = addUtf8(name);
+        int descriptorIndex = addUtf8(descriptor);
+        return add("nat " + name + " " + descriptor, NAME_AND_TYPE, () -> {
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+    }
+
+    public int addFieldRef(String owner, String name, String descriptor) {
+        return addMemberRef(FIELD_REF, owner, name, descriptor);
+    }
+
+    public int addMethodRef(String owner, String name, String descriptor) {
+        return addMemberRef(METHOD_REF, owner, name, descriptor);
+    }
+
+    private int addMemberRef(int tag, String owner, String name, String descriptor) {
+        int classIndex = addClass(owner);
+        int natIndex = addNameAndType(name, descriptor);
+        return add(tag + " " + owner + "." + name + " " + descriptor, tag, () -> {
+            out.writeShort(classIndex);
+            out.writeShort(natIndex);
+        });
+    }
+
+    private interface EntryWriter {
+        void write() throws IOException;
+    }
+
+    private int add(String key, int tag, EntryWriter writer) {
+        Integer index = entries.get(key);
+        if (index != null)
+            return index;
+        try {
+            out.writeByte(tag);
+            writer.write();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        entries.put(key, count);
+        return count++;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public byte[] toByteArray() {
+        return bytes.toByteArray();
+    }
+}
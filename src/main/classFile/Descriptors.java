@@ -0,0 +1,40 @@
+package classFile;
+
+import java.util.ArrayList;
+
+public class Descriptors {
+    // splits "(I[ILFoo;)V" into its argument descriptors: I, [I, LFoo;
+    public static ArrayList<String> getArgumentTypes(String methodDescriptor) {
+        ArrayList<String> types = new ArrayList<>();
+        int i = methodDescriptor.indexOf('(') + 1;
+        while (methodDescriptor.charAt(i) != ')') {
+            int start = i;
+            while (methodDescriptor.charAt(i) == '[')
+                i++;
+            if (methodDescriptor.charAt(i) == 'L')
+                i = methodDescriptor.indexOf(';', i);
+            i++;
+            types.add(methodDescriptor.substring(start, i));
+        }
+        return types;
+    }
+
+    public static String getReturnType(String methodDescriptor) {
+        return methodDescriptor.substring(methodDescriptor.indexOf(')') + 1);
+    }
+
+    public static int getSlots(String typeDescriptor) {
+        if (typeDescriptor.equals("V"))
+            return 0;
+        if (typeDescriptor.equals("J") || typeDescriptor.equals("D"))
+            return 2;
+        return 1;
+    }
+
+    public static int getArgumentSlots(String methodDescriptor) {
+        int slots = 0;
+        for (String type : getArgumentTypes(methodDescriptor))
+            slots += getSlots(type);
+        return slots;
+    }
+}
@@ -0,0 +1,122 @@
+package classFile;
+
+import java.util.ArrayList;
+
+public class Frame {
+    private ArrayList<VerificationType> locals;
+    private ArrayList<VerificationType> stack;
+
+    public Frame(int maxLocals) {
+        locals = new ArrayList<>();
+        for (int i = 0; i < maxLocals; i++)
+            locals.add(VerificationType.TOP);
+        stack = new ArrayList<>();
+    }
+
+    private Frame(ArrayList<VerificationType> locals, ArrayList<VerificationType> stack) {
+        this.locals = locals;
+        this.stack = stack;
+    }
+
+    public Frame copy() {
+        return new Frame(new ArrayList<>(locals), new ArrayList<>(stack));
+    }
+
+    public VerificationType getLocal(int index) {
+        if (index >= locals.size())
+            return VerificationType.TOP;
+        return locals.get(index);
+    }
+
+    public void setLocal(int index, VerificationType type) {
+        while (locals.size() <= index)
+            locals.add(VerificationType.TOP);
+        locals.set(index, type);
+    }
+
+    public int getLocalCount() {
+        return locals.size();
+    }
+
+    public void push(VerificationType type) {
+        stack.add(type);
+    }
+
+    public VerificationType pop() throws AssemblerException {
+        if (stack.isEmpty())
+            throw new AssemblerException("operand stack underflow");
+        return stack.remove(stack.size() - 1);
+    }
+
+    public VerificationType peek() throws AssemblerException {
+        if (stack.isEmpty())
+            throw new AssemblerException("operand stack underflow");
+        return stack.get(stack.size() - 1);
+    }
+
+    public int getStackSize() {
+        return stack.size();
+    }
+
+    public ArrayList<VerificationType> getStack() {
+        return stack;
+    }
+
+    // locals as they appear in a stack map frame: trailing unusable slots are dropped and a long is one entry
+    public ArrayList<VerificationType> getFrameLocals() {
+        ArrayList<VerificationType> frameLocals = getEntries(locals);
+        int size = frameLocals.size();
+        while (size > 0 && frameLocals.get(size - 1).equals(VerificationType.TOP))
+            size--;
+        return new ArrayList<>(frameLocals.subList(0, size));
+    }
+
+    public ArrayList<VerificationType> getFrameStack() {
+        return getEntries(stack);
+    }
+
+    // the top half of every long is left out
+    private static ArrayList<VerificationType> getEntries(ArrayList<VerificationType> slots) {
+        ArrayList<VerificationType> entries = new ArrayList<>();
+        for (int i = 0; i < slots.size(); i++) {
+            entries.add(slots.get(i));
+            if (slots.get(i).equals(VerificationType.LONG))
+                i++;
+        }
+        return entries;
+    }
+
+    // replaces every occurrence of an uninitialized value once its constructor has run
+    public void initialize(VerificationType uninitialized, VerificationType initialized) {
+        for (int i = 0; i < locals.size(); i++) {
+            if (locals.get(i).equals(uninitialized))
+                locals.set(i, initialized);
+        }
+        for (int i = 0; i < stack.size(); i++) {
+            if (stack.get(i).equals(uninitialized))
+                stack.set(i, initialized);
+        }
+    }
+
+    // merges an incoming state into this one; returns true if this frame changed
+    public boolean merge(Frame incoming) throws AssemblerException {
+        if (incoming.stack.size() != stack.size())
+            throw new AssemblerException("inconsistent operand stack height at branch target");
+        boolean changed = false;
+        for (int i = 0; i < stack.size(); i++) {
+            VerificationType merged = VerificationType.merge(stack.get(i), incoming.stack.get(i));
+            if (!merged.equals(stack.get(i))) {
+                stack.set(i, merged);
+                changed = true;
+            }
+        }
+        for (int i = 0; i < locals.size(); i++) {
+            VerificationType merged = VerificationType.merge(locals.get(i), incoming.getLocal(i));
+            if (!merged.equals(locals.get(i))) {
+                locals.set(i, merged);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+}
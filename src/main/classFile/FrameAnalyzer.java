@@ -0,0 +1,462 @@
+package classFile;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+
+// computes the verifier's view of locals and operand stack before every instruction of a method
+public class FrameAnalyzer {
+    private String className;
+    private String methodName;
+    private String descriptor;
+    private boolean isStatic;
+    private HashMap<Integer, String> localTypes;
+
+    private List<Instruction> instructions;
+    private HashMap<String, Integer> labels;
+    private Frame[] frames;
+    private boolean[] branchTargets;
+    private int maxStack;
+    private int maxLocals;
+
+    // localTypes maps local slots to the descriptor they were declared with (.var directives)
+    public FrameAnalyzer(String className, String methodName, String descriptor, boolean isStatic,
+                         HashMap<Integer, String> localTypes) {
+        this.className = className;
+        this.methodName = methodName;
+        this.descriptor = descriptor;
+        this.isStatic = isStatic;
+        this.localTypes = localTypes;
+    }
+
+    public Frame getInitialFrame() throws AssemblerException {
+        Frame frame = new Frame(0);
+        int slot = 0;
+        if (!isStatic) {
+            if (methodName.equals("<init>"))
+                frame.setLocal(slot++, VerificationType.UNINITIALIZED_THIS);
+            else
+                frame.setLocal(slot++, VerificationType.object(className));
+        }
+        for (String arg : Descriptors.getArgumentTypes(descriptor)) {
+            frame.setLocal(slot, VerificationType.fromDescriptor(arg));
+            slot += Descriptors.getSlots(arg);
+        }
+        return frame;
+    }
+
+    public void analyze(List<Instruction> instructions) throws AssemblerException {
+        this.instructions = instructions;
+        labels = new HashMap<>();
+        for (int i = 0; i < instructions.size(); i++) {
+            if (instructions.get(i).isLabel())
+                labels.put(instructions.get(i).getLabel(), i);
+        }
+        frames = new Frame[instructions.size() + 1];
+        branchTargets = new boolean[instructions.size() + 1];
+
+        ArrayDeque<Integer> worklist = new ArrayDeque<>();
+        frames[0] = getInitialFrame();
+        maxStack = 0;
+        maxLocals = frames[0].getLocalCount();
+        worklist.add(0);
+        while (!worklist.isEmpty()) {
+            int index = worklist.poll();
+            if (index == instructions.size())
+                throw new AssemblerException("execution falls off the end of " + getMethodName());
+            Instruction instruction = instructions.get(index);
+            Frame frame = frames[index].copy();
+            try {
+                execute(index, instruction, frame);
+            } catch (AssemblerException e) {
+                throw new AssemblerException(e.getMessage() + " at '" + instruction + "' in " + getMethodName());
+            }
+            maxStack = Math.max(maxStack, frame.getStackSize());
+            maxLocals = Math.max(maxLocals, frame.getLocalCount());
+
+            if (!instruction.isLabel() && instruction.getOpcode().getOperandKind() == Opcode.OperandKind.Branch) {
+                Integer target = labels.get(instruction.getOperand());
+                if (target == null)
+                    throw new AssemblerException("undefined label " + instruction.getOperand() + " in " + getMethodName());
+                branchTargets[target] = true;
+                flow(target, frame, worklist);
+            }
+            if (!endsFlow(instruction))
+                flow(index + 1, frame, worklist);
+        }
+    }
+
+    private void flow(int index, Frame frame, ArrayDeque<Integer> worklist) throws AssemblerException {
+        if (frames[index] == null) {
+            frames[index] = frame.copy();
+            worklist.add(index);
+        }
+        else if (frames[index].merge(frame)) {
+            if (!worklist.contains(index))
+                worklist.add(index);
+        }
+    }
+
+    private static boolean endsFlow(Instruction instruction) {
+        if (instruction.isLabel())
+            return false;
+        switch (instruction.getOpcode()) {
+            case GOTO:
+            case ireturn:
+            case areturn:
+            case RETURN:
+            case athrow:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private String getMethodName() {
+        return className + "." + methodName;
+    }
+
+    // deepest operand stack on any path, including values pushed only inside a branch
+    public int getMaxStack() {
+        return maxStack;
+    }
+
+    public int getMaxLocals() {
+        return maxLocals;
+    }
+
+    public boolean isReachable(int index) {
+        return frames[index] != null;
+    }
+
+    public boolean isBranchTarget(int index) {
+        return branchTargets[index];
+    }
+
+    public Frame getFrame(int index) {
+        return frames[index];
+    }
+
+    private void execute(int index, Instruction instruction, Frame frame) throws AssemblerException {
+        if (instruction.isLabel())
+            return;
+        String operand = instruction.getOperand();
+        switch (instruction.getOpcode()) {
+            case nop:
+            case GOTO:
+            case RETURN:
+                break;
+            case aconst_null:
+                frame.push(VerificationType.NULL);
+                break;
+            case iconst_m1: case iconst_0: case iconst_1: case iconst_2: case iconst_3: case iconst_4: case iconst_5:
+            case bipush:
+            case sipush:
+                frame.push(VerificationType.INTEGER);
+                break;
+            case lconst_0:
+            case lconst_1:
+                push(frame, VerificationType.LONG);
+                break;
+            case ldc:
+            case ldc_w:
+                if (operand.startsWith("\""))
+                    frame.push(VerificationType.object("java/lang/String"));
+                else
+                    frame.push(VerificationType.INTEGER);
+                break;
+            case iload:
+                load(frame, Integer.parseInt(operand.trim()), true);
+                break;
+            case iload_0: case iload_1: case iload_2: case iload_3:
+                load(frame, instruction.getOpcode().ordinal() - Opcode.iload_0.ordinal(), true);
+                break;
+            case aload:
+                load(frame, Integer.parseInt(operand.trim()), false);
+                break;
+            case lload: {
+                int slot = Integer.parseInt(operand.trim());
+                if (!frame.getLocal(slot).equals(VerificationType.LONG))
+                    throw new AssemblerException("local " + slot + " may be read before it is assigned");
+                push(frame, VerificationType.LONG);
+                break;
+            }
+            case aload_0: case aload_1: case aload_2: case aload_3:
+                load(frame, instruction.getOpcode().ordinal() - Opcode.aload_0.ordinal(), false);
+                break;
+            case istore:
+                store(frame, Integer.parseInt(operand.trim()), true);
+                break;
+            case istore_0: case istore_1: case istore_2: case istore_3:
+                store(frame, instruction.getOpcode().ordinal() - Opcode.istore_0.ordinal(), true);
+                break;
+            case astore:
+                store(frame, Integer.parseInt(operand.trim()), false);
+                break;
+            case lstore: {
+                int slot = Integer.parseInt(operand.trim());
+                popLong(frame);
+                invalidate(frame, slot);
+                frame.setLocal(slot, VerificationType.LONG);
+                frame.setLocal(slot + 1, VerificationType.TOP);
+                break;
+            }
+            case astore_0: case astore_1: case astore_2: case astore_3:
+                store(frame, instruction.getOpcode().ordinal() - Opcode.astore_0.ordinal(), false);
+                break;
+            case iaload:
+            case baload:
+                popInt(frame);
+                frame.pop();
+                frame.push(VerificationType.INTEGER);
+                break;
+            case iastore:
+            case bastore:
+                popInt(frame);
+                popInt(frame);
+                frame.pop();
+                break;
+            case laload:
+                popInt(frame);
+                frame.pop();
+                push(frame, VerificationType.LONG);
+                break;
+            case lastore:
+                popLong(frame);
+                popInt(frame);
+                frame.pop();
+                break;
+            case aastore:
+                frame.pop();
+                popInt(frame);
+                frame.pop();
+                break;
+            case aaload: {
+                popInt(frame);
+                VerificationType array = frame.pop();
+                if (array.getKind() == VerificationType.Kind.Null)
+                    frame.push(VerificationType.NULL);
+                else
+                    frame.push(VerificationType.fromDescriptor(array.getClassName().substring(1)));
+                break;
+            }
+            case pop:
+                frame.pop();
+                break;
+            case pop2:
+                frame.pop();
+                frame.pop();
+                break;
+            case dup:
+                frame.push(frame.peek());
+                break;
+            case dup_x1: {
+                VerificationType v1 = frame.pop();
+                VerificationType v2 = frame.pop();
+                frame.push(v1);
+                frame.push(v2);
+                frame.push(v1);
+                break;
+            }
+            case dup_x2: {
+                VerificationType v1 = frame.pop();
+                VerificationType v2 = frame.pop();
+                VerificationType v3 = frame.pop();
+                frame.push(v1);
+                frame.push(v3);
+                frame.push(v2);
+                frame.push(v1);
+                break;
+            }
+            case dup2: {
+                VerificationType v1 = frame.pop();
+                VerificationType v2 = frame.pop();
+                frame.push(v2);
+                frame.push(v1);
+                frame.push(v2);
+                frame.push(v1);
+                break;
+            }
+            case swap: {
+                VerificationType v1 = frame.pop();
+                VerificationType v2 = frame.pop();
+                frame.push(v1);
+                frame.push(v2);
+                break;
+            }
+            case iadd: case isub: case imul: case idiv: case irem:
+            case ishl: case ishr: case iushr: case iand: case ior: case ixor:
+                popInt(frame);
+                popInt(frame);
+                frame.push(VerificationType.INTEGER);
+                break;
+            case ineg:
+                popInt(frame);
+                frame.push(VerificationType.INTEGER);
+                break;
+            case ladd:
+            case lsub:
+            case ldiv:
+                popLong(frame);
+                popLong(frame);
+                push(frame, VerificationType.LONG);
+                break;
+            case lcmp:
+                popLong(frame);
+                popLong(frame);
+                frame.push(VerificationType.INTEGER);
+                break;
+            case i2l:
+                popInt(frame);
+                push(frame, VerificationType.LONG);
+                break;
+            case l2i:
+                popLong(frame);
+                frame.push(VerificationType.INTEGER);
+                break;
+            case iinc: {
+                int slot = Integer.parseInt(operand.trim().split("\\s+")[0]);
+                if (!frame.getLocal(slot).equals(VerificationType.INTEGER))
+                    throw new AssemblerException("local " + slot + " is not an int");
+                break;
+            }
+            case ifeq: case ifne: case iflt: case ifge: case ifgt: case ifle:
+                popInt(frame);
+                break;
+            case if_icmpeq: case if_icmpne: case if_icmplt: case if_icmpge: case if_icmpgt: case if_icmple:
+                popInt(frame);
+                popInt(frame);
+                break;
+            case if_acmpeq:
+            case if_acmpne:
+                frame.pop();
+                frame.pop();
+                break;
+            case ifnull:
+            case ifnonnull:
+            case ireturn:
+            case areturn:
+            case athrow:
+                frame.pop();
+                break;
+            case getstatic:
+                push(frame, VerificationType.fromDescriptor(operand.trim().split("\\s+")[1]));
+                break;
+            case putstatic:
+                pop(frame, Descriptors.getSlots(operand.trim().split("\\s+")[1]));
+                break;
+            case getfield:
+                frame.pop();
+                push(frame, VerificationType.fromDescriptor(operand.trim().split("\\s+")[1]));
+                break;
+            case putfield:
+                pop(frame, Descriptors.getSlots(operand.trim().split("\\s+")[1]) + 1);
+                break;
+            case invokevirtual:
+            case invokespecial:
+            case invokestatic: {
+                String methodDescriptor = operand.substring(operand.indexOf('('));
+                pop(frame, Descriptors.getArgumentSlots(methodDescriptor));
+                if (instruction.getOpcode() != Opcode.invokestatic) {
+                    VerificationType receiver = frame.pop();
+                    if (operand.contains("/<init>(")) {
+                        if (receiver.equals(VerificationType.UNINITIALIZED_THIS))
+                            frame.initialize(receiver, VerificationType.object(className));
+                        else if (receiver.getKind() == VerificationType.Kind.Uninitialized)
+                            frame.initialize(receiver, VerificationType.object(receiver.getClassName()));
+                    }
+                }
+                String returnType = Descriptors.getReturnType(methodDescriptor);
+                if (!returnType.equals("V"))
+                    push(frame, VerificationType.fromDescriptor(returnType));
+                break;
+            }
+            case NEW:
+                frame.push(VerificationType.uninitialized(index, operand.trim()));
+                break;
+            case newarray:
+                popInt(frame);
+                frame.push(VerificationType.object("[" + getArrayTypeDescriptor(operand.trim())));
+                break;
+            case anewarray: {
+                popInt(frame);
+                String element = operand.trim();
+                frame.push(VerificationType.object(element.startsWith("[") ? "[" + element : "[L" + element + ";"));
+                break;
+            }
+            case arraylength:
+                frame.pop();
+                frame.push(VerificationType.INTEGER);
+                break;
+            case checkcast:
+                frame.pop();
+                frame.push(VerificationType.object(operand.trim()));
+                break;
+        }
+    }
+
+    // a long takes the slot above it as well
+    private static void push(Frame frame, VerificationType type) {
+        frame.push(type);
+        if (type.equals(VerificationType.LONG))
+            frame.push(VerificationType.TOP);
+    }
+
+    private static void pop(Frame frame, int slots) throws AssemblerException {
+        for (int i = 0; i < slots; i++)
+            frame.pop();
+    }
+
+    private static void popLong(Frame frame) throws AssemblerException {
+        frame.pop();
+        if (!frame.pop().equals(VerificationType.LONG))
+            throw new AssemblerException("expected a long on the operand stack");
+    }
+
+    // a store into the top half of a long leaves the long unusable
+    private static void invalidate(Frame frame, int slot) {
+        if (slot > 0 && frame.getLocal(slot - 1).equals(VerificationType.LONG))
+            frame.setLocal(slot - 1, VerificationType.TOP);
+    }
+
+    private void load(Frame frame, int slot, boolean isInt) throws AssemblerException {
+        VerificationType type = frame.getLocal(slot);
+        boolean valid;
+        if (isInt)
+            valid = type.equals(VerificationType.INTEGER);
+        else
+            valid = type.isReference() || type.getKind() == VerificationType.Kind.UninitializedThis;
+        if (!valid)
+            throw new AssemblerException("local " + slot + " may be read before it is assigned");
+        frame.push(type);
+    }
+
+    private void store(Frame frame, int slot, boolean isInt) throws AssemblerException {
+        VerificationType value = isInt ? popInt(frame) : frame.pop();
+        invalidate(frame, slot);
+        String declared = localTypes.get(slot);
+        if (!isInt && declared != null && value.getKind() != VerificationType.Kind.Uninitialized)
+            frame.setLocal(slot, VerificationType.fromDescriptor(declared));
+        else
+            frame.setLocal(slot, value);
+    }
+
+    private VerificationType popInt(Frame frame) throws AssemblerException {
+        VerificationType value = frame.pop();
+        if (!value.equals(VerificationType.INTEGER))
+            throw new AssemblerException("expected an int on the operand stack but found " + value);
+        return value;
+    }
+
+    private static String getArrayTypeDescriptor(String type) throws AssemblerException {
+        switch (type) {
+            case "boolean": return "Z";
+            case "char": return "C";
+            case "byte": return "B";
+            case "short": return "S";
+            case "int": return "I";
+            case "long": return "J";
+            default: throw new AssemblerException("unsupported array type " + type);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package classFile;
+
+public class Instruction {
+    private Opcode opcode;
+    private String operand;
+    private String label;
+
+    private Instruction(Opcode opcode, String operand, String label) {
+        this.opcode = opcode;
+        this.operand = operand;
+        this.label = label;
+    }
+
+    public static Instruction create(Opcode opcode, String operand) {
+        return new Instruction(opcode, operand, null);
+    }
+
+    public static Instruction create(Opcode opcode) {
+        return new Instruction(opcode, null, null);
+    }
+
+    public static Instruction label(String label) {
+        return new Instruction(null, null, label);
+    }
+
+    // returns null for lines that carry no instruction (blank lines and comments)
+    public static Instruction parse(String line) throws AssemblerException {
+        String text = stripComment(line).trim();
+        if (text.isEmpty())
+            return null;
+
+        if (text.endsWith(":")) {
+            return new Instruction(null, null, text.substring(0, text.length() - 1).trim());
+        }
+
+        int space = text.indexOf(' ');
+        String mnemonic = space == -1 ? text : text.substring(0, space);
+        String operand = space == -1 ? null : text.substring(space + 1).trim();
+        Opcode opcode = Opcode.fromMnemonic(mnemonic);
+        if (opcode == null)
+            throw new AssemblerException("unknown instruction: " + text);
+        if (opcode.getOperandKind() != Opcode.OperandKind.None && operand == null)
+            throw new AssemblerException("missing operand: " + text);
+        return new Instruction(opcode, operand, null);
+    }
+
+    // jasmin comments start with a ';' that follows whitespace, outside of string literals
+    private static String stripComment(String line) {
+        boolean inString = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"')
+                inString = !inString;
+            else if (c == ';' && !inString && (i == 0 || Character.isWhitespace(line.charAt(i - 1))))
+                return line.substring(0, i);
+        }
+        return line;
+    }
+
+    public boolean isLabel() {
+        return label != null;
+    }
+
+    public Opcode getOpcode() {
+        return opcode;
+    }
+
+    public String getOperand() {
+        return operand;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    @Override
+    public String toString() {
+        if (isLabel())
+            return label + " :";
+        if (operand == null)
+            return opcode.getMnemonic();
+        return opcode.getMnemonic() + " " + operand;
+    }
+}
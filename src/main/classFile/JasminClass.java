@@ -0,0 +1,75 @@
+package classFile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// a class as the generator writes it: the generator produces jasmin text, which is parsed here once into
+// methods and instructions for the passes over generated code and for the class file assembler
+public class JasminClass {
+    private String name;
+    private ArrayList<String> directives = new ArrayList<>();
+    private ArrayList<JasminMethod> methods = new ArrayList<>();
+
+    public static JasminClass parse(List<String> code) throws AssemblerException {
+        JasminClass jasminClass = new JasminClass();
+        String methodHeader = null;
+        ArrayList<String> methodBody = new ArrayList<>();
+        for (String entry : code) {
+            // some generated entries hold several lines in a single string
+            for (String line : entry.split("\n")) {
+                String text = line.trim();
+                if (methodHeader != null) {
+                    if (text.equals(".end method")) {
+                        jasminClass.methods.add(JasminMethod.parse(methodHeader, methodBody));
+                        methodHeader = null;
+                        methodBody = new ArrayList<>();
+                    }
+                    else
+                        methodBody.add(text);
+                }
+                else if (text.startsWith(".method")) {
+                    methodHeader = text;
+                }
+                else if (text.startsWith(".")) {
+                    if (text.startsWith(".class")) {
+                        String[] tokens = text.split("\\s+");
+                        jasminClass.name = tokens[tokens.length - 1];
+                    }
+                    jasminClass.directives.add(text);
+                }
+                else if (!text.isEmpty() && !text.startsWith(";")) {
+                    throw new AssemblerException("unexpected line outside of a method: " + text);
+                }
+            }
+        }
+        if (methodHeader != null)
+            throw new AssemblerException("missing .end method in class " + jasminClass.name);
+        if (jasminClass.name == null)
+            throw new AssemblerException("missing .class directive");
+        return jasminClass;
+    }
+
+    public void computeLimits() throws AssemblerException {
+        for (JasminMethod method : methods)
+            method.computeLimits(name);
+    }
+
+    public ArrayList<String> toLines() {
+        ArrayList<String> lines = new ArrayList<>(directives);
+        for (JasminMethod method : methods)
+            lines.addAll(method.toLines());
+        return lines;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ArrayList<String> getDirectives() {
+        return directives;
+    }
+
+    public ArrayList<JasminMethod> getMethods() {
+        return methods;
+    }
+}
@@ -0,0 +1,122 @@
+package classFile;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+public class JasminMethod {
+    public static final int MAX_LIMIT = 0xFFFF;
+
+    private String header;
+    private String name;
+    private String descriptor;
+    private boolean isStatic;
+    private int maxStack = -1;
+    private int maxLocals = -1;
+    private ArrayList<String> varDirectives = new ArrayList<>();
+    private HashMap<Integer, String> localTypes = new HashMap<>();
+    private ArrayList<Instruction> instructions = new ArrayList<>();
+
+    public static JasminMethod parse(String header, List<String> body) throws AssemblerException {
+        JasminMethod method = new JasminMethod();
+        method.header = header;
+        String[] tokens = header.split("\\s+");
+        String signature = tokens[tokens.length - 1];
+        int paren = signature.indexOf('(');
+        if (paren == -1)
+            throw new AssemblerException("malformed method: " + header);
+        method.name = signature.substring(0, paren);
+        method.descriptor = signature.substring(paren);
+        for (String token : tokens) {
+            if (token.equals("static"))
+                method.isStatic = true;
+        }
+
+        for (String line : body) {
+            String text = line.trim();
+            if (text.startsWith(".limit stack"))
+                method.maxStack = Integer.parseInt(text.substring(".limit stack".length()).trim());
+            else if (text.startsWith(".limit locals"))
+                method.maxLocals = Integer.parseInt(text.substring(".limit locals".length()).trim());
+            else if (text.startsWith(".var")) {
+                // .var <slot> is <name> <descriptor> [from <label> to <label>]
+                String[] parts = text.split("\\s+");
+                method.localTypes.put(Integer.parseInt(parts[1]), parts[4]);
+                method.varDirectives.add(text);
+            }
+            else if (text.startsWith(".")) {
+                // other directives carry no code
+            }
+            else {
+                Instruction instruction = Instruction.parse(text);
+                if (instruction != null)
+                    method.instructions.add(instruction);
+            }
+        }
+        return method;
+    }
+
+    // replaces the declared limits with the ones the instructions actually need
+    public void computeLimits(String className) throws AssemblerException {
+        FrameAnalyzer analyzer = new FrameAnalyzer(className, name, descriptor, isStatic, localTypes);
+        analyzer.analyze(instructions);
+        if (analyzer.getMaxStack() > MAX_LIMIT)
+            throw new AssemblerException(className + "." + name + " needs an operand stack of " +
+                    analyzer.getMaxStack() + " entries, the limit is " + MAX_LIMIT);
+        if (analyzer.getMaxLocals() > MAX_LIMIT)
+            throw new AssemblerException(className + "." + name + " needs " + analyzer.getMaxLocals() +
+                    " local variable slots, the limit is " + MAX_LIMIT);
+        maxStack = analyzer.getMaxStack();
+        maxLocals = analyzer.getMaxLocals();
+    }
+
+    public ArrayList<String> toLines() {
+        ArrayList<String> lines = new ArrayList<>();
+        lines.add(header);
+        if (maxStack != -1)
+            lines.add(".limit stack " + maxStack);
+        if (maxLocals != -1)
+            lines.add(".limit locals " + maxLocals);
+        lines.addAll(varDirectives);
+        for (Instruction instruction : instructions)
+            lines.add(instruction.toString());
+        lines.add(".end method");
+        return lines;
+    }
+
+    public String getHeader() {
+        return header;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescriptor() {
+        return descriptor;
+    }
+
+    public boolean isStatic() {
+        return isStatic;
+    }
+
+    public int getMaxStack() {
+        return maxStack;
+    }
+
+    public int getMaxLocals() {
+        return maxLocals;
+    }
+
+    public ArrayList<String> getVarDirectives() {
+        return varDirectives;
+    }
+
+    public HashMap<Integer, String> getLocalTypes() {
+        return localTypes;
+    }
+
+    public ArrayList<Instruction> getInstructions() {
+        return instructions;
+    }
+}
@@ -0,0 +1,302 @@
+package classFile;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+// packs the locals of a method into as few slots as possible: locals that are never live at the same time and
+// hold the same kind of value share a slot, and constant stores nothing reads (the zeroing the generator puts at
+// the start of every method for locals that are always written first) are dropped. arguments keep their slots
+public class LocalSlotAllocator {
+    private ArrayList<Instruction> code;
+    private int firstLocal;
+    private BitSet[] liveOut;
+
+    // returns the number of slots the method needs less than before
+    public int allocate(JasminMethod method) throws AssemblerException {
+        code = method.getInstructions();
+        firstLocal = (method.isStatic() ? 0 : 1) + Descriptors.getArgumentSlots(method.getDescriptor());
+        // only the runtime classes use long locals, their slots are packed by hand
+        for (Instruction instruction : code) {
+            if (!instruction.isLabel() &&
+                    (instruction.getOpcode() == Opcode.lload || instruction.getOpcode() == Opcode.lstore))
+                return 0;
+        }
+        removeDeadStores();
+        // a local read before anything is stored in it would not pass the verifier, leave such code alone
+        BitSet liveAtEntry = computeLiveness();
+        if (liveAtEntry.nextSetBit(firstLocal) != -1)
+            return 0;
+
+        HashMap<Integer, String> localTypes = method.getLocalTypes();
+        HashMap<Integer, String> names = new HashMap<>();
+        for (String directive : method.getVarDirectives()) {
+            String[] parts = directive.split("\\s+");
+            names.put(Integer.parseInt(parts[1]), parts[3]);
+        }
+        int before = firstLocal;
+        for (int slot : localTypes.keySet())
+            before = Math.max(before, slot + 1);
+
+        // greedy coloring in slot order, each group becomes one slot
+        HashMap<Integer, BitSet> interference = computeInterference();
+        ArrayList<ArrayList<Integer>> groups = new ArrayList<>();
+        ArrayList<String> groupKinds = new ArrayList<>();
+        HashMap<Integer, Integer> newSlots = new HashMap<>();
+        for (int slot = firstLocal; slot < before; slot++) {
+            if (!isUsed(slot))
+                continue;
+            String kind = getKind(slot, localTypes);
+            int group = 0;
+            while (group < groups.size() && !(groupKinds.get(group).equals(kind) &&
+                    !interferes(groups.get(group), slot, interference)))
+                group++;
+            if (group == groups.size()) {
+                groups.add(new ArrayList<>());
+                groupKinds.add(kind);
+            }
+            groups.get(group).add(slot);
+            newSlots.put(slot, firstLocal + group);
+        }
+
+        for (int i = 0; i < code.size(); i++) {
+            int slot = getSlot(code.get(i));
+            if (slot >= firstLocal)
+                code.set(i, withSlot(code.get(i), newSlots.get(slot)));
+        }
+
+        // one declaration per slot, named after the first local that got it
+        HashMap<Integer, String> newTypes = new HashMap<>();
+        ArrayList<String> directives = new ArrayList<>();
+        for (int slot = 0; slot < firstLocal; slot++) {
+            if (localTypes.containsKey(slot)) {
+                newTypes.put(slot, localTypes.get(slot));
+                directives.add(".var " + slot + " is " + names.get(slot) + " " + localTypes.get(slot));
+            }
+        }
+        for (int group = 0; group < groups.size(); group++) {
+            int first = groups.get(group).get(0);
+            if (!localTypes.containsKey(first))
+                continue;
+            newTypes.put(firstLocal + group, localTypes.get(first));
+            directives.add(".var " + (firstLocal + group) + " is " + names.get(first) + " " + localTypes.get(first));
+        }
+        localTypes.clear();
+        localTypes.putAll(newTypes);
+        method.getVarDirectives().clear();
+        method.getVarDirectives().addAll(directives);
+        return before - (firstLocal + groups.size());
+    }
+
+    // int and boolean locals are both ints to the verifier, references must have the declared type of their slot
+    private static String getKind(int slot, HashMap<Integer, String> localTypes) {
+        String type = localTypes.get(slot);
+        if (type == null)
+            return "#" + slot;
+        if (type.equals("I") || type.equals("Z"))
+            return "I";
+        return type;
+    }
+
+    private static boolean interferes(List<Integer> group, int slot, HashMap<Integer, BitSet> interference) {
+        for (int member : group) {
+            if (interference.containsKey(slot) && interference.get(slot).get(member))
+                return true;
+        }
+        return false;
+    }
+
+    private boolean isUsed(int slot) {
+        for (Instruction instruction : code) {
+            if (getSlot(instruction) == slot)
+                return true;
+        }
+        return false;
+    }
+
+    // a constant pushed only to be stored in a local that is dead after the store
+    private void removeDeadStores() throws AssemblerException {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            computeLiveness();
+            for (int i = code.size() - 1; i > 0; i--) {
+                int slot = getSlot(code.get(i));
+                if (slot >= firstLocal && isStore(code.get(i)) && code.get(i).getOpcode() != Opcode.iinc &&
+                        !liveOut[i].get(slot) && isConstant(code.get(i - 1))) {
+                    code.remove(i);
+                    code.remove(i - 1);
+                    i--;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    // two locals interfere when one is stored while the other is live
+    private HashMap<Integer, BitSet> computeInterference() {
+        HashMap<Integer, BitSet> interference = new HashMap<>();
+        for (int i = 0; i < code.size(); i++) {
+            int slot = getSlot(code.get(i));
+            if (slot < firstLocal || !isStore(code.get(i)))
+                continue;
+            for (int live = liveOut[i].nextSetBit(firstLocal); live != -1; live = liveOut[i].nextSetBit(live + 1)) {
+                if (live == slot)
+                    continue;
+                interference.computeIfAbsent(slot, k -> new BitSet()).set(live);
+                interference.computeIfAbsent(live, k -> new BitSet()).set(slot);
+            }
+        }
+        return interference;
+    }
+
+    // fills liveOut for every instruction and returns the slots live at the start of the method
+    private BitSet computeLiveness() throws AssemblerException {
+        HashMap<String, Integer> labels = new HashMap<>();
+        for (int i = 0; i < code.size(); i++) {
+            if (code.get(i).isLabel())
+                labels.put(code.get(i).getLabel(), i);
+        }
+        ArrayList<ArrayList<Integer>> successors = new ArrayList<>();
+        for (int i = 0; i < code.size(); i++) {
+            ArrayList<Integer> next = new ArrayList<>();
+            Instruction instruction = code.get(i);
+            if (!instruction.isLabel() && instruction.getOpcode().getOperandKind() == Opcode.OperandKind.Branch) {
+                Integer target = labels.get(instruction.getOperand());
+                if (target == null)
+                    throw new AssemblerException("undefined label " + instruction.getOperand());
+                next.add(target);
+            }
+            if (!endsFlow(instruction) && i + 1 < code.size())
+                next.add(i + 1);
+            successors.add(next);
+        }
+
+        BitSet[] liveIn = new BitSet[code.size()];
+        liveOut = new BitSet[code.size()];
+        for (int i = 0; i < code.size(); i++) {
+            liveIn[i] = new BitSet();
+            liveOut[i] = new BitSet();
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = code.size() - 1; i >= 0; i--) {
+                BitSet out = new BitSet();
+                for (int successor : successors.get(i))
+                    out.or(liveIn[successor]);
+                BitSet in = (BitSet) out.clone();
+                int slot = getSlot(code.get(i));
+                if (slot != -1) {
+                    if (isStore(code.get(i)))
+                        in.clear(slot);
+                    if (isLoad(code.get(i)))
+                        in.set(slot);
+                }
+                if (!out.equals(liveOut[i]) || !in.equals(liveIn[i])) {
+                    liveOut[i] = out;
+                    liveIn[i] = in;
+                    changed = true;
+                }
+            }
+        }
+        return code.isEmpty() ? new BitSet() : liveIn[0];
+    }
+
+    private static boolean endsFlow(Instruction instruction) {
+        if (instruction.isLabel())
+            return false;
+        switch (instruction.getOpcode()) {
+            case GOTO:
+            case ireturn:
+            case areturn:
+            case RETURN:
+            case athrow:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isConstant(Instruction instruction) {
+        if (instruction.isLabel())
+            return false;
+        switch (instruction.getOpcode()) {
+            case aconst_null:
+            case iconst_m1: case iconst_0: case iconst_1: case iconst_2: case iconst_3: case iconst_4: case iconst_5:
+            case bipush:
+            case sipush:
+            case ldc:
+            case ldc_w:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // iinc both reads and writes its slot
+    private static boolean isLoad(Instruction instruction) {
+        switch (instruction.getOpcode()) {
+            case iload: case iload_0: case iload_1: case iload_2: case iload_3:
+            case aload: case aload_0: case aload_1: case aload_2: case aload_3:
+            case iinc:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isStore(Instruction instruction) {
+        switch (instruction.getOpcode()) {
+            case istore: case istore_0: case istore_1: case istore_2: case istore_3:
+            case astore: case astore_0: case astore_1: case astore_2: case astore_3:
+            case iinc:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // the local an instruction reads or writes, -1 if it does not touch one
+    private static int getSlot(Instruction instruction) {
+        if (instruction.isLabel())
+            return -1;
+        Opcode opcode = instruction.getOpcode();
+        switch (opcode) {
+            case iload:
+            case aload:
+            case istore:
+            case astore:
+                return Integer.parseInt(instruction.getOperand().trim());
+            case iinc:
+                return Integer.parseInt(instruction.getOperand().trim().split("\\s+")[0]);
+            case iload_0: case iload_1: case iload_2: case iload_3:
+                return opcode.ordinal() - Opcode.iload_0.ordinal();
+            case aload_0: case aload_1: case aload_2: case aload_3:
+                return opcode.ordinal() - Opcode.aload_0.ordinal();
+            case istore_0: case istore_1: case istore_2: case istore_3:
+                return opcode.ordinal() - Opcode.istore_0.ordinal();
+            case astore_0: case astore_1: case astore_2: case astore_3:
+                return opcode.ordinal() - Opcode.astore_0.ordinal();
+            default:
+                return -1;
+        }
+    }
+
+    // the same access to another slot, short forms become long ones for the peephole optimizer to shorten again
+    private static Instruction withSlot(Instruction instruction, int slot) {
+        switch (instruction.getOpcode()) {
+            case iload: case iload_0: case iload_1: case iload_2: case iload_3:
+                return Instruction.create(Opcode.iload, String.valueOf(slot));
+            case aload: case aload_0: case aload_1: case aload_2: case aload_3:
+                return Instruction.create(Opcode.aload, String.valueOf(slot));
+            case istore: case istore_0: case istore_1: case istore_2: case istore_3:
+                return Instruction.create(Opcode.istore, String.valueOf(slot));
+            case astore: case astore_0: case astore_1: case astore_2: case astore_3:
+                return Instruction.create(Opcode.astore, String.valueOf(slot));
+            default:
+                return Instruction.create(Opcode.iinc, slot + " " + instruction.getOperand().trim().split("\\s+")[1]);
+        }
+    }
+}
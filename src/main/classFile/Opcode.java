@@ -0,0 +1,149 @@
+package classFile;
+
+import java.util.HashMap;
+
+public enum Opcode {
+    nop(0x00, OperandKind.None),
+    aconst_null(0x01, OperandKind.None),
+    iconst_m1(0x02, OperandKind.None),
+    iconst_0(0x03, OperandKind.None),
+    iconst_1(0x04, OperandKind.None),
+    iconst_2(0x05, OperandKind.None),
+    iconst_3(0x06, OperandKind.None),
+    iconst_4(0x07, OperandKind.None),
+    iconst_5(0x08, OperandKind.None),
+    lconst_0(0x09, OperandKind.None),
+    lconst_1(0x0a, OperandKind.None),
+    bipush(0x10, OperandKind.Byte),
+    sipush(0x11, OperandKind.Short),
+    ldc(0x12, OperandKind.Constant),
+    ldc_w(0x13, OperandKind.Constant),
+    iload(0x15, OperandKind.Local),
+    lload(0x16, OperandKind.Local),
+    aload(0x19, OperandKind.Local),
+    iload_0(0x1a, OperandKind.None),
+    iload_1(0x1b, OperandKind.None),
+    iload_2(0x1c, OperandKind.None),
+    iload_3(0x1d, OperandKind.None),
+    aload_0(0x2a, OperandKind.None),
+    aload_1(0x2b, OperandKind.None),
+    aload_2(0x2c, OperandKind.None),
+    aload_3(0x2d, OperandKind.None),
+    iaload(0x2e, OperandKind.None),
+    laload(0x2f, OperandKind.None),
+    aaload(0x32, OperandKind.None),
+    baload(0x33, OperandKind.None),
+    istore(0x36, OperandKind.Local),
+    lstore(0x37, OperandKind.Local),
+    astore(0x3a, OperandKind.Local),
+    istore_0(0x3b, OperandKind.None),
+    istore_1(0x3c, OperandKind.None),
+    istore_2(0x3d, OperandKind.None),
+    istore_3(0x3e, OperandKind.None),
+    astore_0(0x4b, OperandKind.None),
+    astore_1(0x4c, OperandKind.None),
+    astore_2(0x4d, OperandKind.None),
+    astore_3(0x4e, OperandKind.None),
+    iastore(0x4f, OperandKind.None),
+    lastore(0x50, OperandKind.None),
+    aastore(0x53, OperandKind.None),
+    bastore(0x54, OperandKind.None),
+    pop(0x57, OperandKind.None),
+    pop2(0x58, OperandKind.None),
+    dup(0x59, OperandKind.None),
+    dup_x1(0x5a, OperandKind.None),
+    dup_x2(0x5b, OperandKind.None),
+    dup2(0x5c, OperandKind.None),
+    swap(0x5f, OperandKind.None),
+    iadd(0x60, OperandKind.None),
+    ladd(0x61, OperandKind.None),
+    isub(0x64, OperandKind.None),
+    lsub(0x65, OperandKind.None),
+    imul(0x68, OperandKind.None),
+    idiv(0x6c, OperandKind.None),
+    ldiv(0x6d, OperandKind.None),
+    irem(0x70, OperandKind.None),
+    ineg(0x74, OperandKind.None),
+    ishl(0x78, OperandKind.None),
+    ishr(0x7a, OperandKind.None),
+    iushr(0x7c, OperandKind.None),
+    iand(0x7e, OperandKind.None),
+    ior(0x80, OperandKind.None),
+    ixor(0x82, OperandKind.None),
+    iinc(0x84, OperandKind.Increment),
+    i2l(0x85, OperandKind.None),
+    l2i(0x88, OperandKind.None),
+    lcmp(0x94, OperandKind.None),
+    ifeq(0x99, OperandKind.Branch),
+    ifne(0x9a, OperandKind.Branch),
+    iflt(0x9b, OperandKind.Branch),
+    ifge(0x9c, OperandKind.Branch),
+    ifgt(0x9d, OperandKind.Branch),
+    ifle(0x9e, OperandKind.Branch),
+    if_icmpeq(0x9f, OperandKind.Branch),
+    if_icmpne(0xa0, OperandKind.Branch),
+    if_icmplt(0xa1, OperandKind.Branch),
+    if_icmpge(0xa2, OperandKind.Branch),
+    if_icmpgt(0xa3, OperandKind.Branch),
+    if_icmple(0xa4, OperandKind.Branch),
+    if_acmpeq(0xa5, OperandKind.Branch),
+    if_acmpne(0xa6, OperandKind.Branch),
+    GOTO(0xa7, OperandKind.Branch),
+    ireturn(0xac, OperandKind.None),
+    areturn(0xb0, OperandKind.None),
+    RETURN(0xb1, OperandKind.None),
+    getstatic(0xb2, OperandKind.Field),
+    putstatic(0xb3, OperandKind.Field),
+    getfield(0xb4, OperandKind.Field),
+    putfield(0xb5, OperandKind.Field),
+    invokevirtual(0xb6, OperandKind.Method),
+    invokespecial(0xb7, OperandKind.Method),
+    invokestatic(0xb8, OperandKind.Method),
+    NEW(0xbb, OperandKind.Class),
+    newarray(0xbc, OperandKind.ArrayType),
+    anewarray(0xbd, OperandKind.Class),
+    arraylength(0xbe, OperandKind.None),
+    athrow(0xbf, OperandKind.None),
+    checkcast(0xc0, OperandKind.Class),
+    ifnull(0xc6, OperandKind.Branch),
+    ifnonnull(0xc7, OperandKind.Branch);
+
+    public enum OperandKind {
+        None, Byte, Short, Constant, Local, Increment, Branch, Field, Method, Class, ArrayType
+    }
+
+    public static final int WIDE = 0xc4;
+
+    private static HashMap<String, Opcode> byMnemonic = new HashMap<>();
+
+    static {
+        for (Opcode opcode : values()) {
+            byMnemonic.put(opcode.getMnemonic(), opcode);
+        }
+    }
+
+    private int code;
+    private OperandKind operandKind;
+
+    Opcode(int code, OperandKind operandKind) {
+        this.code = code;
+        this.operandKind = operandKind;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public OperandKind getOperandKind() {
+        return operandKind;
+    }
+
+    // goto, return and new are java keywords, so their constants are upper case
+    public String getMnemonic() {
+        return name().toLowerCase();
+    }
+
+    public static Opcode fromMnemonic(String mnemonic) {
+        return byMnemonic.get(mnemonic);
+    }
+}
@@ -0,0 +1,313 @@
+package classFile;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+// rewrites short instruction windows of a method into cheaper equivalents until no rule applies
+public class PeepholeOptimizer {
+    private interface Rule {
+        // tries to rewrite the window starting at index, returns true if the code changed
+        boolean apply(ArrayList<Instruction> code, int index, HashMap<String, Integer> labelUses);
+    }
+
+    private static final Rule[] rules = {
+            PeepholeOptimizer::shortConstant,
+            PeepholeOptimizer::shortLocal,
+            PeepholeOptimizer::increment,
+            PeepholeOptimizer::fuseBooleanBranch,
+            PeepholeOptimizer::constantBranch,
+            PeepholeOptimizer::threadJump,
+            PeepholeOptimizer::gotoNext,
+            PeepholeOptimizer::unreachableCode,
+            PeepholeOptimizer::unusedLabel,
+    };
+
+    private static final HashMap<Opcode, Opcode> negated = new HashMap<>();
+
+    static {
+        Opcode[][] pairs = {
+                {Opcode.ifeq, Opcode.ifne}, {Opcode.iflt, Opcode.ifge}, {Opcode.ifgt, Opcode.ifle},
+                {Opcode.if_icmpeq, Opcode.if_icmpne}, {Opcode.if_icmplt, Opcode.if_icmpge},
+                {Opcode.if_icmpgt, Opcode.if_icmple}, {Opcode.if_acmpeq, Opcode.if_acmpne},
+                {Opcode.ifnull, Opcode.ifnonnull}
+        };
+        for (Opcode[] pair : pairs) {
+            negated.put(pair[0], pair[1]);
+            negated.put(pair[1], pair[0]);
+        }
+    }
+
+    // returns the number of instructions removed from the method
+    public int optimize(JasminMethod method) {
+        ArrayList<Instruction> code = method.getInstructions();
+        int before = countInstructions(code);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            HashMap<String, Integer> labelUses = countLabelUses(code);
+            for (int i = 0; i < code.size(); i++) {
+                for (Rule rule : rules) {
+                    if (i >= code.size())
+                        break;
+                    if (rule.apply(code, i, labelUses)) {
+                        changed = true;
+                        labelUses = countLabelUses(code);
+                    }
+                }
+            }
+        }
+        return before - countInstructions(code);
+    }
+
+    private static int countInstructions(ArrayList<Instruction> code) {
+        int count = 0;
+        for (Instruction instruction : code) {
+            if (!instruction.isLabel())
+                count++;
+        }
+        return count;
+    }
+
+    private static HashMap<String, Integer> countLabelUses(ArrayList<Instruction> code) {
+        HashMap<String, Integer> uses = new HashMap<>();
+        for (Instruction instruction : code) {
+            if (isBranch(instruction))
+                uses.merge(instruction.getOperand(), 1, Integer::sum);
+        }
+        return uses;
+    }
+
+    private static boolean is(ArrayList<Instruction> code, int index, Opcode opcode) {
+        return index < code.size() && !code.get(index).isLabel() && code.get(index).getOpcode() == opcode;
+    }
+
+    private static boolean isLabel(ArrayList<Instruction> code, int index, String label) {
+        return index < code.size() && code.get(index).isLabel() && code.get(index).getLabel().equals(label);
+    }
+
+    private static boolean isBranch(Instruction instruction) {
+        return !instruction.isLabel() && instruction.getOpcode().getOperandKind() == Opcode.OperandKind.Branch;
+    }
+
+    private static boolean endsFlow(Instruction instruction) {
+        if (instruction.isLabel())
+            return false;
+        switch (instruction.getOpcode()) {
+            case GOTO:
+            case ireturn:
+            case areturn:
+            case RETURN:
+            case athrow:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static Integer getIntConstant(ArrayList<Instruction> code, int index) {
+        if (index >= code.size() || code.get(index).isLabel())
+            return null;
+        Instruction instruction = code.get(index);
+        switch (instruction.getOpcode()) {
+            case iconst_m1: case iconst_0: case iconst_1: case iconst_2: case iconst_3: case iconst_4: case iconst_5:
+                return instruction.getOpcode().ordinal() - Opcode.iconst_0.ordinal();
+            case bipush:
+            case sipush:
+                return Integer.parseInt(instruction.getOperand().trim());
+            case ldc:
+            case ldc_w:
+                if (instruction.getOperand().startsWith("\""))
+                    return null;
+                return Integer.parseInt(instruction.getOperand().trim());
+            default:
+                return null;
+        }
+    }
+
+    // slot of an iload/istore (or their short forms), -1 for anything else
+    private static int getLocal(ArrayList<Instruction> code, int index, Opcode longForm, Opcode shortForm0) {
+        if (index >= code.size() || code.get(index).isLabel())
+            return -1;
+        Instruction instruction = code.get(index);
+        if (instruction.getOpcode() == longForm)
+            return Integer.parseInt(instruction.getOperand().trim());
+        int slot = instruction.getOpcode().ordinal() - shortForm0.ordinal();
+        if (slot >= 0 && slot <= 3)
+            return slot;
+        return -1;
+    }
+
+    // ldc 5 -> iconst_5, ldc 100 -> bipush 100
+    private static boolean shortConstant(ArrayList<Instruction> code, int index, HashMap<String, Integer> labelUses) {
+        if (!is(code, index, Opcode.ldc) && !is(code, index, Opcode.ldc_w) && !is(code, index, Opcode.sipush))
+            return false;
+        Integer value = getIntConstant(code, index);
+        if (value == null)
+            return false;
+        Instruction replacement;
+        if (value >= -1 && value <= 5)
+            replacement = Instruction.create(Opcode.values()[Opcode.iconst_0.ordinal() + value]);
+        else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+            replacement = Instruction.create(Opcode.bipush, String.valueOf(value));
+        else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE && code.get(index).getOpcode() != Opcode.sipush)
+            replacement = Instruction.create(Opcode.sipush, String.valueOf(value));
+        else
+            return false;
+        code.set(index, replacement);
+        return true;
+    }
+
+    // iload 2 -> iload_2
+    private static boolean shortLocal(ArrayList<Instruction> code, int index, HashMap<String, Integer> labelUses) {
+        Opcode[][] forms = {
+                {Opcode.iload, Opcode.iload_0}, {Opcode.aload, Opcode.aload_0},
+                {Opcode.istore, Opcode.istore_0}, {Opcode.astore, Opcode.astore_0}
+        };
+        for (Opcode[] form : forms) {
+            if (is(code, index, form[0])) {
+                int slot = Integer.parseInt(code.get(index).getOperand().trim());
+                if (slot > 3)
+                    return false;
+                code.set(index, Instruction.create(Opcode.values()[form[1].ordinal() + slot]));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // iload n; <c>; iadd; istore n -> iinc n c (also <c>; iload n; iadd and iload n; <c>; isub)
+    private static boolean increment(ArrayList<Instruction> code, int index, HashMap<String, Integer> labelUses) {
+        if (index + 3 >= code.size())
+            return false;
+        int slot = getLocal(code, index, Opcode.iload, Opcode.iload_0);
+        Integer constant = getIntConstant(code, index + 1);
+        if (slot == -1 || constant == null) {
+            slot = getLocal(code, index + 1, Opcode.iload, Opcode.iload_0);
+            constant = getIntConstant(code, index);
+            if (slot == -1 || constant == null || !is(code, index + 2, Opcode.iadd))
+                return false;
+        }
+        long delta;
+        if (is(code, index + 2, Opcode.iadd))
+            delta = constant;
+        else if (is(code, index + 2, Opcode.isub))
+            delta = -(long) constant;
+        else
+            return false;
+        if (getLocal(code, index + 3, Opcode.istore, Opcode.istore_0) != slot)
+            return false;
+        if (delta < Byte.MIN_VALUE || delta > Byte.MAX_VALUE)
+            return false;
+        for (int i = 0; i < 4; i++)
+            code.remove(index);
+        code.add(index, Instruction.create(Opcode.iinc, slot + " " + delta));
+        return true;
+    }
+
+    // <if> T; iconst_0; goto A; T: iconst_1; A: ifeq/ifne X  ->  <negated if>/<if> X
+    private static boolean fuseBooleanBranch(ArrayList<Instruction> code, int index, HashMap<String, Integer> labelUses) {
+        if (index + 6 >= code.size() || !isBranch(code.get(index)) || is(code, index, Opcode.GOTO))
+            return false;
+        String trueLabel = code.get(index).getOperand();
+        if (!is(code, index + 1, Opcode.iconst_0) || !is(code, index + 2, Opcode.GOTO))
+            return false;
+        String afterLabel = code.get(index + 2).getOperand();
+        if (!isLabel(code, index + 3, trueLabel) || !is(code, index + 4, Opcode.iconst_1) ||
+                !isLabel(code, index + 5, afterLabel))
+            return false;
+        if (labelUses.getOrDefault(trueLabel, 0) != 1 || labelUses.getOrDefault(afterLabel, 0) != 1)
+            return false;
+        Opcode test = code.get(index + 6).isLabel() ? null : code.get(index + 6).getOpcode();
+        Opcode fused;
+        if (test == Opcode.ifne)
+            fused = code.get(index).getOpcode();
+        else if (test == Opcode.ifeq)
+            fused = negated.get(code.get(index).getOpcode());
+        else
+            return false;
+        String target = code.get(index + 6).getOperand();
+        for (int i = 0; i < 7; i++)
+            code.remove(index);
+        code.add(index, Instruction.create(fused, target));
+        return true;
+    }
+
+    // iconst_1; ifne X -> goto X, iconst_1; ifeq X -> nothing
+    private static boolean constantBranch(ArrayList<Instruction> code, int index, HashMap<String, Integer> labelUses) {
+        Integer value = getIntConstant(code, index);
+        if (value == null || !(is(code, index + 1, Opcode.ifeq) || is(code, index + 1, Opcode.ifne)))
+            return false;
+        boolean taken = (code.get(index + 1).getOpcode() == Opcode.ifeq) == (value == 0);
+        String target = code.get(index + 1).getOperand();
+        code.remove(index);
+        code.remove(index);
+        if (taken)
+            code.add(index, Instruction.create(Opcode.GOTO, target));
+        return true;
+    }
+
+    // a branch to a label that is directly followed by a goto jumps straight to the end of the goto chain
+    private static boolean threadJump(ArrayList<Instruction> code, int index, HashMap<String, Integer> labelUses) {
+        if (!isBranch(code.get(index)))
+            return false;
+        String label = code.get(index).getOperand();
+        HashSet<String> visited = new HashSet<>();
+        while (true) {
+            visited.add(label);
+            int next = findLabel(code, label);
+            if (next == -1)
+                return false;
+            while (next < code.size() && code.get(next).isLabel())
+                next++;
+            if (!is(code, next, Opcode.GOTO))
+                break;
+            label = code.get(next).getOperand();
+            // a cycle of gotos is an empty infinite loop, leave it alone
+            if (visited.contains(label))
+                return false;
+        }
+        if (label.equals(code.get(index).getOperand()))
+            return false;
+        code.set(index, Instruction.create(code.get(index).getOpcode(), label));
+        return true;
+    }
+
+    private static int findLabel(ArrayList<Instruction> code, String label) {
+        for (int i = 0; i < code.size(); i++) {
+            if (isLabel(code, i, label))
+                return i;
+        }
+        return -1;
+    }
+
+    // goto L; L: -> L:
+    private static boolean gotoNext(ArrayList<Instruction> code, int index, HashMap<String, Integer> labelUses) {
+        if (!is(code, index, Opcode.GOTO))
+            return false;
+        String label = code.get(index).getOperand();
+        for (int i = index + 1; i < code.size() && code.get(i).isLabel(); i++) {
+            if (code.get(i).getLabel().equals(label)) {
+                code.remove(index);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // nothing between an unconditional jump and the next label can execute
+    private static boolean unreachableCode(ArrayList<Instruction> code, int index, HashMap<String, Integer> labelUses) {
+        if (!endsFlow(code.get(index)) || index + 1 >= code.size() || code.get(index + 1).isLabel())
+            return false;
+        code.remove(index + 1);
+        return true;
+    }
+
+    // labels nothing jumps to only get in the way of the other rules
+    private static boolean unusedLabel(ArrayList<Instruction> code, int index, HashMap<String, Integer> labelUses) {
+        if (!code.get(index).isLabel() || labelUses.containsKey(code.get(index).getLabel()))
+            return false;
+        code.remove(index);
+        return true;
+    }
+}
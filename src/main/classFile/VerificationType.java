@@ -0,0 +1,115 @@
+package classFile;
+
+import java.util.Objects;
+
+public class VerificationType {
+    public enum Kind {
+        Top(0), Integer(1), Long(4), Null(5), UninitializedThis(6), Object(7), Uninitialized(8);
+
+        private int tag;
+
+        Kind(int tag) {
+            this.tag = tag;
+        }
+
+        public int getTag() {
+            return tag;
+        }
+    }
+
+    public static final VerificationType TOP = new VerificationType(Kind.Top, null, -1);
+    public static final VerificationType INTEGER = new VerificationType(Kind.Integer, null, -1);
+    // a long takes two slots, of locals or of the operand stack, the second of which is a top
+    public static final VerificationType LONG = new VerificationType(Kind.Long, null, -1);
+    public static final VerificationType NULL = new VerificationType(Kind.Null, null, -1);
+    public static final VerificationType UNINITIALIZED_THIS = new VerificationType(Kind.UninitializedThis, null, -1);
+
+    private Kind kind;
+    private String className;
+    private int newInstruction;
+
+    private VerificationType(Kind kind, String className, int newInstruction) {
+        this.kind = kind;
+        this.className = className;
+        this.newInstruction = newInstruction;
+    }
+
+    public static VerificationType object(String className) {
+        return new VerificationType(Kind.Object, className, -1);
+    }
+
+    // newInstruction is the index of the 'new' instruction that created the value
+    public static VerificationType uninitialized(int newInstruction, String className) {
+        return new VerificationType(Kind.Uninitialized, className, newInstruction);
+    }
+
+    public static VerificationType fromDescriptor(String descriptor) throws AssemblerException {
+        switch (descriptor.charAt(0)) {
+            case 'I':
+            case 'Z':
+            case 'B':
+            case 'C':
+            case 'S':
+                return INTEGER;
+            case 'J':
+                return LONG;
+            case 'L':
+                return object(descriptor.substring(1, descriptor.length() - 1));
+            case '[':
+                return object(descriptor);
+            default:
+                throw new AssemblerException("unsupported type descriptor " + descriptor);
+        }
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public int getNewInstruction() {
+        return newInstruction;
+    }
+
+    public boolean isReference() {
+        return kind == Kind.Object || kind == Kind.Null;
+    }
+
+    public static VerificationType merge(VerificationType a, VerificationType b) {
+        if (a.equals(b))
+            return a;
+        if (a.isReference() && b.isReference()) {
+            if (a.kind == Kind.Null)
+                return b;
+            if (b.kind == Kind.Null)
+                return a;
+            return object("java/lang/Object");
+        }
+        return TOP;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof VerificationType))
+            return false;
+        VerificationType t = (VerificationType) o;
+        return kind == t.kind && Objects.equals(className, t.className) && newInstruction == t.newInstruction;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(kind, className, newInstruction);
+    }
+
+    @Override
+    public String toString() {
+        if (kind == Kind.Object)
+            return className;
+        if (kind == Kind.Uninitialized)
+            return "uninitialized " + className;
+        return kind.name();
+    }
+}
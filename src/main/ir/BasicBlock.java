@@ -0,0 +1,95 @@
+package ir;
+
+import java.util.ArrayList;
+
+// a straight run of instructions that ends in a terminator, the phis of the block come before all of them
+// and have one operand for each predecessor, in the order of getPredecessors
+public class BasicBlock {
+    private int id;
+    private ArrayList<Instruction> phis = new ArrayList<>();
+    private ArrayList<Instruction> instructions = new ArrayList<>();
+    private ArrayList<BasicBlock> predecessors = new ArrayList<>();
+    // how many times the profile saw the block run, -1 when there is no profile for it
+    private long runs = -1;
+
+    BasicBlock(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public long getRuns() {
+        return runs;
+    }
+
+    public void setRuns(long runs) {
+        this.runs = runs;
+    }
+
+    public ArrayList<Instruction> getPhis() {
+        return phis;
+    }
+
+    public ArrayList<Instruction> getInstructions() {
+        return instructions;
+    }
+
+    public ArrayList<BasicBlock> getPredecessors() {
+        return predecessors;
+    }
+
+    public void addPhi(Instruction phi) {
+        phi.setBlock(this);
+        phis.add(phi);
+    }
+
+    public void add(Instruction instruction) {
+        instruction.setBlock(this);
+        instructions.add(instruction);
+    }
+
+    public void add(int index, Instruction instruction) {
+        instruction.setBlock(this);
+        instructions.add(index, instruction);
+    }
+
+    public void remove(Instruction instruction) {
+        if (instruction.getOperation() == Operation.PHI)
+            phis.remove(instruction);
+        else
+            instructions.remove(instruction);
+        instruction.setBlock(null);
+    }
+
+    // null while the block is still being built
+    public Instruction getTerminator() {
+        if (instructions.isEmpty())
+            return null;
+        Instruction last = instructions.get(instructions.size() - 1);
+        return last.getOperation().isTerminator() ? last : null;
+    }
+
+    public ArrayList<BasicBlock> getSuccessors() {
+        Instruction terminator = getTerminator();
+        return terminator == null ? new ArrayList<>() : terminator.getTargets();
+    }
+
+    // drops the edge from pred, and the operand every phi has for it
+    public void removePredecessor(BasicBlock pred) {
+        int index = predecessors.indexOf(pred);
+        predecessors.remove(index);
+        for (Instruction phi : phis)
+            phi.getOperands().remove(index);
+    }
+
+    public void replacePredecessor(BasicBlock pred, BasicBlock replacement) {
+        predecessors.set(predecessors.indexOf(pred), replacement);
+    }
+
+    @Override
+    public String toString() {
+        return "b" + id;
+    }
+}
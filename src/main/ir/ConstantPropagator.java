@@ -0,0 +1,207 @@
+package ir;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+// sparse conditional constant propagation (Wegman and Zadeck): int and boolean values are evaluated over the
+// edges that can actually be taken, so a value that is only constant because a branch always goes one way is
+// found as well. constant values replace their instructions, branches on them become jumps and blocks no edge
+// reaches are removed
+public class ConstantPropagator {
+    // the lattice: no entry is a value not evaluated yet, an Integer a constant and OVERDEFINED anything else
+    private static final Object OVERDEFINED = new Object();
+
+    private Function function;
+    private HashMap<Instruction, Object> values = new HashMap<>();
+    private HashMap<Instruction, ArrayList<Instruction>> users;
+    private HashSet<BasicBlock> executable = new HashSet<>();
+    private HashMap<BasicBlock, HashSet<BasicBlock>> edges = new HashMap<>();
+    private ArrayDeque<BasicBlock[]> edgeWork = new ArrayDeque<>();
+    private ArrayDeque<Instruction> valueWork = new ArrayDeque<>();
+    private int foldedValues;
+    private int foldedBranches;
+
+    public int getFoldedValues() {
+        return foldedValues;
+    }
+
+    public int getFoldedBranches() {
+        return foldedBranches;
+    }
+
+    public void run(Function function) {
+        this.function = function;
+        values.clear();
+        executable.clear();
+        edges.clear();
+        foldedValues = 0;
+        foldedBranches = 0;
+        users = function.getUsers();
+
+        edgeWork.add(new BasicBlock[] {null, function.getEntry()});
+        while (!edgeWork.isEmpty() || !valueWork.isEmpty()) {
+            while (!edgeWork.isEmpty()) {
+                BasicBlock[] edge = edgeWork.poll();
+                BasicBlock block = edge[1];
+                if (edge[0] != null && !edges.computeIfAbsent(edge[0], k -> new HashSet<>()).add(block))
+                    continue;
+                if (executable.add(block)) {
+                    for (Instruction phi : block.getPhis())
+                        visit(phi);
+                    for (Instruction instruction : block.getInstructions())
+                        visit(instruction);
+                }
+                else {
+                    for (Instruction phi : block.getPhis())
+                        visit(phi);
+                }
+            }
+            while (!valueWork.isEmpty()) {
+                Instruction instruction = valueWork.poll();
+                if (instruction.getBlock() != null && executable.contains(instruction.getBlock()))
+                    visit(instruction);
+            }
+        }
+        rewrite();
+    }
+
+    private boolean isExecutable(BasicBlock from, BasicBlock to) {
+        return edges.containsKey(from) && edges.get(from).contains(to);
+    }
+
+    private void visit(Instruction instruction) {
+        switch (instruction.getOperation()) {
+            case JUMP:
+                edgeWork.add(new BasicBlock[] {instruction.getBlock(), instruction.getTargets().get(0)});
+                return;
+            case BRANCH:
+                Object condition = values.get(instruction.getOperand(0));
+                if (condition == null)
+                    return;
+                BasicBlock block = instruction.getBlock();
+                if (condition == OVERDEFINED || (Integer) condition != 0)
+                    edgeWork.add(new BasicBlock[] {block, instruction.getTargets().get(0)});
+                if (condition == OVERDEFINED || (Integer) condition == 0)
+                    edgeWork.add(new BasicBlock[] {block, instruction.getTargets().get(1)});
+                return;
+            default:
+                break;
+        }
+        if (!instruction.hasValue())
+            return;
+        Object value = instruction.getOperation() == Operation.PHI ? meetOperands(instruction) : evaluate(instruction);
+        Object old = values.get(instruction);
+        if (value == null || value.equals(old) || old == OVERDEFINED)
+            return;
+        if (old != null)
+            value = OVERDEFINED;
+        values.put(instruction, value);
+        for (Instruction user : users.getOrDefault(instruction, new ArrayList<>()))
+            valueWork.add(user);
+    }
+
+    // the operands that come in over an edge that can be taken
+    private Object meetOperands(Instruction phi) {
+        if (!SsaBuilder.isIntLike(phi.getType()))
+            return OVERDEFINED;
+        Object value = null;
+        BasicBlock block = phi.getBlock();
+        for (int i = 0; i < phi.getOperands().size(); i++) {
+            if (!isExecutable(block.getPredecessors().get(i), block))
+                continue;
+            Object operand = values.get(phi.getOperand(i));
+            if (operand == null)
+                continue;
+            if (value == null)
+                value = operand;
+            else if (!value.equals(operand))
+                return OVERDEFINED;
+        }
+        return value;
+    }
+
+    // null while an operand has not been evaluated
+    private Object evaluate(Instruction instruction) {
+        Operation operation = instruction.getOperation();
+        if (!SsaBuilder.isIntLike(instruction.getType()))
+            return OVERDEFINED;
+        if (operation == Operation.CONSTANT)
+            return instruction.getConstant();
+        if (!operation.isArithmetic() && !operation.isComparison())
+            return OVERDEFINED;
+        int[] operands = new int[instruction.getOperands().size()];
+        for (int i = 0; i < operands.length; i++) {
+            Object operand = values.get(instruction.getOperand(i));
+            if (operand == OVERDEFINED)
+                return OVERDEFINED;
+            if (operand == null)
+                return null;
+            operands[i] = (Integer) operand;
+        }
+        switch (operation) {
+            case ADD:
+                return operands[0] + operands[1];
+            case SUB:
+                return operands[0] - operands[1];
+            case MUL:
+                return operands[0] * operands[1];
+            case DIV:
+                return operands[1] == 0 ? OVERDEFINED : (Object) (operands[0] / operands[1]);
+            case SHL:
+                return operands[0] << operands[1];
+            case SHR:
+                return operands[0] >> operands[1];
+            case USHR:
+                return operands[0] >>> operands[1];
+            case NEG:
+                return -operands[0];
+            case NOT:
+                return operands[0] == 0 ? 1 : 0;
+            case LESS:
+                return operands[0] < operands[1] ? 1 : 0;
+            case GREATER:
+                return operands[0] > operands[1] ? 1 : 0;
+            case EQUAL:
+                return operands[0] == operands[1] ? 1 : 0;
+            default:
+                return operands[0] != operands[1] ? 1 : 0;
+        }
+    }
+
+    private void rewrite() {
+        for (BasicBlock block : function.getBlocks()) {
+            if (!executable.contains(block))
+                continue;
+            ArrayList<Instruction> instructions = new ArrayList<>(block.getPhis());
+            instructions.addAll(block.getInstructions());
+            for (Instruction instruction : instructions) {
+                Object value = values.get(instruction);
+                if (!(value instanceof Integer) || instruction.getOperation() == Operation.CONSTANT ||
+                        instruction.hasSideEffects())
+                    continue;
+                Instruction constant = function.constant(instruction.getType(), value);
+                function.replaceAllUses(instruction, constant);
+                block.remove(instruction);
+                foldedValues++;
+            }
+
+            // the condition itself may just have been replaced with a constant
+            Instruction terminator = block.getTerminator();
+            if (terminator.getOperation() != Operation.BRANCH || !terminator.getOperand(0).isIntConstant())
+                continue;
+            boolean condition = terminator.getOperand(0).getIntConstant() != 0;
+            BasicBlock taken = terminator.getTargets().get(condition ? 0 : 1);
+            BasicBlock other = terminator.getTargets().get(condition ? 1 : 0);
+            if (other != taken)
+                other.removePredecessor(block);
+            block.remove(terminator);
+            Instruction jump = function.create(Operation.JUMP, null);
+            jump.addTarget(taken);
+            block.add(jump);
+            foldedBranches++;
+        }
+        function.removeUnreachableBlocks();
+    }
+}
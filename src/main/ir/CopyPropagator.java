@@ -0,0 +1,40 @@
+package ir;
+
+import java.util.ArrayList;
+
+// the only copies ssa form has are phis whose operands, apart from the phi itself, are all one value, as left
+// behind when other passes remove edges or merge values. their uses read that value instead
+public class CopyPropagator {
+    // returns the number of phis removed
+    public int run(Function function) {
+        int removed = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : function.getBlocks()) {
+                for (Instruction phi : new ArrayList<>(block.getPhis())) {
+                    Instruction copied = getCopiedValue(phi);
+                    if (copied == null)
+                        continue;
+                    block.remove(phi);
+                    function.replaceAllUses(phi, copied);
+                    removed++;
+                    changed = true;
+                }
+            }
+        }
+        return removed;
+    }
+
+    private static Instruction getCopiedValue(Instruction phi) {
+        Instruction same = null;
+        for (Instruction operand : phi.getOperands()) {
+            if (operand == phi || operand == same)
+                continue;
+            if (same != null)
+                return null;
+            same = operand;
+        }
+        return same;
+    }
+}
@@ -0,0 +1,130 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// a loop that is a single block and counts an induction variable up by one for as long as its step stays below a
+// bound set before the loop. the block is only entered with the variable below the bound as well, so it runs
+// bound - start times, taken as an unsigned number
+class CountedLoop {
+    private BasicBlock block;
+    private BasicBlock preheader;
+    private BasicBlock exit;
+    private Instruction condition;
+    private Instruction start;
+    private Instruction bound;
+    // the induction variables stepping by one, with the value they start at, and their steps
+    private HashMap<Instruction, Instruction> starts = new HashMap<>();
+    private HashMap<Instruction, Instruction> steps = new HashMap<>();
+
+    private CountedLoop(BasicBlock block) {
+        this.block = block;
+    }
+
+    // null if block is not such a loop
+    static CountedLoop find(BasicBlock block) {
+        ArrayList<BasicBlock> preds = block.getPredecessors();
+        if (preds.size() != 2 || preds.get(0) == block || preds.get(1) != block)
+            return null;
+        Instruction terminator = block.getTerminator();
+        if (terminator.getOperation() != Operation.BRANCH || terminator.getTargets().get(0) != block ||
+                terminator.getTargets().get(1) == block)
+            return null;
+        CountedLoop loop = new CountedLoop(block);
+        loop.preheader = preds.get(0);
+        loop.exit = terminator.getTargets().get(1);
+        for (Instruction phi : block.getPhis()) {
+            Instruction next = phi.getOperand(1);
+            Instruction step = next.getBlock() == block && next.getOperation() == Operation.ADD ?
+                    getOther(next, phi) : null;
+            if (step != null && step.isIntConstant() && step.getIntConstant() == 1) {
+                loop.starts.put(phi, phi.getOperand(0));
+                loop.steps.put(next, phi);
+            }
+        }
+
+        loop.condition = terminator.getOperand(0);
+        Instruction counter = loop.getBelow(loop.condition);
+        if (counter == null || loop.condition.getBlock() != block || !loop.steps.containsKey(counter))
+            return null;
+        loop.bound = getBound(loop.condition);
+        loop.start = loop.starts.get(loop.steps.get(counter));
+        Instruction entry = loop.preheader.getTerminator();
+        if (entry.getOperation() == Operation.BRANCH) {
+            Instruction test = entry.getOperand(0);
+            if (entry.getTargets().get(0) != block || loop.getBelow(test) != loop.start ||
+                    getBound(test) != loop.bound)
+                return null;
+        }
+        // a jump means the test was found to hold before the loop
+        return loop;
+    }
+
+    BasicBlock getBlock() {
+        return block;
+    }
+
+    BasicBlock getPreheader() {
+        return preheader;
+    }
+
+    BasicBlock getExit() {
+        return exit;
+    }
+
+    Instruction getCondition() {
+        return condition;
+    }
+
+    Instruction getStart() {
+        return start;
+    }
+
+    Instruction getBound() {
+        return bound;
+    }
+
+    HashMap<Instruction, Instruction> getStarts() {
+        return starts;
+    }
+
+    HashMap<Instruction, Instruction> getSteps() {
+        return steps;
+    }
+
+    // the number of turns when it is known, -1 otherwise
+    long getTripCount() {
+        if (!start.isIntConstant() || !bound.isIntConstant())
+            return -1;
+        return (long) bound.getIntConstant() - start.getIntConstant();
+    }
+
+    boolean isInvariant(Instruction value) {
+        return value.getBlock() != block;
+    }
+
+    // the other operand of a binary instruction that has value as one of its operands
+    static Instruction getOther(Instruction instruction, Instruction value) {
+        if (instruction.getOperand(0) == value)
+            return instruction.getOperand(1);
+        if (instruction.getOperand(1) == value)
+            return instruction.getOperand(0);
+        return null;
+    }
+
+    // what is compared as below an invariant bound in i < n or n > i
+    private Instruction getBelow(Instruction condition) {
+        Instruction below;
+        if (condition.getOperation() == Operation.LESS)
+            below = condition.getOperand(0);
+        else if (condition.getOperation() == Operation.GREATER)
+            below = condition.getOperand(1);
+        else
+            return null;
+        return isInvariant(getBound(condition)) ? below : null;
+    }
+
+    private static Instruction getBound(Instruction condition) {
+        return condition.getOperand(condition.getOperation() == Operation.LESS ? 1 : 0);
+    }
+}
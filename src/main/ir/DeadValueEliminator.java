@@ -0,0 +1,47 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+// removes every instruction without side effects whose value nothing needs, including cycles of phis that
+// only feed each other
+public class DeadValueEliminator {
+    // returns the number of instructions removed, not counting constants, arguments and this
+    public int run(Function function) {
+        HashSet<Instruction> live = new HashSet<>();
+        ArrayList<Instruction> work = new ArrayList<>();
+        for (BasicBlock block : function.getBlocks()) {
+            for (Instruction instruction : block.getInstructions()) {
+                if (instruction.hasSideEffects() && live.add(instruction))
+                    work.add(instruction);
+            }
+        }
+        while (!work.isEmpty()) {
+            Instruction instruction = work.remove(work.size() - 1);
+            for (Instruction operand : instruction.getOperands()) {
+                if (live.add(operand))
+                    work.add(operand);
+            }
+        }
+
+        int removed = 0;
+        for (BasicBlock block : function.getBlocks()) {
+            ArrayList<Instruction> dead = new ArrayList<>();
+            for (Instruction phi : block.getPhis()) {
+                if (!live.contains(phi))
+                    dead.add(phi);
+            }
+            for (Instruction instruction : block.getInstructions()) {
+                if (!live.contains(instruction))
+                    dead.add(instruction);
+            }
+            for (Instruction instruction : dead) {
+                block.remove(instruction);
+                Operation operation = instruction.getOperation();
+                if (operation != Operation.CONSTANT && operation != Operation.PARAMETER && operation != Operation.THIS)
+                    removed++;
+            }
+        }
+        return removed;
+    }
+}
@@ -0,0 +1,74 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// immediate dominators of the reachable blocks of a function, by the iterative algorithm of Cooper, Harvey
+// and Kennedy ("A Simple, Fast Dominance Algorithm")
+public class DominatorTree {
+    private BasicBlock entry;
+    private HashMap<BasicBlock, Integer> order = new HashMap<>();
+    private HashMap<BasicBlock, BasicBlock> idom = new HashMap<>();
+    private HashMap<BasicBlock, ArrayList<BasicBlock>> children = new HashMap<>();
+
+    public DominatorTree(Function function) {
+        entry = function.getEntry();
+        ArrayList<BasicBlock> blocks = function.reversePostorder();
+        for (int i = 0; i < blocks.size(); i++) {
+            order.put(blocks.get(i), i);
+            children.put(blocks.get(i), new ArrayList<>());
+        }
+        idom.put(entry, entry);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : blocks) {
+                if (block == entry)
+                    continue;
+                BasicBlock dominator = null;
+                for (BasicBlock pred : block.getPredecessors()) {
+                    if (!idom.containsKey(pred))
+                        continue;
+                    dominator = dominator == null ? pred : intersect(pred, dominator);
+                }
+                if (dominator != idom.get(block)) {
+                    idom.put(block, dominator);
+                    changed = true;
+                }
+            }
+        }
+        for (BasicBlock block : blocks) {
+            if (block != entry)
+                children.get(idom.get(block)).add(block);
+        }
+    }
+
+    private BasicBlock intersect(BasicBlock a, BasicBlock b) {
+        while (a != b) {
+            while (order.get(a) > order.get(b))
+                a = idom.get(a);
+            while (order.get(b) > order.get(a))
+                b = idom.get(b);
+        }
+        return a;
+    }
+
+    // the entry is its own immediate dominator
+    public BasicBlock getIdom(BasicBlock block) {
+        return idom.get(block);
+    }
+
+    public ArrayList<BasicBlock> getChildren(BasicBlock block) {
+        return children.get(block);
+    }
+
+    public boolean isReachable(BasicBlock block) {
+        return order.containsKey(block);
+    }
+
+    public boolean dominates(BasicBlock a, BasicBlock b) {
+        while (b != a && b != entry)
+            b = idom.get(b);
+        return b == a;
+    }
+}
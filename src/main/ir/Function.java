@@ -0,0 +1,154 @@
+package ir;
+
+import ast.Type.Type;
+import ast.node.declaration.MethodDeclaration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+
+// the ssa form of one method: its blocks, the first of which is the entry, and the values they define
+public class Function {
+    private String className;
+    private MethodDeclaration method;
+    private ArrayList<BasicBlock> blocks = new ArrayList<>();
+    private BasicBlock entry;
+    private int nextValue = 0;
+    private int nextBlock = 0;
+
+    public Function(String className, MethodDeclaration method) {
+        this.className = className;
+        this.method = method;
+        this.entry = newBlock();
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public MethodDeclaration getMethod() {
+        return method;
+    }
+
+    // Class.method, the way reports and verifier messages name the function
+    public String getName() {
+        return className + "." + method.getName().getName();
+    }
+
+    public BasicBlock getEntry() {
+        return entry;
+    }
+
+    public ArrayList<BasicBlock> getBlocks() {
+        return blocks;
+    }
+
+    public BasicBlock newBlock() {
+        BasicBlock block = new BasicBlock(nextBlock++);
+        blocks.add(block);
+        return block;
+    }
+
+    // an instruction that is not in any block yet
+    public Instruction create(Operation operation, Type type) {
+        return new Instruction(nextValue++, operation, type);
+    }
+
+    // constants live at the start of the entry block, where they dominate every use
+    public Instruction constant(Type type, Object value) {
+        Instruction constant = create(Operation.CONSTANT, type);
+        constant.setConstant(value);
+        entry.add(0, constant);
+        return constant;
+    }
+
+    public int countInstructions() {
+        int count = 0;
+        for (BasicBlock block : blocks)
+            count += block.getPhis().size() + block.getInstructions().size();
+        return count;
+    }
+
+    // every instruction that has value as an operand, once for each time it does
+    public HashMap<Instruction, ArrayList<Instruction>> getUsers() {
+        HashMap<Instruction, ArrayList<Instruction>> users = new HashMap<>();
+        for (BasicBlock block : blocks) {
+            for (Instruction phi : block.getPhis()) {
+                for (Instruction operand : phi.getOperands())
+                    users.computeIfAbsent(operand, k -> new ArrayList<>()).add(phi);
+            }
+            for (Instruction instruction : block.getInstructions()) {
+                for (Instruction operand : instruction.getOperands())
+                    users.computeIfAbsent(operand, k -> new ArrayList<>()).add(instruction);
+            }
+        }
+        return users;
+    }
+
+    public void replaceAllUses(Instruction value, Instruction replacement) {
+        for (BasicBlock block : blocks) {
+            replaceOperands(block.getPhis(), value, replacement);
+            replaceOperands(block.getInstructions(), value, replacement);
+        }
+    }
+
+    private static void replaceOperands(ArrayList<Instruction> instructions, Instruction value,
+                                        Instruction replacement) {
+        for (Instruction instruction : instructions) {
+            ArrayList<Instruction> operands = instruction.getOperands();
+            for (int i = 0; i < operands.size(); i++) {
+                if (operands.get(i) == value)
+                    operands.set(i, replacement);
+            }
+        }
+    }
+
+    // the blocks control can reach from the entry, each one after all of its predecessors except along back edges.
+    // a block is followed by the likely target of its branch when it can be
+    public ArrayList<BasicBlock> reversePostorder() {
+        ArrayList<BasicBlock> postorder = new ArrayList<>();
+        HashSet<BasicBlock> visited = new HashSet<>();
+        ArrayList<BasicBlock> stack = new ArrayList<>();
+        HashMap<BasicBlock, Integer> nextSuccessor = new HashMap<>();
+        stack.add(entry);
+        visited.add(entry);
+        while (!stack.isEmpty()) {
+            BasicBlock block = stack.get(stack.size() - 1);
+            ArrayList<BasicBlock> successors = block.getSuccessors();
+            int next = nextSuccessor.getOrDefault(block, 0);
+            if (next < successors.size()) {
+                nextSuccessor.put(block, next + 1);
+                // the successor visited last ends up right after the block, that is the first one unless the
+                // branch expects the second
+                boolean secondLikely = block.getTerminator().getLikelyTarget() == 1;
+                BasicBlock successor = successors.get(secondLikely ? next : successors.size() - 1 - next);
+                if (visited.add(successor))
+                    stack.add(successor);
+            }
+            else {
+                stack.remove(stack.size() - 1);
+                postorder.add(block);
+            }
+        }
+        Collections.reverse(postorder);
+        return postorder;
+    }
+
+    // returns the number of blocks removed
+    public int removeUnreachableBlocks() {
+        HashSet<BasicBlock> reachable = new HashSet<>(reversePostorder());
+        int removed = 0;
+        for (BasicBlock block : new ArrayList<>(blocks)) {
+            if (reachable.contains(block))
+                continue;
+            for (BasicBlock successor : block.getSuccessors()) {
+                while (reachable.contains(successor) && successor.getPredecessors().contains(block))
+                    successor.removePredecessor(block);
+            }
+            blocks.remove(block);
+            removed++;
+        }
+        return removed;
+    }
+}
@@ -0,0 +1,216 @@
+package ir;
+
+import ast.Type.PrimitiveType.IntType;
+import ast.Type.Type;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// replaces loops that copy one array range into another, fill a range with one value or add a range up with a
+// call to a helper of the runtime class, which hands in-bounds copies and fills to System.arraycopy and
+// Arrays.fill. a loop qualifies when it is a single block counting i from its start up to some n, and all the
+// block does is the copy, fill or sum at indices that follow i. anything the helpers can not do in bulk, like
+// an index out of range or a copy onto a later part of the same array, they do element by element in the
+// loop's order, so the same elements are written before the same exception is thrown
+public class IdiomRecognizer {
+    public static final String RUNTIME_CLASS = "SmoolaRuntime";
+
+    private Function function;
+    private BasicBlock loop;
+    private HashMap<Instruction, Instruction> starts;
+    private HashMap<Instruction, Instruction> steps;
+    private int copies;
+    private int fills;
+    private int sums;
+
+    public int getCopies() {
+        return copies;
+    }
+
+    public int getFills() {
+        return fills;
+    }
+
+    public int getSums() {
+        return sums;
+    }
+
+    // returns the number of loops replaced
+    public int run(Function function) {
+        this.function = function;
+        copies = 0;
+        fills = 0;
+        sums = 0;
+        for (BasicBlock block : new ArrayList<>(function.getBlocks()))
+            replace(block);
+        return copies + fills + sums;
+    }
+
+    private void replace(BasicBlock block) {
+        CountedLoop counted = CountedLoop.find(block);
+        if (counted == null)
+            return;
+        loop = block;
+        starts = counted.getStarts();
+        steps = counted.getSteps();
+        Instruction condition = counted.getCondition();
+        Instruction start = counted.getStart();
+        Instruction bound = counted.getBound();
+        BasicBlock exit = counted.getExit();
+
+        // besides the induction variables there may only be the sum
+        Instruction accumulator = null;
+        for (Instruction phi : block.getPhis()) {
+            if (starts.containsKey(phi))
+                continue;
+            if (accumulator != null)
+                return;
+            accumulator = phi;
+        }
+
+        ArrayList<Instruction> loads = new ArrayList<>();
+        ArrayList<Instruction> stores = new ArrayList<>();
+        for (Instruction instruction : block.getInstructions()) {
+            switch (instruction.getOperation()) {
+                case ARRAY_LOAD:
+                    if (!isInvariant(instruction.getOperand(0)) || !follows(instruction.getOperand(1)))
+                        return;
+                    loads.add(instruction);
+                    break;
+                case ARRAY_STORE:
+                    if (!isInvariant(instruction.getOperand(0)) || !follows(instruction.getOperand(1)))
+                        return;
+                    stores.add(instruction);
+                    break;
+                case ADD:
+                    // steps, indices and the sum
+                    break;
+                case LESS:
+                case GREATER:
+                    if (instruction != condition)
+                        return;
+                    break;
+                case BRANCH:
+                    break;
+                default:
+                    return;
+            }
+        }
+
+        // only the induction variables and the sum may be used after the loop, everything else has to be
+        // one of the loads, stores and index computations of the idiom
+        HashMap<Instruction, ArrayList<Instruction>> users = function.getUsers();
+        Instruction sum = accumulator == null ? null : accumulator.getOperand(1);
+        for (Instruction instruction : block.getInstructions()) {
+            if (instruction.getOperation() == Operation.ADD && !steps.containsKey(instruction) &&
+                    instruction != sum && !follows(instruction))
+                return;
+            if (!steps.containsKey(instruction) && instruction != sum && escapes(instruction, users))
+                return;
+        }
+        if (accumulator != null && escapes(accumulator, users))
+            return;
+
+        Instruction load = loads.isEmpty() ? null : loads.get(0);
+        Instruction store = stores.isEmpty() ? null : stores.get(0);
+        boolean copy = accumulator == null && loads.size() == 1 && stores.size() == 1 &&
+                store.getOperand(2) == load && users.get(load).size() == 1;
+        boolean fill = accumulator == null && loads.isEmpty() && stores.size() == 1 &&
+                isInvariant(store.getOperand(2));
+        boolean adds = accumulator != null && loads.size() == 1 && stores.isEmpty() && sum.getBlock() == block &&
+                sum.getOperation() == Operation.ADD && CountedLoop.getOther(sum, accumulator) == load &&
+                users.get(load).size() == 1 && users.get(accumulator).size() == 1;
+        if (!copy && !fill && !adds)
+            return;
+
+        // the induction variables used after the loop, as they were in the last turn or after it
+        ArrayList<Instruction> used = new ArrayList<>();
+        for (Instruction next : steps.keySet()) {
+            if (escapes(next, users) || escapes(steps.get(next), users))
+                used.add(next);
+        }
+
+        clear(block);
+        Instruction count = add(Operation.SUB, null, bound, start);
+        if (copy) {
+            call("copy([II[III)V", null, load.getOperand(0), getStart(load.getOperand(1)), store.getOperand(0),
+                    getStart(store.getOperand(1)), count);
+            copies++;
+        }
+        else if (fill) {
+            call("fill([IIII)V", null, store.getOperand(0), getStart(store.getOperand(1)), count,
+                    store.getOperand(2));
+            fills++;
+        }
+        else {
+            function.replaceAllUses(sum, call("sum([IIII)I", new IntType(), load.getOperand(0),
+                    getStart(load.getOperand(1)), count, accumulator.getOperand(0)));
+            sums++;
+        }
+
+        // the values the induction variables end with, after count steps
+        for (Instruction next : used) {
+            Instruction phi = steps.get(next);
+            Instruction last = add(Operation.ADD, null, starts.get(phi), count);
+            function.replaceAllUses(next, last);
+            function.replaceAllUses(phi, add(Operation.SUB, null, last, function.constant(new IntType(), 1)));
+        }
+        block.getPredecessors().remove(block);
+        add(Operation.JUMP, null).addTarget(exit);
+    }
+
+    private Instruction call(String helper, Type type, Instruction... args) {
+        Instruction call = add(Operation.CALL, type, args);
+        call.setName(RUNTIME_CLASS + "/" + helper);
+        call.setStatic(true);
+        return call;
+    }
+
+    // takes the loop block apart, the instructions that replace it are added after
+    private void clear(BasicBlock block) {
+        for (Instruction phi : new ArrayList<>(block.getPhis()))
+            block.remove(phi);
+        for (Instruction instruction : new ArrayList<>(block.getInstructions()))
+            block.remove(instruction);
+    }
+
+    private Instruction add(Operation operation, Type type, Instruction... operands) {
+        if (type == null && operation.isArithmetic())
+            type = new IntType();
+        Instruction instruction = function.create(operation, type);
+        for (Instruction operand : operands)
+            instruction.addOperand(operand);
+        loop.add(instruction);
+        return instruction;
+    }
+
+    private boolean isInvariant(Instruction value) {
+        return value.getBlock() != loop;
+    }
+
+    private boolean escapes(Instruction value, HashMap<Instruction, ArrayList<Instruction>> users) {
+        for (Instruction user : users.getOrDefault(value, new ArrayList<>())) {
+            if (user.getBlock() != loop)
+                return true;
+        }
+        return false;
+    }
+
+    // whether index is an induction variable, or one plus a value set before the loop
+    private boolean follows(Instruction index) {
+        if (starts.containsKey(index))
+            return true;
+        if (index.getOperation() != Operation.ADD || index.getBlock() != loop)
+            return false;
+        return starts.containsKey(index.getOperand(0)) && isInvariant(index.getOperand(1)) ||
+                starts.containsKey(index.getOperand(1)) && isInvariant(index.getOperand(0));
+    }
+
+    // the value an index that follows an induction variable has in the first turn
+    private Instruction getStart(Instruction index) {
+        if (starts.containsKey(index))
+            return starts.get(index);
+        Instruction phi = starts.containsKey(index.getOperand(0)) ? index.getOperand(0) : index.getOperand(1);
+        return add(Operation.ADD, null, starts.get(phi), CountedLoop.getOther(index, phi));
+    }
+}
@@ -0,0 +1,186 @@
+package ir;
+
+import ast.Type.Type;
+import ast.node.declaration.MethodDeclaration;
+
+import java.util.ArrayList;
+
+// an instruction of a basic block, and the ssa value it defines when it has a type
+public class Instruction {
+    private int id;
+    private Operation operation;
+    private Type type;
+    private BasicBlock block;
+    private ArrayList<Instruction> operands = new ArrayList<>();
+    // a JUMP has one target, a BRANCH goes to the first one when its operand is true and to the second otherwise
+    private ArrayList<BasicBlock> targets = new ArrayList<>();
+    // CONSTANT: an Integer for ints and booleans, the quoted literal for strings and null for a null reference
+    private Object constant;
+    // PARAMETER: the position of the argument
+    private int index;
+    // the variable of a PHI or PARAMETER, Owner/field descriptor for GET_FIELD and PUT_FIELD,
+    // Owner/method(...)R for a CALL and the descriptor of the printed value for PRINT
+    private String name;
+    private MethodDeclaration method;
+    private boolean isStatic;
+    // BRANCH: the target the profile saw taken more often, it is laid out right after the branch
+    private int likelyTarget = 0;
+
+    Instruction(int id, Operation operation, Type type) {
+        this.id = id;
+        this.operation = operation;
+        this.type = type;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    // null for an instruction that defines no value
+    public Type getType() {
+        return type;
+    }
+
+    public boolean hasValue() {
+        return type != null;
+    }
+
+    public BasicBlock getBlock() {
+        return block;
+    }
+
+    void setBlock(BasicBlock block) {
+        this.block = block;
+    }
+
+    public ArrayList<Instruction> getOperands() {
+        return operands;
+    }
+
+    public Instruction getOperand(int i) {
+        return operands.get(i);
+    }
+
+    public void addOperand(Instruction operand) {
+        operands.add(operand);
+    }
+
+    public void setOperand(int i, Instruction operand) {
+        operands.set(i, operand);
+    }
+
+    public ArrayList<BasicBlock> getTargets() {
+        return targets;
+    }
+
+    public void addTarget(BasicBlock target) {
+        targets.add(target);
+    }
+
+    public Object getConstant() {
+        return constant;
+    }
+
+    public void setConstant(Object constant) {
+        this.constant = constant;
+    }
+
+    public boolean isIntConstant() {
+        return operation == Operation.CONSTANT && constant instanceof Integer;
+    }
+
+    public int getIntConstant() {
+        return (Integer) constant;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    // CALL: the method that runs
+    public MethodDeclaration getMethod() {
+        return method;
+    }
+
+    public void setMethod(MethodDeclaration method) {
+        this.method = method;
+    }
+
+    public boolean isStatic() {
+        return isStatic;
+    }
+
+    public void setStatic(boolean isStatic) {
+        this.isStatic = isStatic;
+    }
+
+    public int getLikelyTarget() {
+        return likelyTarget;
+    }
+
+    public void setLikelyTarget(int likelyTarget) {
+        this.likelyTarget = likelyTarget;
+    }
+
+    // whether the instruction has to run even when nothing uses its value, because it changes something
+    // outside of its value or may throw
+    public boolean hasSideEffects() {
+        switch (operation) {
+            case DIV:
+                return !(operands.get(1).isIntConstant() && operands.get(1).getIntConstant() != 0);
+            case NEW_ARRAY:
+                return !(operands.get(0).isIntConstant() && operands.get(0).getIntConstant() >= 0);
+            case EQUALS:
+            case PUT_FIELD:
+            case ARRAY_LOAD:
+            case ARRAY_STORE:
+            case ARRAY_LENGTH:
+            case CALL:
+            case PRINT:
+            case JUMP:
+            case BRANCH:
+            case RETURN:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "v" + id;
+    }
+
+    // the instruction the way the verifier names it in its messages
+    public String describe() {
+        StringBuilder text = new StringBuilder();
+        if (hasValue())
+            text.append(this).append(" = ");
+        text.append(operation.name().toLowerCase());
+        if (operation == Operation.CONSTANT)
+            text.append(" ").append(constant);
+        else if (name != null)
+            text.append(" ").append(name);
+        for (Instruction operand : operands)
+            text.append(" ").append(operand);
+        for (BasicBlock target : targets)
+            text.append(" ").append(target);
+        return text.toString();
+    }
+}
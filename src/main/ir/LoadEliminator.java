@@ -0,0 +1,95 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+// removes loads of a field or an array element whose value is already known: read earlier, or just stored.
+// what memory holds is carried down the dominator tree only into blocks with a single predecessor, so every
+// path to a load passes the instructions seen. a store forgets the loads it may overwrite, whichever object
+// or array it writes to, and a call forgets everything
+public class LoadEliminator {
+    private DominatorTree dominators;
+    private HashMap<Instruction, Instruction> replacements = new HashMap<>();
+    private int removed;
+
+    // returns the number of loads removed
+    public int run(Function function) {
+        dominators = new DominatorTree(function);
+        replacements.clear();
+        removed = 0;
+        eliminate(function.getEntry(), new HashMap<>());
+        for (BasicBlock block : function.getBlocks()) {
+            canonicalize(block.getPhis());
+            canonicalize(block.getInstructions());
+        }
+        return removed;
+    }
+
+    private void eliminate(BasicBlock block, HashMap<String, Instruction> memory) {
+        for (Instruction instruction : new ArrayList<>(block.getInstructions())) {
+            canonicalize(instruction);
+            switch (instruction.getOperation()) {
+                case GET_FIELD:
+                case ARRAY_LOAD:
+                    String key = getKey(instruction);
+                    Instruction known = memory.get(key);
+                    if (known != null) {
+                        replacements.put(instruction, known);
+                        block.remove(instruction);
+                        removed++;
+                    }
+                    else
+                        memory.put(key, instruction);
+                    break;
+                case PUT_FIELD:
+                    forget(memory, "field " + instruction.getName() + " ");
+                    memory.put(getKey(instruction), instruction.getOperand(1));
+                    break;
+                case ARRAY_STORE:
+                    forget(memory, "array ");
+                    memory.put(getKey(instruction), instruction.getOperand(2));
+                    break;
+                case CALL:
+                    memory.clear();
+                    break;
+            }
+        }
+        for (BasicBlock child : dominators.getChildren(block))
+            eliminate(child, child.getPredecessors().size() == 1 ? new HashMap<>(memory) : new HashMap<>());
+    }
+
+    private static void forget(HashMap<String, Instruction> memory, String prefix) {
+        Iterator<String> keys = memory.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().startsWith(prefix))
+                keys.remove();
+        }
+    }
+
+    // the location an access reads or writes
+    private static String getKey(Instruction access) {
+        switch (access.getOperation()) {
+            case GET_FIELD:
+            case PUT_FIELD:
+                return "field " + access.getName() + " " + access.getOperand(0);
+            default:
+                return "array " + access.getOperand(0) + " " + access.getOperand(1);
+        }
+    }
+
+    private void canonicalize(ArrayList<Instruction> instructions) {
+        for (Instruction instruction : instructions)
+            canonicalize(instruction);
+    }
+
+    private void canonicalize(Instruction instruction) {
+        ArrayList<Instruction> operands = instruction.getOperands();
+        for (int i = 0; i < operands.size(); i++) {
+            Instruction operand = operands.get(i);
+            while (replacements.containsKey(operand))
+                operand = replacements.get(operand);
+            operands.set(i, operand);
+        }
+    }
+}
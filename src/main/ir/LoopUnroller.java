@@ -0,0 +1,222 @@
+package ir;
+
+import ast.Type.PrimitiveType.BooleanType;
+import ast.Type.PrimitiveType.IntType;
+import profile.Profile;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// unrolls counted loops. one that is known to take only a few turns becomes that many copies of its body in a
+// row. any other gets a loop in front of it that does factor turns per test, and is left itself to do the last
+// one to factor turns, so everything after the loop still sees the values it computed:
+//
+//     guard:    trip = n - start; rounds = (trip - 1) >>> log2(factor); if rounds > 0 goto unrolled else rest
+//     unrolled: factor copies of the body; rounds = rounds - 1; if rounds > 0 goto unrolled else rest
+//     rest:     the induction variables as the guard or the unrolled loop left them
+//     loop:     the original loop
+//
+// loops only grow while the method stays well below the size the jit stops compiling methods at. with a profile,
+// loops it never saw turn are left alone and hot ones may grow twice as much
+public class LoopUnroller {
+    // turns up to which a loop is unrolled in full, and the instructions that may take
+    private static final int FULL_TURNS = 16;
+    private static final int FULL_SIZE = 96;
+    // instructions the unrolled body of a partly unrolled loop may take
+    private static final int UNROLLED_SIZE = 128;
+    // instructions a method may grow to, HotSpot does not compile methods of more than 8000 bytes
+    private static final int FUNCTION_SIZE = 1500;
+
+    private int factor;
+    private Profile profile;
+    private Function function;
+    private int fullyUnrolled;
+    private int unrolled;
+
+    // factor is rounded down to a power of two, 1 only unrolls loops in full
+    public LoopUnroller(int factor) {
+        this.factor = Integer.highestOneBit(Math.max(factor, 1));
+    }
+
+    public void setProfile(Profile profile) { this.profile = profile; }
+
+    public int getFullyUnrolled() {
+        return fullyUnrolled;
+    }
+
+    public int getUnrolled() {
+        return unrolled;
+    }
+
+    public int getFactor() {
+        return factor;
+    }
+
+    // returns the number of loops unrolled
+    public int run(Function function) {
+        this.function = function;
+        fullyUnrolled = 0;
+        unrolled = 0;
+        for (BasicBlock block : new ArrayList<>(function.getBlocks())) {
+            CountedLoop loop = CountedLoop.find(block);
+            if (loop == null)
+                continue;
+            if (block.getRuns() == 0)
+                continue;
+            int scale = profile != null && profile.isHot(Profile.LOOP, block.getRuns()) ? 2 : 1;
+            int size = block.getPhis().size() + block.getInstructions().size();
+            long turns = loop.getTripCount();
+            if (turns >= 1 && turns <= FULL_TURNS && turns * size <= scale * FULL_SIZE &&
+                    function.countInstructions() + turns * size <= FUNCTION_SIZE) {
+                unrollFully(loop, (int) turns);
+                fullyUnrolled++;
+            }
+            else if (factor > 1 && (turns == -1 || turns > factor) && factor * size <= scale * UNROLLED_SIZE &&
+                    function.countInstructions() + factor * size <= FUNCTION_SIZE) {
+                unroll(loop);
+                unrolled++;
+            }
+        }
+        return fullyUnrolled + unrolled;
+    }
+
+    // copies of the body for the turns before the last go in front of it, the body itself is the last turn
+    private void unrollFully(CountedLoop loop, int turns) {
+        BasicBlock block = loop.getBlock();
+        ArrayList<Instruction> body = getBody(block);
+        HashMap<Instruction, Instruction> values = getStarts(block);
+        ArrayList<Instruction> copies = new ArrayList<>();
+        for (int i = 1; i < turns; i++)
+            values = copyTurn(block, body, values, copies);
+        for (int i = 0; i < copies.size(); i++)
+            block.add(i, copies.get(i));
+        for (Instruction phi : new ArrayList<>(block.getPhis())) {
+            block.remove(phi);
+            function.replaceAllUses(phi, values.get(phi));
+        }
+
+        block.remove(block.getTerminator());
+        block.getPredecessors().remove(block);
+        Instruction jump = function.create(Operation.JUMP, null);
+        jump.addTarget(loop.getExit());
+        block.add(jump);
+    }
+
+    private void unroll(CountedLoop loop) {
+        BasicBlock block = loop.getBlock();
+        BasicBlock preheader = loop.getPreheader();
+        BasicBlock guard = function.newBlock();
+        BasicBlock body = function.newBlock();
+        BasicBlock rest = function.newBlock();
+        Instruction zero = function.constant(new IntType(), 0);
+        Instruction one = function.constant(new IntType(), 1);
+
+        ArrayList<BasicBlock> targets = preheader.getTerminator().getTargets();
+        targets.set(targets.indexOf(block), guard);
+        guard.getPredecessors().add(preheader);
+        block.replacePredecessor(preheader, rest);
+
+        Instruction trip = add(guard, Operation.SUB, loop.getBound(), loop.getStart());
+        Instruction rounds = add(guard, Operation.USHR, add(guard, Operation.SUB, trip, one),
+                function.constant(new IntType(), Integer.numberOfTrailingZeros(factor)));
+        branch(guard, add(guard, Operation.GREATER, rounds, zero), body, rest);
+
+        // the phis of the unrolled loop and of rest take the start values from the guard
+        HashMap<Instruction, Instruction> loopPhis = new HashMap<>();
+        HashMap<Instruction, Instruction> restPhis = new HashMap<>();
+        HashMap<Instruction, Instruction> values = new HashMap<>();
+        for (Instruction phi : block.getPhis()) {
+            loopPhis.put(phi, addPhi(body, phi, phi.getOperand(0)));
+            restPhis.put(phi, addPhi(rest, phi, phi.getOperand(0)));
+            values.put(phi, loopPhis.get(phi));
+        }
+        Instruction counter = function.create(Operation.PHI, new IntType());
+        counter.setName("rounds");
+        counter.addOperand(rounds);
+        body.addPhi(counter);
+
+        ArrayList<Instruction> original = getBody(block);
+        ArrayList<Instruction> copies = new ArrayList<>();
+        for (int i = 0; i < factor; i++)
+            values = copyTurn(block, original, values, copies);
+        for (Instruction copy : copies)
+            body.add(copy);
+        Instruction left = add(body, Operation.SUB, counter, one);
+        counter.addOperand(left);
+        branch(body, add(body, Operation.GREATER, left, zero), body, rest);
+        for (Instruction phi : block.getPhis()) {
+            loopPhis.get(phi).addOperand(values.get(phi));
+            restPhis.get(phi).addOperand(values.get(phi));
+            phi.setOperand(0, restPhis.get(phi));
+        }
+
+        Instruction jump = add(rest, Operation.JUMP);
+        jump.addTarget(block);
+    }
+
+    // the instructions of one turn, without the branch back
+    private static ArrayList<Instruction> getBody(BasicBlock block) {
+        ArrayList<Instruction> body = new ArrayList<>(block.getInstructions());
+        body.remove(block.getTerminator());
+        return body;
+    }
+
+    // what the phis of the loop hold in its first turn
+    private static HashMap<Instruction, Instruction> getStarts(BasicBlock block) {
+        HashMap<Instruction, Instruction> values = new HashMap<>();
+        for (Instruction phi : block.getPhis())
+            values.put(phi, phi.getOperand(0));
+        return values;
+    }
+
+    // adds a copy of one turn, with the phis of the loop holding values, to copies and returns what the phis
+    // hold in the turn after
+    private HashMap<Instruction, Instruction> copyTurn(BasicBlock block, ArrayList<Instruction> body,
+                                                       HashMap<Instruction, Instruction> values,
+                                                       ArrayList<Instruction> copies) {
+        HashMap<Instruction, Instruction> copied = new HashMap<>(values);
+        for (Instruction instruction : body) {
+            Instruction copy = function.create(instruction.getOperation(), instruction.getType());
+            for (Instruction operand : instruction.getOperands())
+                copy.addOperand(copied.getOrDefault(operand, operand));
+            copy.setConstant(instruction.getConstant());
+            copy.setIndex(instruction.getIndex());
+            copy.setName(instruction.getName());
+            copy.setMethod(instruction.getMethod());
+            copy.setStatic(instruction.isStatic());
+            copied.put(instruction, copy);
+            copies.add(copy);
+        }
+        HashMap<Instruction, Instruction> next = new HashMap<>();
+        for (Instruction phi : block.getPhis()) {
+            Instruction value = phi.getOperand(1);
+            next.put(phi, copied.getOrDefault(value, value));
+        }
+        return next;
+    }
+
+    private Instruction addPhi(BasicBlock block, Instruction phi, Instruction start) {
+        Instruction copy = function.create(Operation.PHI, phi.getType());
+        copy.setName(phi.getName());
+        copy.addOperand(start);
+        block.addPhi(copy);
+        return copy;
+    }
+
+    private Instruction add(BasicBlock block, Operation operation, Instruction... operands) {
+        Instruction instruction = function.create(operation, operation.isTerminator() ? null :
+                operation.isComparison() ? new BooleanType() : new IntType());
+        for (Instruction operand : operands)
+            instruction.addOperand(operand);
+        block.add(instruction);
+        return instruction;
+    }
+
+    private void branch(BasicBlock block, Instruction condition, BasicBlock ifTrue, BasicBlock ifFalse) {
+        Instruction branch = add(block, Operation.BRANCH, condition);
+        branch.addTarget(ifTrue);
+        branch.addTarget(ifFalse);
+        ifTrue.getPredecessors().add(block);
+        ifFalse.getPredecessors().add(block);
+    }
+}
@@ -0,0 +1,31 @@
+package ir;
+
+public enum Operation {
+    // values a method has before its first instruction runs
+    CONSTANT, PARAMETER, THIS, PHI,
+    ADD, SUB, MUL, DIV, SHL, SHR, USHR, NEG, NOT,
+    LESS, GREATER, EQUAL, NOT_EQUAL,
+    // == on strings, arrays and objects, which calls Object.equals on the left operand
+    EQUALS,
+    GET_FIELD, PUT_FIELD, ARRAY_LOAD, ARRAY_STORE, ARRAY_LENGTH, NEW_ARRAY, NEW_OBJECT,
+    CALL,
+    PRINT,
+    JUMP, BRANCH, RETURN;
+
+    public boolean isTerminator() {
+        return this == JUMP || this == BRANCH || this == RETURN;
+    }
+
+    public boolean isArithmetic() {
+        return this == ADD || this == SUB || this == MUL || this == DIV || this == SHL || this == SHR ||
+                this == USHR || this == NEG || this == NOT;
+    }
+
+    public boolean isComparison() {
+        return this == LESS || this == GREATER || this == EQUAL || this == NOT_EQUAL;
+    }
+
+    public boolean isCommutative() {
+        return this == ADD || this == MUL || this == EQUAL || this == NOT_EQUAL;
+    }
+}
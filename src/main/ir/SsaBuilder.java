@@ -0,0 +1,500 @@
+package ir;
+
+import ast.Type.PrimitiveType.BooleanType;
+import ast.Type.PrimitiveType.IntType;
+import ast.Type.PrimitiveType.StringType;
+import ast.Type.Type;
+import ast.Type.UserDefinedType.UserDefinedType;
+import ast.node.declaration.ClassDeclaration;
+import ast.node.declaration.MethodDeclaration;
+import ast.node.declaration.VarDeclaration;
+import ast.node.expression.*;
+import ast.node.expression.Value.BooleanValue;
+import ast.node.expression.Value.IntValue;
+import ast.node.expression.Value.ObjectValue;
+import ast.node.expression.Value.StringValue;
+import ast.node.statement.*;
+import profile.Profile;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+// lowers a method to ssa form in a single walk over its body: every block remembers the value each local
+// was last given in it, and a local read where control flow merges becomes a phi (Braun et al., "Simple and
+// Efficient Construction of Static Single Assignment Form"). a block is sealed once all of its predecessors
+// are known, phis asked for before that get their operands then
+public class SsaBuilder {
+    private HashMap<String, ClassDeclaration> classDecMap;
+    private Function function;
+    private MethodDeclaration method;
+    private HashMap<String, Type> locals = new HashMap<>();
+    private HashMap<BasicBlock, HashMap<String, Instruction>> definitions = new HashMap<>();
+    private HashMap<BasicBlock, LinkedHashMap<String, Instruction>> incompletePhis = new HashMap<>();
+    // trivial phis that were removed, and the value that took their place
+    private HashMap<Instruction, Instruction> replaced = new HashMap<>();
+    private HashSet<BasicBlock> sealed = new HashSet<>();
+    private BasicBlock current;
+    // where a tail call jumps back to, the arguments are phis there and the locals are zeroed again
+    private BasicBlock start;
+    private Set<Assign> tailCalls;
+    private Instruction thisValue;
+    private int conditions;
+    // what --profile-use read, null without it
+    private Profile profile;
+    // the target branches on the condition being lowered should have laid out after them, if the profile says
+    private BasicBlock likely;
+
+    public SsaBuilder(HashMap<String, ClassDeclaration> classDecMap) {
+        this.classDecMap = classDecMap;
+    }
+
+    public void setProfile(Profile profile) { this.profile = profile; }
+
+    // tailCalls are the assignments of a self call whose value the method returns right after, tailReturn
+    // whether the return value is such a call itself; both become jumps back to the start of the method
+    public Function build(ClassDeclaration classDec, MethodDeclaration method, Set<Assign> tailCalls,
+                          boolean tailReturn) {
+        this.method = method;
+        this.tailCalls = tailCalls;
+        function = new Function(classDec.getName().getName(), method);
+        locals.clear();
+        definitions.clear();
+        incompletePhis.clear();
+        replaced.clear();
+        sealed.clear();
+        thisValue = null;
+        conditions = 0;
+
+        BasicBlock entry = function.getEntry();
+        seal(entry);
+        current = entry;
+        if (!method.isStatic()) {
+            UserDefinedType type = new UserDefinedType();
+            type.setClassDeclaration(classDec);
+            type.setName(classDec.getName());
+            thisValue = add(Operation.THIS, type);
+        }
+        for (int i = 0; i < method.getArgs().size(); i++) {
+            VarDeclaration arg = method.getArgs().get(i);
+            String name = arg.getIdentifier().getName();
+            locals.put(name, arg.getType());
+            Instruction parameter = add(Operation.PARAMETER, arg.getType());
+            parameter.setIndex(i);
+            parameter.setName(name);
+            write(name, entry, parameter);
+        }
+        start = null;
+        if (tailReturn || !tailCalls.isEmpty()) {
+            start = function.newBlock();
+            jump(start);
+            current = start;
+        }
+        for (VarDeclaration var : method.getLocalVars()) {
+            locals.put(var.getIdentifier().getName(), var.getType());
+            write(var.getIdentifier().getName(), current, zero(var.getType()));
+        }
+
+        for (Statement statement : method.getBody())
+            lower(statement);
+        if (tailReturn)
+            tailCall(((MethodCall) method.getReturnValue()).getArgs());
+        else
+            terminate(add(Operation.RETURN, null, lower(method.getReturnValue())));
+        if (start != null)
+            seal(start);
+        function.removeUnreachableBlocks();
+        return function;
+    }
+
+    private Instruction add(Operation operation, Type type, Instruction... operands) {
+        Instruction instruction = function.create(operation, type);
+        for (Instruction operand : operands)
+            instruction.addOperand(operand);
+        current.add(instruction);
+        return instruction;
+    }
+
+    // code after a terminator goes to a block nothing jumps to, it is dropped once the function is built
+    private void terminate(Instruction terminator) {
+        if (!isDead(current)) {
+            for (BasicBlock target : terminator.getTargets())
+                target.getPredecessors().add(current);
+        }
+        current = function.newBlock();
+        seal(current);
+    }
+
+    private boolean isDead(BasicBlock block) {
+        return block != function.getEntry() && sealed.contains(block) && block.getPredecessors().isEmpty();
+    }
+
+    private void jump(BasicBlock target) {
+        Instruction jump = add(Operation.JUMP, null);
+        jump.addTarget(target);
+        terminate(jump);
+    }
+
+    // every argument is evaluated before any of them is given its new value
+    private void tailCall(ArrayList<Expression> args) {
+        ArrayList<Instruction> values = new ArrayList<>();
+        for (Expression arg : args)
+            values.add(lower(arg));
+        for (int i = 0; i < values.size(); i++)
+            write(method.getArgs().get(i).getIdentifier().getName(), current, values.get(i));
+        jump(start);
+    }
+
+    private void lower(Statement statement) {
+        if (statement instanceof Block) {
+            for (Statement inner : ((Block) statement).getBody())
+                lower(inner);
+        }
+        else if (statement instanceof Assign) {
+            Assign assign = (Assign) statement;
+            if (tailCalls.contains(assign))
+                tailCall(((MethodCall) assign.getrValue()).getArgs());
+            else if (assign.getlValue() != null)
+                assign(assign.getlValue(), assign.getrValue());
+        }
+        else if (statement instanceof Conditional) {
+            Conditional conditional = (Conditional) statement;
+            BasicBlock consequence = function.newBlock();
+            BasicBlock alternative = conditional.getAlternativeBody() == null ? null : function.newBlock();
+            BasicBlock join = function.newBlock();
+            // the arm that ran more often goes right after the test
+            if (getCount(Profile.ELSE, conditional) > getCount(Profile.THEN, conditional))
+                likely = alternative == null ? join : alternative;
+            branch(conditional.getExpression(), consequence, alternative == null ? join : alternative);
+            likely = null;
+            seal(consequence);
+            current = consequence;
+            lower(conditional.getConsequenceBody());
+            jump(join);
+            if (alternative != null) {
+                seal(alternative);
+                current = alternative;
+                lower(conditional.getAlternativeBody());
+                jump(join);
+            }
+            seal(join);
+            current = join;
+        }
+        else if (statement instanceof While) {
+            // the condition is tested once before the loop and again at the end of the body, so an iteration
+            // takes a single branch
+            While loop = (While) statement;
+            BasicBlock body = function.newBlock();
+            BasicBlock exit = function.newBlock();
+            body.setRuns(getCount(Profile.LOOP, loop));
+            branch(loop.getCondition(), body, exit);
+            current = body;
+            lower(loop.getBody());
+            branch(loop.getCondition(), body, exit);
+            seal(body);
+            seal(exit);
+            current = exit;
+        }
+        else if (statement instanceof Write) {
+            Write write = (Write) statement;
+            Instruction print = add(Operation.PRINT, null, lower(write.getArg()));
+            print.setName(write.getArg().getType().getTypeCode());
+        }
+        else if (statement instanceof MethodCallInMain) {
+            MethodCallInMain methodCall = (MethodCallInMain) statement;
+            call(methodCall.getInstance(), methodCall.getMethodName(), methodCall.getArgs(), methodCall.getTarget());
+        }
+        else
+            throw new IllegalArgumentException("can not lower " + statement);
+    }
+
+    // goes to ifTrue when condition holds and to ifFalse otherwise, && and || only add blocks
+    private void branch(Expression condition, BasicBlock ifTrue, BasicBlock ifFalse) {
+        if (condition instanceof BooleanValue) {
+            jump(((BooleanValue) condition).isConstant() ? ifTrue : ifFalse);
+            return;
+        }
+        if (condition instanceof UnaryExpression &&
+                ((UnaryExpression) condition).getUnaryOperator() == UnaryOperator.not) {
+            branch(((UnaryExpression) condition).getValue(), ifFalse, ifTrue);
+            return;
+        }
+        if (condition instanceof BinaryExpression) {
+            BinaryExpression binaryExpression = (BinaryExpression) condition;
+            BinaryOperator op = binaryExpression.getBinaryOperator();
+            if (op == BinaryOperator.and || op == BinaryOperator.or) {
+                BasicBlock right = function.newBlock();
+                if (op == BinaryOperator.and)
+                    branch(binaryExpression.getLeft(), right, ifFalse);
+                else
+                    branch(binaryExpression.getLeft(), ifTrue, right);
+                seal(right);
+                current = right;
+                branch(binaryExpression.getRight(), ifTrue, ifFalse);
+                return;
+            }
+        }
+        Instruction branch = add(Operation.BRANCH, null, lower(condition));
+        branch.addTarget(ifTrue);
+        branch.addTarget(ifFalse);
+        if (likely != null && likely == ifFalse)
+            branch.setLikelyTarget(1);
+        terminate(branch);
+    }
+
+    // how many times the profile saw a site of the method run, -1 without one
+    private long getCount(String kind, Statement statement) {
+        if (profile == null)
+            return -1;
+        return profile.getCount(kind, function.getClassName(), method.getName().getName(), statement.getLine());
+    }
+
+    // a condition used as a value is a phi of true and false after branching on it
+    private Instruction materialize(Expression condition) {
+        String name = "$cond" + conditions++;
+        locals.put(name, new BooleanType());
+        BasicBlock ifTrue = function.newBlock();
+        BasicBlock ifFalse = function.newBlock();
+        BasicBlock join = function.newBlock();
+        branch(condition, ifTrue, ifFalse);
+        seal(ifTrue);
+        seal(ifFalse);
+        current = ifTrue;
+        write(name, current, function.constant(new BooleanType(), 1));
+        jump(join);
+        current = ifFalse;
+        write(name, current, function.constant(new BooleanType(), 0));
+        jump(join);
+        seal(join);
+        current = join;
+        return read(name, join);
+    }
+
+    private Instruction assign(Expression lvalue, Expression rvalue) {
+        if (lvalue instanceof ArrayCall) {
+            ArrayCall arrayCall = (ArrayCall) lvalue;
+            Instruction array = lower(arrayCall.getInstance());
+            Instruction index = lower(arrayCall.getIndex());
+            Instruction value = lower(rvalue);
+            add(Operation.ARRAY_STORE, null, array, index, value);
+            return value;
+        }
+        String name = ((Identifier) lvalue).getName();
+        Instruction value = lower(rvalue);
+        if (locals.containsKey(name))
+            write(name, current, value);
+        else
+            add(Operation.PUT_FIELD, null, thisValue, value).setName(getField(name, lvalue.getType()));
+        return value;
+    }
+
+    private String getField(String name, Type type) {
+        return function.getClassName() + "/" + name + " " + type.getTypeCode();
+    }
+
+    private Instruction lower(Expression expression) {
+        if (expression instanceof IntValue)
+            return function.constant(expression.getType(), ((IntValue) expression).getConstant());
+        if (expression instanceof BooleanValue)
+            return function.constant(expression.getType(), ((BooleanValue) expression).isConstant() ? 1 : 0);
+        if (expression instanceof StringValue)
+            return function.constant(expression.getType(), ((StringValue) expression).getConstant());
+        if (expression instanceof ObjectValue)
+            return function.constant(expression.getType(), null);
+        if (expression instanceof This) {
+            if (thisValue == null)
+                throw new IllegalStateException(function.getName() + " is static but uses this");
+            return thisValue;
+        }
+        if (expression instanceof Identifier) {
+            String name = ((Identifier) expression).getName();
+            if (locals.containsKey(name))
+                return read(name, current);
+            Instruction field = add(Operation.GET_FIELD, expression.getType(), thisValue);
+            field.setName(getField(name, expression.getType()));
+            return field;
+        }
+        if (expression instanceof BinaryExpression)
+            return lower((BinaryExpression) expression);
+        if (expression instanceof UnaryExpression) {
+            UnaryExpression unaryExpression = (UnaryExpression) expression;
+            Operation operation = unaryExpression.getUnaryOperator() == UnaryOperator.minus ? Operation.NEG :
+                    Operation.NOT;
+            return add(operation, expression.getType(), lower(unaryExpression.getValue()));
+        }
+        if (expression instanceof ArrayCall) {
+            ArrayCall arrayCall = (ArrayCall) expression;
+            Instruction array = lower(arrayCall.getInstance());
+            return add(Operation.ARRAY_LOAD, expression.getType(), array, lower(arrayCall.getIndex()));
+        }
+        if (expression instanceof Length)
+            return add(Operation.ARRAY_LENGTH, expression.getType(), lower(((Length) expression).getExpression()));
+        if (expression instanceof MethodCall) {
+            MethodCall methodCall = (MethodCall) expression;
+            return call(methodCall.getInstance(), methodCall.getMethodName(), methodCall.getArgs(),
+                    methodCall.getTarget());
+        }
+        if (expression instanceof NewArray)
+            return add(Operation.NEW_ARRAY, expression.getType(), lower(((NewArray) expression).getExpression()));
+        if (expression instanceof NewClass) {
+            Instruction object = add(Operation.NEW_OBJECT, expression.getType());
+            object.setName(((NewClass) expression).getClassName().getName());
+            return object;
+        }
+        throw new IllegalArgumentException("can not lower " + expression);
+    }
+
+    private Instruction lower(BinaryExpression expression) {
+        BinaryOperator op = expression.getBinaryOperator();
+        if (op == BinaryOperator.assign)
+            return assign(expression.getLeft(), expression.getRight());
+        if (op == BinaryOperator.and || op == BinaryOperator.or)
+            return materialize(expression);
+        Instruction left = lower(expression.getLeft());
+        Instruction right = lower(expression.getRight());
+        Type type = expression.getType();
+        switch (op) {
+            case add:
+                return add(Operation.ADD, type, left, right);
+            case sub:
+                return add(Operation.SUB, type, left, right);
+            case mult:
+                return add(Operation.MUL, type, left, right);
+            case div:
+                return add(Operation.DIV, type, left, right);
+            case shl:
+                return add(Operation.SHL, type, left, right);
+            case shr:
+                return add(Operation.SHR, type, left, right);
+            case ushr:
+                return add(Operation.USHR, type, left, right);
+            case lt:
+                return add(Operation.LESS, type, left, right);
+            case gt:
+                return add(Operation.GREATER, type, left, right);
+            default:
+                break;
+        }
+        if (isIntLike(expression.getLeft().getType()))
+            return add(op == BinaryOperator.eq ? Operation.EQUAL : Operation.NOT_EQUAL, type, left, right);
+        Instruction equals = add(Operation.EQUALS, type, left, right);
+        return op == BinaryOperator.eq ? equals : add(Operation.NOT, type, equals);
+    }
+
+    private Instruction call(Expression instance, Identifier methodName, ArrayList<Expression> args,
+                             MethodDeclaration target) {
+        MethodDeclaration callee = resolveMethod(instance, methodName, target);
+        Instruction call = function.create(Operation.CALL, callee.getReturnType());
+        if (!callee.isStatic())
+            call.addOperand(lower(instance));
+        for (Expression arg : args)
+            call.addOperand(lower(arg));
+        call.setName(instance.getType().toString() + "/" + callee.getInvokationCode());
+        call.setMethod(callee);
+        call.setStatic(callee.isStatic());
+        current.add(call);
+        return call;
+    }
+
+    private MethodDeclaration resolveMethod(Expression instance, Identifier methodName, MethodDeclaration target) {
+        ClassDeclaration classDec = classDecMap.get(instance.getType().toString());
+        while (target == null && classDec != null) {
+            if (classDec.containsMethod(methodName))
+                return classDec.getMethodDeclaration(methodName);
+            classDec = classDecMap.get(classDec.getParentName().getName());
+        }
+        return target;
+    }
+
+    public static boolean isIntLike(Type type) {
+        return type instanceof IntType || type instanceof BooleanType;
+    }
+
+    // what a local starts with, the generator zeroes ints, booleans and strings and leaves the rest null
+    private Instruction zero(Type type) {
+        if (isIntLike(type))
+            return function.constant(type, 0);
+        if (type instanceof StringType)
+            return function.constant(type, "\"\"");
+        return function.constant(type, null);
+    }
+
+    private void write(String name, BasicBlock block, Instruction value) {
+        definitions.computeIfAbsent(block, k -> new HashMap<>()).put(name, value);
+    }
+
+    private Instruction read(String name, BasicBlock block) {
+        HashMap<String, Instruction> values = definitions.get(block);
+        if (values != null && values.containsKey(name))
+            return resolve(values.get(name));
+        Instruction value;
+        if (!sealed.contains(block)) {
+            value = newPhi(name, block);
+            incompletePhis.computeIfAbsent(block, k -> new LinkedHashMap<>()).put(name, value);
+        }
+        else if (block.getPredecessors().size() == 1)
+            value = read(name, block.getPredecessors().get(0));
+        else {
+            Instruction phi = newPhi(name, block);
+            write(name, block, phi);
+            value = addPhiOperands(name, phi);
+        }
+        write(name, block, value);
+        return value;
+    }
+
+    private Instruction resolve(Instruction value) {
+        while (replaced.containsKey(value))
+            value = replaced.get(value);
+        return value;
+    }
+
+    private Instruction newPhi(String name, BasicBlock block) {
+        Instruction phi = function.create(Operation.PHI, locals.get(name));
+        phi.setName(name);
+        block.addPhi(phi);
+        return phi;
+    }
+
+    private Instruction addPhiOperands(String name, Instruction phi) {
+        for (BasicBlock pred : phi.getBlock().getPredecessors())
+            phi.addOperand(read(name, pred));
+        return removeTrivialPhi(phi);
+    }
+
+    // a phi that only merges one value with itself is that value
+    private Instruction removeTrivialPhi(Instruction phi) {
+        Instruction same = null;
+        for (Instruction operand : phi.getOperands()) {
+            if (operand == same || operand == phi)
+                continue;
+            if (same != null)
+                return phi;
+            same = operand;
+        }
+        if (same == null)
+            // only reachable from itself, or not at all
+            same = zero(phi.getType());
+        ArrayList<Instruction> users = function.getUsers().getOrDefault(phi, new ArrayList<>());
+        phi.getBlock().remove(phi);
+        function.replaceAllUses(phi, same);
+        replaced.put(phi, same);
+        for (Instruction user : users) {
+            if (user != phi && user.getOperation() == Operation.PHI && user.getBlock() != null)
+                removeTrivialPhi(user);
+        }
+        // removing the users may have removed the value as well
+        return resolve(same);
+    }
+
+    private void seal(BasicBlock block) {
+        LinkedHashMap<String, Instruction> phis = incompletePhis.remove(block);
+        if (phis != null) {
+            for (String name : phis.keySet())
+                addPhiOperands(name, phis.get(name));
+        }
+        sealed.add(block);
+    }
+}
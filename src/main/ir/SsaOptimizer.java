@@ -0,0 +1,96 @@
+package ir;
+
+import profile.Profile;
+
+// runs the passes on the ssa form of one method, the verifier checks the function before and after each of them.
+// a method the profile never saw called only gets the passes that make it smaller
+public class SsaOptimizer {
+    private boolean optimizationReport = false;
+    private Profile profile;
+    // whether a method calls into the runtime class since it was made, the class is only written out then
+    private boolean runtimeUsed = false;
+    private int unrollFactor = 4;
+
+    public void setOptimizationReport(boolean optimizationReport) { this.optimizationReport = optimizationReport; }
+
+    public void setUnrollFactor(int unrollFactor) { this.unrollFactor = unrollFactor; }
+
+    public void setProfile(Profile profile) { this.profile = profile; }
+
+    public boolean isRuntimeUsed() { return runtimeUsed; }
+
+    public void optimize(Function function) {
+        Verifier.verify(function);
+        CopyPropagator copyPropagator = new CopyPropagator();
+        int copies = copyPropagator.run(function);
+        Verifier.verify(function);
+
+        ConstantPropagator constantPropagator = new ConstantPropagator();
+        constantPropagator.run(function);
+        int foldedValues = constantPropagator.getFoldedValues();
+        int foldedBranches = constantPropagator.getFoldedBranches();
+        Verifier.verify(function);
+        copies += copyPropagator.run(function);
+        Verifier.verify(function);
+
+        boolean cold = profile != null && profile.isCold(function.getClassName(),
+                function.getMethod().getName().getName(), function.getMethod().getLine());
+        ValueNumbering valueNumbering = new ValueNumbering();
+        LoadEliminator loadEliminator = new LoadEliminator();
+        IdiomRecognizer idioms = new IdiomRecognizer();
+        LoopUnroller unroller = new LoopUnroller(unrollFactor);
+        unroller.setProfile(profile);
+        int redundant = 0;
+        int loads = 0;
+        if (!cold) {
+            redundant += valueNumbering.run(function);
+            Verifier.verify(function);
+            loads += loadEliminator.run(function);
+            Verifier.verify(function);
+            // values computed from the loads that were removed may now be the same as well
+            if (loads != 0) {
+                redundant += valueNumbering.run(function);
+                Verifier.verify(function);
+            }
+            if (idioms.run(function) != 0) {
+                runtimeUsed = true;
+                Verifier.verify(function);
+            }
+        }
+        // the copies of an unrolled body share a lot, and the guard in front of them folds when the loop's trip
+        // count is known
+        if (!cold && unroller.run(function) != 0) {
+            Verifier.verify(function);
+            constantPropagator.run(function);
+            foldedValues += constantPropagator.getFoldedValues();
+            foldedBranches += constantPropagator.getFoldedBranches();
+            Verifier.verify(function);
+            copies += copyPropagator.run(function);
+            redundant += valueNumbering.run(function);
+            Verifier.verify(function);
+            loads += loadEliminator.run(function);
+            Verifier.verify(function);
+        }
+        copies += copyPropagator.run(function);
+        int dead = new DeadValueEliminator().run(function);
+        Verifier.verify(function);
+
+        report("profile", function, cold, "never ran in the profile, only passes that shrink it ran");
+        report("sccp", function, foldedValues != 0 || foldedBranches != 0, "folded " + foldedValues +
+                " values and " + foldedBranches + " branches");
+        report("gvn", function, redundant != 0, "removed " + redundant + " redundant values");
+        report("cse", function, loads != 0, "removed " + loads + " redundant loads");
+        report("idioms", function, idioms.getCopies() + idioms.getFills() + idioms.getSums() != 0, "replaced " +
+                idioms.getCopies() + " copy, " + idioms.getFills() + " fill and " + idioms.getSums() + " sum loops");
+        report("unrolling", function, unroller.getFullyUnrolled() + unroller.getUnrolled() != 0, "unrolled " +
+                unroller.getFullyUnrolled() + " loops fully and " + unroller.getUnrolled() + " by " +
+                unroller.getFactor());
+        report("copy propagation", function, copies != 0, "removed " + copies + " copies");
+        report("ssa dce", function, dead != 0, "removed " + dead + " unused values");
+    }
+
+    private void report(String pass, Function function, boolean changed, String message) {
+        if (optimizationReport && changed)
+            System.out.println(pass + ": " + function.getName() + " " + message);
+    }
+}
@@ -0,0 +1,517 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+
+// turns a function back into jasmin stack code. a value used once, by an instruction that follows it in the same
+// block with nothing in between that was not computed for that instruction too, stays on the operand stack;
+// every other value gets a local. a phi is given its value by copies at the end of each predecessor, all pushed
+// before any is stored so that no copy overwrites what another still reads, and shares its local with an operand
+// whenever the two are never live at the same time, which takes the copy away
+public class StackCodeGenerator {
+    private Function function;
+    private ArrayList<String> code = new ArrayList<>();
+    private HashMap<Instruction, Integer> useCounts = new HashMap<>();
+    private HashSet<Instruction> inlined = new HashSet<>();
+    // the values that need a local, numbered densely for the bit sets of the liveness analysis
+    private ArrayList<Instruction> values = new ArrayList<>();
+    private HashMap<Instruction, Integer> numbers = new HashMap<>();
+    private BitSet[] interference;
+    // values that share a local form a class, kept as a union-find forest over the numbers
+    private int[] parents;
+    private HashMap<Integer, Integer> slots = new HashMap<>();
+    private int labelIndex = 0;
+    // set once the method prints, which goes through the runtime class
+    private boolean runtimeUsed = false;
+
+    public boolean isRuntimeUsed() {
+        return runtimeUsed;
+    }
+
+    // the .var directives of the locals it uses followed by the code of the method
+    public ArrayList<String> generate(Function function) {
+        this.function = function;
+        splitCriticalEdges();
+        ArrayList<BasicBlock> order = function.reversePostorder();
+        HashMap<Instruction, ArrayList<Instruction>> users = function.getUsers();
+        for (Instruction value : users.keySet())
+            useCounts.put(value, users.get(value).size());
+        for (BasicBlock block : order)
+            chooseInlined(block);
+        for (BasicBlock block : order) {
+            for (Instruction phi : block.getPhis())
+                addValue(phi);
+            for (Instruction instruction : block.getInstructions()) {
+                if (needsLocal(instruction))
+                    addValue(instruction);
+            }
+        }
+        computeInterference(order);
+        coalesce(order);
+        ArrayList<String> lines = assignSlots();
+
+        for (int i = 0; i < order.size(); i++) {
+            BasicBlock block = order.get(i);
+            BasicBlock next = i + 1 < order.size() ? order.get(i + 1) : null;
+            code.add(getLabel(block) + " :");
+            for (Instruction instruction : block.getInstructions()) {
+                if (isFree(instruction) || instruction.getOperation() == Operation.PARAMETER ||
+                        inlined.contains(instruction))
+                    continue;
+                if (instruction.getOperation().isTerminator()) {
+                    generateTerminator(instruction, next);
+                    continue;
+                }
+                generateValue(instruction);
+                if (numbers.containsKey(instruction))
+                    store(instruction);
+                else if (instruction.hasValue())
+                    code.add("pop");
+            }
+        }
+        lines.addAll(code);
+        return lines;
+    }
+
+    // an edge from a block with several successors into one with phis gets a block of its own for the copies
+    private void splitCriticalEdges() {
+        for (BasicBlock block : new ArrayList<>(function.getBlocks())) {
+            ArrayList<BasicBlock> successors = block.getSuccessors();
+            if (successors.size() < 2)
+                continue;
+            for (int i = 0; i < successors.size(); i++) {
+                BasicBlock successor = successors.get(i);
+                if (successor.getPredecessors().size() < 2 || successor.getPhis().isEmpty())
+                    continue;
+                BasicBlock split = function.newBlock();
+                Instruction jump = function.create(Operation.JUMP, null);
+                jump.addTarget(successor);
+                split.add(jump);
+                split.getPredecessors().add(block);
+                successors.set(i, split);
+                successor.replacePredecessor(block, split);
+            }
+        }
+    }
+
+    // constants and this are pushed where they are used
+    private static boolean isFree(Instruction instruction) {
+        return instruction.getOperation() == Operation.CONSTANT || instruction.getOperation() == Operation.THIS;
+    }
+
+    private boolean needsLocal(Instruction instruction) {
+        if (!instruction.hasValue() || isFree(instruction) || inlined.contains(instruction))
+            return false;
+        return instruction.getOperation() == Operation.PARAMETER || useCounts.getOrDefault(instruction, 0) > 0;
+    }
+
+    private void addValue(Instruction value) {
+        numbers.put(value, values.size());
+        values.add(value);
+    }
+
+    // walks the block backwards, an operand computed right before the instruction, or right before the operands
+    // after it that were computed for it, is evaluated as part of it
+    private void chooseInlined(BasicBlock block) {
+        ArrayList<Instruction> sequence = new ArrayList<>();
+        for (Instruction instruction : block.getInstructions()) {
+            if (!isFree(instruction) && instruction.getOperation() != Operation.PARAMETER)
+                sequence.add(instruction);
+        }
+        for (int i = sequence.size() - 1; i >= 0; i--) {
+            if (!inlined.contains(sequence.get(i)))
+                inlineOperands(sequence, i);
+        }
+    }
+
+    // returns where the code of the instruction at position starts
+    private int inlineOperands(ArrayList<Instruction> sequence, int position) {
+        Instruction instruction = sequence.get(position);
+        int start = position;
+        for (int i = instruction.getOperands().size() - 1; i >= 0; i--) {
+            Instruction operand = instruction.getOperand(i);
+            if (start > 0 && sequence.get(start - 1) == operand && operand.hasValue() &&
+                    useCounts.getOrDefault(operand, 0) == 1) {
+                inlined.add(operand);
+                start = inlineOperands(sequence, start - 1);
+            }
+        }
+        return start;
+    }
+
+    // the values an instruction reads from locals, through the operands evaluated as part of it
+    private void addUses(Instruction instruction, BitSet live) {
+        for (Instruction operand : instruction.getOperands()) {
+            if (inlined.contains(operand))
+                addUses(operand, live);
+            else if (numbers.containsKey(operand))
+                live.set(numbers.get(operand));
+        }
+    }
+
+    // values are live from where they are stored to their last load, the operands of a phi at the end of the
+    // predecessor they come from. two values interfere when one is live where the other is defined
+    private void computeInterference(ArrayList<BasicBlock> order) {
+        HashMap<BasicBlock, BitSet> liveIn = new HashMap<>();
+        for (BasicBlock block : order)
+            liveIn.put(block, new BitSet());
+        interference = new BitSet[values.size()];
+        for (int i = 0; i < values.size(); i++)
+            interference[i] = new BitSet();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = order.size() - 1; i >= 0; i--) {
+                BitSet live = walk(order.get(i), liveIn, false);
+                if (!live.equals(liveIn.get(order.get(i)))) {
+                    liveIn.put(order.get(i), live);
+                    changed = true;
+                }
+            }
+        }
+        for (BasicBlock block : order)
+            walk(block, liveIn, true);
+    }
+
+    private BitSet walk(BasicBlock block, HashMap<BasicBlock, BitSet> liveIn, boolean interfere) {
+        BitSet live = new BitSet();
+        for (BasicBlock successor : block.getSuccessors()) {
+            BitSet in = (BitSet) liveIn.get(successor).clone();
+            int index = successor.getPredecessors().indexOf(block);
+            for (Instruction phi : successor.getPhis()) {
+                in.clear(numbers.get(phi));
+                Instruction operand = phi.getOperand(index);
+                if (numbers.containsKey(operand))
+                    in.set(numbers.get(operand));
+            }
+            live.or(in);
+        }
+        ArrayList<Instruction> instructions = block.getInstructions();
+        for (int i = instructions.size() - 1; i >= 0; i--) {
+            Instruction instruction = instructions.get(i);
+            if (inlined.contains(instruction) || isFree(instruction))
+                continue;
+            if (numbers.containsKey(instruction)) {
+                int number = numbers.get(instruction);
+                live.clear(number);
+                if (interfere)
+                    addInterference(number, live);
+            }
+            addUses(instruction, live);
+        }
+        BitSet phis = new BitSet();
+        for (Instruction phi : block.getPhis())
+            phis.set(numbers.get(phi));
+        live.andNot(phis);
+        if (interfere) {
+            for (Instruction phi : block.getPhis()) {
+                int number = numbers.get(phi);
+                addInterference(number, live);
+                BitSet others = (BitSet) phis.clone();
+                others.clear(number);
+                addInterference(number, others);
+            }
+        }
+        return live;
+    }
+
+    private void addInterference(int number, BitSet live) {
+        for (int other = live.nextSetBit(0); other != -1; other = live.nextSetBit(other + 1)) {
+            if (other == number)
+                continue;
+            interference[number].set(other);
+            interference[other].set(number);
+        }
+    }
+
+    private int find(int number) {
+        while (parents[number] != number)
+            number = parents[number] = parents[parents[number]];
+        return number;
+    }
+
+    // int and boolean values can share a local, references only with the same declared type
+    private static String getKind(Instruction value) {
+        return SsaBuilder.isIntLike(value.getType()) ? "I" : value.getType().getTypeCode();
+    }
+
+    private void coalesce(ArrayList<BasicBlock> order) {
+        parents = new int[values.size()];
+        BitSet[] members = new BitSet[values.size()];
+        BitSet[] conflicts = new BitSet[values.size()];
+        boolean[] hasParameter = new boolean[values.size()];
+        for (int i = 0; i < values.size(); i++) {
+            parents[i] = i;
+            members[i] = new BitSet();
+            members[i].set(i);
+            conflicts[i] = (BitSet) interference[i].clone();
+            hasParameter[i] = values.get(i).getOperation() == Operation.PARAMETER;
+        }
+        for (BasicBlock block : order) {
+            for (Instruction phi : block.getPhis()) {
+                for (Instruction operand : phi.getOperands()) {
+                    if (!numbers.containsKey(operand))
+                        continue;
+                    int a = find(numbers.get(phi));
+                    int b = find(numbers.get(operand));
+                    if (a == b || !getKind(values.get(a)).equals(getKind(values.get(b))) ||
+                            (hasParameter[a] && hasParameter[b]) || conflicts[a].intersects(members[b]))
+                        continue;
+                    // a class with an argument keeps the argument's slot
+                    if (hasParameter[b]) {
+                        int swap = a;
+                        a = b;
+                        b = swap;
+                    }
+                    parents[b] = a;
+                    members[a].or(members[b]);
+                    conflicts[a].or(conflicts[b]);
+                }
+            }
+        }
+    }
+
+    // returns the .var directives of the new locals
+    private ArrayList<String> assignSlots() {
+        ArrayList<String> directives = new ArrayList<>();
+        int firstArgument = function.getMethod().getFirstVariableIndex();
+        int next = firstArgument + function.getMethod().getArgs().size();
+        for (int i = 0; i < values.size(); i++) {
+            Instruction value = values.get(i);
+            int root = find(i);
+            if (value.getOperation() == Operation.PARAMETER)
+                slots.put(root, firstArgument + value.getIndex());
+        }
+        for (int i = 0; i < values.size(); i++) {
+            int root = find(i);
+            if (slots.containsKey(root))
+                continue;
+            Instruction value = values.get(root);
+            String name = value.getName() != null && value.getOperation() == Operation.PHI ?
+                    value.getName().replace("$", "") : value.toString();
+            directives.add(".var " + next + " is " + name + " " + value.getType().getTypeCode());
+            slots.put(root, next++);
+        }
+        return directives;
+    }
+
+    private int getSlot(Instruction value) {
+        return slots.get(find(numbers.get(value)));
+    }
+
+    private void load(Instruction value) {
+        code.add((SsaBuilder.isIntLike(value.getType()) ? "iload " : "aload ") + getSlot(value));
+    }
+
+    private void store(Instruction value) {
+        code.add((SsaBuilder.isIntLike(value.getType()) ? "istore " : "astore ") + getSlot(value));
+    }
+
+    private String getLabel(BasicBlock block) {
+        return "Block" + block.getId();
+    }
+
+    private String getFreshLabel() {
+        return "Label" + labelIndex++;
+    }
+
+    private void generateOperand(Instruction operand) {
+        if (operand.getOperation() == Operation.CONSTANT) {
+            Object constant = operand.getConstant();
+            code.add(constant == null ? "aconst_null" : "ldc " + constant);
+        }
+        else if (operand.getOperation() == Operation.THIS)
+            code.add("aload_0");
+        else if (inlined.contains(operand))
+            generateValue(operand);
+        else
+            load(operand);
+    }
+
+    private void generateOperands(Instruction instruction) {
+        for (Instruction operand : instruction.getOperands())
+            generateOperand(operand);
+    }
+
+    private void generateValue(Instruction instruction) {
+        switch (instruction.getOperation()) {
+            case ADD:
+            case SUB:
+            case MUL:
+            case DIV:
+            case SHL:
+            case SHR:
+            case USHR:
+                generateOperands(instruction);
+                code.add(getArithmeticInstruction(instruction.getOperation()));
+                break;
+            case NEG:
+                generateOperands(instruction);
+                code.add("ineg");
+                break;
+            case NOT:
+                generateOperands(instruction);
+                code.add("iconst_1");
+                code.add("ixor");
+                break;
+            case LESS:
+            case GREATER:
+            case EQUAL:
+            case NOT_EQUAL:
+                String ifTrue = getFreshLabel();
+                String after = getFreshLabel();
+                generateComparison(instruction, true, ifTrue);
+                code.add("iconst_0");
+                code.add("goto " + after);
+                code.add(ifTrue + " :");
+                code.add("iconst_1");
+                code.add(after + " :");
+                break;
+            case EQUALS:
+                generateOperands(instruction);
+                code.add("invokevirtual java/lang/Object/equals(Ljava/lang/Object;)Z");
+                break;
+            case GET_FIELD:
+                generateOperands(instruction);
+                code.add("getfield " + instruction.getName());
+                break;
+            case PUT_FIELD:
+                generateOperands(instruction);
+                code.add("putfield " + instruction.getName());
+                break;
+            case ARRAY_LOAD:
+                generateOperands(instruction);
+                code.add("iaload");
+                break;
+            case ARRAY_STORE:
+                generateOperands(instruction);
+                code.add("iastore");
+                break;
+            case ARRAY_LENGTH:
+                generateOperands(instruction);
+                code.add("arraylength");
+                break;
+            case NEW_ARRAY:
+                generateOperands(instruction);
+                code.add("newarray int");
+                break;
+            case NEW_OBJECT:
+                code.add("new " + instruction.getName());
+                code.add("dup");
+                code.add("invokespecial " + instruction.getName() + "/<init>()V");
+                break;
+            case CALL:
+                generateOperands(instruction);
+                code.add((instruction.isStatic() ? "invokestatic " : "invokevirtual ") + instruction.getName());
+                break;
+            case PRINT:
+                generateOperands(instruction);
+                code.add("invokestatic " + IdiomRecognizer.RUNTIME_CLASS + "/println(" + instruction.getName() + ")V");
+                runtimeUsed = true;
+                break;
+            default:
+                throw new IllegalStateException("no code for " + instruction.describe());
+        }
+    }
+
+    private static String getArithmeticInstruction(Operation operation) {
+        switch (operation) {
+            case ADD:
+                return "iadd";
+            case SUB:
+                return "isub";
+            case MUL:
+                return "imul";
+            case DIV:
+                return "idiv";
+            case SHL:
+                return "ishl";
+            case SHR:
+                return "ishr";
+            default:
+                return "iushr";
+        }
+    }
+
+    // pushes the operands of a comparison and jumps to target when it is jumpWhen
+    private void generateComparison(Instruction comparison, boolean jumpWhen, String target) {
+        String instruction;
+        switch (comparison.getOperation()) {
+            case LESS:
+                instruction = jumpWhen ? "if_icmplt" : "if_icmpge";
+                break;
+            case GREATER:
+                instruction = jumpWhen ? "if_icmpgt" : "if_icmple";
+                break;
+            case EQUAL:
+                instruction = jumpWhen ? "if_icmpeq" : "if_icmpne";
+                break;
+            default:
+                instruction = jumpWhen ? "if_icmpne" : "if_icmpeq";
+                break;
+        }
+        generateOperand(comparison.getOperand(0));
+        Instruction right = comparison.getOperand(1);
+        if (right.isIntConstant() && right.getIntConstant() == 0)
+            code.add(instruction.replace("if_icmp", "if") + " " + target);
+        else {
+            generateOperand(right);
+            code.add(instruction + " " + target);
+        }
+    }
+
+    private void generateTerminator(Instruction terminator, BasicBlock next) {
+        switch (terminator.getOperation()) {
+            case RETURN:
+                generateOperands(terminator);
+                code.add(function.getMethod().getReturnCode());
+                break;
+            case JUMP:
+                BasicBlock target = terminator.getTargets().get(0);
+                generateCopies(terminator.getBlock(), target);
+                if (target != next)
+                    code.add("goto " + getLabel(target));
+                break;
+            default:
+                generateBranch(terminator.getOperand(0), terminator.getTargets().get(0),
+                        terminator.getTargets().get(1), next);
+                break;
+        }
+    }
+
+    private void generateBranch(Instruction condition, BasicBlock ifTrue, BasicBlock ifFalse, BasicBlock next) {
+        if (inlined.contains(condition) && condition.getOperation() == Operation.NOT) {
+            generateBranch(condition.getOperand(0), ifFalse, ifTrue, next);
+            return;
+        }
+        if (inlined.contains(condition) && condition.getOperation().isComparison()) {
+            if (next == ifTrue)
+                generateComparison(condition, false, getLabel(ifFalse));
+            else
+                generateComparison(condition, true, getLabel(ifTrue));
+        }
+        else {
+            generateOperand(condition);
+            code.add(next == ifTrue ? "ifeq " + getLabel(ifFalse) : "ifne " + getLabel(ifTrue));
+        }
+        if (next != ifTrue && next != ifFalse)
+            code.add("goto " + getLabel(ifFalse));
+    }
+
+    // the phis of target take the values they have for the edge from block
+    private void generateCopies(BasicBlock block, BasicBlock target) {
+        int index = target.getPredecessors().indexOf(block);
+        ArrayList<Instruction> copied = new ArrayList<>();
+        for (Instruction phi : target.getPhis()) {
+            Instruction operand = phi.getOperand(index);
+            if (numbers.containsKey(operand) && getSlot(operand) == getSlot(phi))
+                continue;
+            generateOperand(operand);
+            copied.add(phi);
+        }
+        for (int i = copied.size() - 1; i >= 0; i--)
+            store(copied.get(i));
+    }
+}
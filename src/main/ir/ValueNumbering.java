@@ -0,0 +1,100 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// global value numbering over the dominator tree: an instruction that computes what a dominating one already
+// computed from the same operands is replaced by it. only pure instructions take part, and those that may throw
+// but always agree with an earlier copy that did not, like a division or the length of an array
+public class ValueNumbering {
+    private Function function;
+    private DominatorTree dominators;
+    private HashMap<String, Instruction> available = new HashMap<>();
+    private HashMap<Instruction, Instruction> replacements = new HashMap<>();
+    private int removed;
+
+    // returns the number of instructions removed
+    public int run(Function function) {
+        this.function = function;
+        dominators = new DominatorTree(function);
+        available.clear();
+        replacements.clear();
+        removed = 0;
+        number(function.getEntry());
+        // phis take values over back edges from blocks numbered after them
+        for (BasicBlock block : function.getBlocks()) {
+            canonicalize(block.getPhis());
+            canonicalize(block.getInstructions());
+        }
+        return removed;
+    }
+
+    private void number(BasicBlock block) {
+        ArrayList<String> added = new ArrayList<>();
+        ArrayList<Instruction> instructions = new ArrayList<>(block.getPhis());
+        instructions.addAll(block.getInstructions());
+        for (Instruction instruction : instructions) {
+            canonicalize(instruction);
+            String key = getKey(instruction);
+            if (key == null)
+                continue;
+            Instruction existing = available.get(key);
+            if (existing != null) {
+                replacements.put(instruction, existing);
+                block.remove(instruction);
+                if (instruction.getOperation() != Operation.CONSTANT)
+                    removed++;
+            }
+            else {
+                available.put(key, instruction);
+                added.add(key);
+            }
+        }
+        for (BasicBlock child : dominators.getChildren(block))
+            number(child);
+        for (String key : added)
+            available.remove(key);
+    }
+
+    private void canonicalize(ArrayList<Instruction> instructions) {
+        for (Instruction instruction : instructions)
+            canonicalize(instruction);
+    }
+
+    private void canonicalize(Instruction instruction) {
+        ArrayList<Instruction> operands = instruction.getOperands();
+        for (int i = 0; i < operands.size(); i++) {
+            Instruction operand = operands.get(i);
+            while (replacements.containsKey(operand))
+                operand = replacements.get(operand);
+            operands.set(i, operand);
+        }
+    }
+
+    // what the instruction computes, null if it can not be shared
+    private static String getKey(Instruction instruction) {
+        Operation operation = instruction.getOperation();
+        StringBuilder key = new StringBuilder(operation.name());
+        key.append(" ").append(instruction.getType() == null ? "" : instruction.getType().getTypeCode());
+        switch (operation) {
+            case CONSTANT:
+                return key.append(" ").append(instruction.getConstant()).toString();
+            case PHI:
+                // only phis of the same block merge the same values
+                key.append(" ").append(instruction.getBlock());
+                break;
+            case EQUALS:
+            case ARRAY_LENGTH:
+                break;
+            default:
+                if (!operation.isArithmetic() && !operation.isComparison())
+                    return null;
+        }
+        ArrayList<Instruction> operands = new ArrayList<>(instruction.getOperands());
+        if (operation.isCommutative() && operands.get(0).getId() > operands.get(1).getId())
+            operands.add(operands.remove(0));
+        for (Instruction operand : operands)
+            key.append(" ").append(operand);
+        return key.toString();
+    }
+}
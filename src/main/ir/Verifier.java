@@ -0,0 +1,117 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+// checks the invariants the passes and the code generator rely on: every block is reachable and ends in its only
+// terminator, edges agree from both ends, a phi has an operand per predecessor, and every value is defined in
+// the function before all of its uses, phi operands at the end of the predecessor they come from
+public class Verifier {
+    private Function function;
+
+    public static void verify(Function function) {
+        new Verifier(function).verify();
+    }
+
+    private Verifier(Function function) {
+        this.function = function;
+    }
+
+    private void fail(String message) {
+        throw new IllegalStateException("invalid ssa form of " + function.getName() + ": " + message);
+    }
+
+    private void verify() {
+        if (!function.getEntry().getPredecessors().isEmpty())
+            fail("the entry block has predecessors");
+        DominatorTree dominators = new DominatorTree(function);
+        HashMap<Instruction, Integer> positions = new HashMap<>();
+        for (BasicBlock block : function.getBlocks()) {
+            if (!dominators.isReachable(block))
+                fail(block + " is unreachable");
+            checkBlock(block);
+            for (Instruction phi : block.getPhis())
+                positions.put(phi, -1);
+            for (int i = 0; i < block.getInstructions().size(); i++)
+                positions.put(block.getInstructions().get(i), i);
+        }
+
+        for (BasicBlock block : function.getBlocks()) {
+            for (Instruction phi : block.getPhis()) {
+                for (int i = 0; i < phi.getOperands().size(); i++) {
+                    BasicBlock pred = block.getPredecessors().get(i);
+                    Instruction operand = phi.getOperand(i);
+                    checkDefined(phi, operand, positions);
+                    if (!dominators.dominates(operand.getBlock(), pred))
+                        fail(operand + " does not reach the end of " + pred + " for " + phi.describe());
+                }
+            }
+            ArrayList<Instruction> instructions = block.getInstructions();
+            for (int i = 0; i < instructions.size(); i++) {
+                Instruction instruction = instructions.get(i);
+                for (Instruction operand : instruction.getOperands()) {
+                    checkDefined(instruction, operand, positions);
+                    BasicBlock definition = operand.getBlock();
+                    if (definition == block ? positions.get(operand) >= i : !dominators.dominates(definition, block))
+                        fail(operand + " is used before it is defined in " + instruction.describe());
+                }
+            }
+        }
+    }
+
+    private void checkDefined(Instruction user, Instruction operand, HashMap<Instruction, Integer> positions) {
+        if (!positions.containsKey(operand))
+            fail(operand + " is not defined in the function but used in " + user.describe());
+        if (!operand.hasValue())
+            fail(operand.describe() + " has no value but is used in " + user.describe());
+    }
+
+    private void checkBlock(BasicBlock block) {
+        ArrayList<Instruction> instructions = block.getInstructions();
+        if (block.getTerminator() == null)
+            fail(block + " does not end in a terminator");
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction instruction = instructions.get(i);
+            if (instruction.getBlock() != block)
+                fail(instruction.describe() + " does not know it is in " + block);
+            if (instruction.getOperation() == Operation.PHI)
+                fail(instruction.describe() + " is among the instructions of " + block);
+            if (instruction.getOperation().isTerminator() && i != instructions.size() - 1)
+                fail(block + " has a terminator before its end");
+        }
+        Instruction terminator = block.getTerminator();
+        int targets = terminator.getOperation() == Operation.JUMP ? 1 :
+                terminator.getOperation() == Operation.BRANCH ? 2 : 0;
+        if (terminator.getTargets().size() != targets)
+            fail(terminator.describe() + " has " + terminator.getTargets().size() + " targets");
+
+        for (Instruction phi : block.getPhis()) {
+            if (phi.getOperation() != Operation.PHI || phi.getBlock() != block)
+                fail(phi.describe() + " is not a phi of " + block);
+            if (phi.getOperands().size() != block.getPredecessors().size())
+                fail(phi.describe() + " has " + phi.getOperands().size() + " operands for " +
+                        block.getPredecessors().size() + " predecessors");
+        }
+        HashSet<BasicBlock> blocks = new HashSet<>(function.getBlocks());
+        for (BasicBlock successor : block.getSuccessors()) {
+            if (!blocks.contains(successor))
+                fail(block + " jumps to " + successor + ", which is not in the function");
+            if (count(successor.getPredecessors(), block) != count(block.getSuccessors(), successor))
+                fail(successor + " does not list " + block + " as a predecessor");
+        }
+        for (BasicBlock pred : block.getPredecessors()) {
+            if (!blocks.contains(pred) || !pred.getSuccessors().contains(block))
+                fail(block + " lists " + pred + " as a predecessor, which does not jump to it");
+        }
+    }
+
+    private static int count(ArrayList<BasicBlock> blocks, BasicBlock block) {
+        int count = 0;
+        for (BasicBlock other : blocks) {
+            if (other == block)
+                count++;
+        }
+        return count;
+    }
+}
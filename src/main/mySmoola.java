@@ -1,16 +1,71 @@
 import java.io.IOException;
 
+import ast.Backend;
 import ast.GeneratorVisitorImpl;
 import ast.Pass;
 import ast.Visitor;
 import ast.VisitorImpl;
 import ast.node.Program;
+import optimizer.Optimizer;
 import org.antlr.v4.runtime.*;
+import profile.Profile;
 
 public class mySmoola {
     public static void main(String[] args) throws IOException {
+        String fileName = null;
+        Backend backend = Backend.Jasmin;
+        boolean optimize = true;
+        boolean optimizationReport = false;
+        boolean ssa = true;
+        int unrollFactor = 4;
+        String profileFile = null;
+        Profile profile = null;
+        boolean profileTime = false;
+        boolean profileAlloc = false;
+        String profilerFile = null;
+        for (String arg : args) {
+            if (arg.equals("--backend=class"))
+                backend = Backend.ClassFile;
+            else if (arg.equals("--backend=jasmin"))
+                backend = Backend.Jasmin;
+            else if (arg.equals("-O0"))
+                optimize = false;
+            else if (arg.equals("--opt-report"))
+                optimizationReport = true;
+            else if (arg.equals("--no-ssa"))
+                ssa = false;
+            else if (arg.startsWith("--unroll="))
+                unrollFactor = Integer.parseInt(arg.substring("--unroll=".length()));
+            else if (arg.equals("--profile-generate"))
+                profileFile = Profile.DEFAULT_FILE;
+            else if (arg.startsWith("--profile-generate="))
+                profileFile = arg.substring("--profile-generate=".length());
+            else if (arg.startsWith("--profile-use="))
+                profile = Profile.read(arg.substring("--profile-use=".length()));
+            else if (arg.equals("--profile-time"))
+                profileTime = true;
+            else if (arg.startsWith("--profile-time=")) {
+                profileTime = true;
+                profilerFile = arg.substring("--profile-time=".length());
+            }
+            else if (arg.equals("--profile-alloc"))
+                profileAlloc = true;
+            else if (arg.startsWith("--profile-alloc=")) {
+                profileAlloc = true;
+                profilerFile = arg.substring("--profile-alloc=".length());
+            }
+            else
+                fileName = arg;
+        }
+        // the counts, times and allocations of an instrumented build are for the program as written, so it is not
+        // optimized
+        if (profileFile != null || profileTime || profileAlloc) {
+            optimize = false;
+            profile = null;
+        }
+
 //        CharStream reader = CharStreams.fromFileName("tests/phase4/simple.sml");
-        CharStream reader = CharStreams.fromFileName(args[0]);
+        CharStream reader = CharStreams.fromFileName(fileName);
         SmoolaLexer lexer = new SmoolaLexer(reader);   // SmoolaLexer in your project
         CommonTokenStream tokens = new CommonTokenStream(lexer);
         SmoolaParser parser = new SmoolaParser(tokens);   // SmoolaParser in your project
@@ -24,10 +79,27 @@ public class mySmoola {
             v.setPass(Pass.Third);
             prog.accept(v);
         }
+        if (!v.hasError() && optimize) {
+            Optimizer optimizer = new Optimizer();
+            optimizer.setClassDecMap(v.getClassDecMap());
+            optimizer.setOptimizationReport(optimizationReport);
+            optimizer.setProfile(profile);
+            optimizer.optimize(prog);
+        }
         if (!v.hasError()) {
             Visitor codeGenerator = new GeneratorVisitorImpl();
             ((GeneratorVisitorImpl) codeGenerator).setClassSymbolTable(v.getClassSymbolTable());
             ((GeneratorVisitorImpl) codeGenerator).setClassDecMap(v.getClassDecMap());
+            ((GeneratorVisitorImpl) codeGenerator).setBackend(backend);
+            ((GeneratorVisitorImpl) codeGenerator).setOptimize(optimize);
+            ((GeneratorVisitorImpl) codeGenerator).setOptimizationReport(optimizationReport);
+            ((GeneratorVisitorImpl) codeGenerator).setSsa(ssa);
+            ((GeneratorVisitorImpl) codeGenerator).setUnrollFactor(unrollFactor);
+            ((GeneratorVisitorImpl) codeGenerator).setProfileFile(profileFile);
+            ((GeneratorVisitorImpl) codeGenerator).setProfile(profile);
+            ((GeneratorVisitorImpl) codeGenerator).setProfileTime(profileTime);
+            ((GeneratorVisitorImpl) codeGenerator).setProfileAlloc(profileAlloc);
+            ((GeneratorVisitorImpl) codeGenerator).setProfilerFile(profilerFile);
             prog.accept(codeGenerator);
         }
     }
@@ -0,0 +1,426 @@
+package optimizer;
+
+import ast.Type.ArrayType.ArrayType;
+import ast.Type.PrimitiveType.IntType;
+import ast.node.Program;
+import ast.node.declaration.ClassDeclaration;
+import ast.node.declaration.MethodDeclaration;
+import ast.node.declaration.VarDeclaration;
+import ast.node.expression.*;
+import ast.node.expression.Value.IntValue;
+import ast.node.statement.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Objects;
+
+// flow sensitive array lengths: new int[K] fixes the length of an array for good, so a local given one, a field
+// that is only ever given arrays of one length and an argument that every call passes such an array for have a
+// length known at compile time. x.length of such an array that is known not to be null becomes the constant, and
+// together with the ranges int locals stay in, array reads whose index can not leave the array are marked in bounds
+public class ArrayLengthAnalyzer extends AstRewriter {
+    // whole program rounds, each one may learn field and argument lengths from what the previous one proved
+    private static final int MAX_ROUNDS = 4;
+
+    private ClassHierarchy hierarchy;
+    // what the previous round proved for every field and argument, null for an unknown length
+    private HashMap<String, Integer> fieldLengths = new HashMap<>();
+    private HashMap<MethodDeclaration, ArrayList<Integer>> argLengths = new HashMap<>();
+    // what this round saw assigned to fields and passed to methods
+    private HashMap<String, Integer> fieldWrites = new HashMap<>();
+    private HashMap<MethodDeclaration, ArrayList<Integer>> callArgs = new HashMap<>();
+    // false while loops are iterated to their fixpoint, nothing is changed until then
+    private boolean fold = false;
+    private HashSet<String> locals = new HashSet<>();
+    private State state;
+    private int folded;
+    private int inBounds;
+
+    public ArrayLengthAnalyzer(HashMap<String, ClassDeclaration> classDecMap) {
+        this.hierarchy = new ClassHierarchy(classDecMap);
+    }
+
+    @Override
+    public void visit(Program program) {
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            fieldWrites = new HashMap<>();
+            callArgs = new HashMap<>();
+            super.visit(program);
+            if (fieldWrites.equals(fieldLengths) && callArgs.equals(argLengths))
+                break;
+            fieldLengths = fieldWrites;
+            argLengths = callArgs;
+        }
+        fold = true;
+        super.visit(program);
+    }
+
+    @Override
+    public void visit(MethodDeclaration methodDeclaration) {
+        curMethod = methodDeclaration;
+        locals.clear();
+        state = new State();
+        ArrayList<Integer> lengths = argLengths.get(methodDeclaration);
+        for (int i = 0; i < methodDeclaration.getArgs().size(); i++) {
+            String name = methodDeclaration.getArgs().get(i).getIdentifier().getName();
+            locals.add(name);
+            if (lengths != null && lengths.get(i) != null)
+                state.lengths.put(name, lengths.get(i));
+        }
+        // the generator zeroes every int local when the method starts
+        for (VarDeclaration var : methodDeclaration.getLocalVars()) {
+            locals.add(var.getIdentifier().getName());
+            if (var.getType() instanceof IntType)
+                state.ranges.put(var.getIdentifier().getName(), new Range(0, 0));
+        }
+        folded = 0;
+        inBounds = 0;
+        rewriteStatements(methodDeclaration.getBody());
+        methodDeclaration.setReturnValue(rewrite(methodDeclaration.getReturnValue()));
+        if (fold && (folded != 0 || inBounds != 0))
+            report("array lengths", "folded " + folded + " lengths, " + inBounds + " indices in bounds");
+        curMethod = null;
+    }
+
+    // the length of the array the expression evaluates to if it is known not to be null
+    private Integer lengthOf(Expression expression, State state) {
+        if (expression instanceof NewArray && expression.getType() instanceof ArrayType)
+            return ((ArrayType) expression.getType()).getSize();
+        if (expression instanceof Identifier)
+            return state.lengths.get(((Identifier) expression).getName());
+        return null;
+    }
+
+    private Range rangeOf(Expression expression, State state) {
+        if (expression instanceof IntValue)
+            return new Range(((IntValue) expression).getConstant(), ((IntValue) expression).getConstant());
+        if (expression instanceof Identifier && state.ranges.containsKey(((Identifier) expression).getName()))
+            return state.ranges.get(((Identifier) expression).getName());
+        if (expression instanceof Length) {
+            Integer length = lengthOf(((Length) expression).getExpression(), state);
+            return length == null ? new Range(0, Integer.MAX_VALUE) : new Range(length, length);
+        }
+        if (expression instanceof UnaryExpression &&
+                ((UnaryExpression) expression).getUnaryOperator() == UnaryOperator.minus) {
+            Range value = rangeOf(((UnaryExpression) expression).getValue(), state);
+            return Range.of(-value.hi, -value.lo);
+        }
+        if (expression instanceof BinaryExpression) {
+            BinaryExpression binaryExpression = (BinaryExpression) expression;
+            Range left = rangeOf(binaryExpression.getLeft(), state);
+            Range right = rangeOf(binaryExpression.getRight(), state);
+            if (binaryExpression.getBinaryOperator() == BinaryOperator.add)
+                return Range.of(left.lo + right.lo, left.hi + right.hi);
+            if (binaryExpression.getBinaryOperator() == BinaryOperator.sub)
+                return Range.of(left.lo - right.hi, left.hi - right.lo);
+        }
+        return Range.FULL;
+    }
+
+    // narrows the ranges in state to what must hold when condition evaluated to outcome
+    private void refine(Expression condition, boolean outcome, State state) {
+        if (condition instanceof UnaryExpression &&
+                ((UnaryExpression) condition).getUnaryOperator() == UnaryOperator.not) {
+            refine(((UnaryExpression) condition).getValue(), !outcome, state);
+            return;
+        }
+        if (!(condition instanceof BinaryExpression))
+            return;
+        BinaryExpression binaryExpression = (BinaryExpression) condition;
+        Expression left = binaryExpression.getLeft();
+        Expression right = binaryExpression.getRight();
+        switch (binaryExpression.getBinaryOperator()) {
+            case and:
+                if (outcome) {
+                    refine(left, true, state);
+                    refine(right, true, state);
+                }
+                break;
+            case or:
+                if (!outcome) {
+                    refine(left, false, state);
+                    refine(right, false, state);
+                }
+                break;
+            case lt:
+                refineLess(left, right, outcome, state);
+                break;
+            case gt:
+                refineLess(right, left, outcome, state);
+                break;
+        }
+    }
+
+    // small < large was outcome
+    private void refineLess(Expression small, Expression large, boolean outcome, State state) {
+        Range smallRange = rangeOf(small, state);
+        Range largeRange = rangeOf(large, state);
+        if (outcome) {
+            narrow(small, Long.MIN_VALUE, largeRange.hi - 1, state);
+            narrow(large, smallRange.lo + 1, Long.MAX_VALUE, state);
+        }
+        else {
+            narrow(small, largeRange.lo, Long.MAX_VALUE, state);
+            narrow(large, Long.MIN_VALUE, smallRange.hi, state);
+        }
+    }
+
+    private void narrow(Expression expression, long lo, long hi, State state) {
+        if (!(expression instanceof Identifier) || !locals.contains(((Identifier) expression).getName()))
+            return;
+        Range range = rangeOf(expression, state);
+        state.set(((Identifier) expression).getName(), Range.of(Math.max(range.lo, lo), Math.min(range.hi, hi)));
+    }
+
+    // an array that was indexed or asked for its length without throwing is not null
+    private void accessed(Expression array) {
+        if (!(array instanceof Identifier))
+            return;
+        String name = ((Identifier) array).getName();
+        if (!locals.contains(name) && fieldLengths.get(name) != null)
+            state.lengths.put(name, fieldLengths.get(name));
+    }
+
+    private void assigned(String name, Expression value) {
+        Integer length = lengthOf(value, state);
+        Range range = rangeOf(value, state);
+        if (length != null)
+            state.lengths.put(name, length);
+        else
+            state.lengths.remove(name);
+        if (locals.contains(name))
+            state.set(name, range);
+        else
+            merge(fieldWrites, name, length);
+    }
+
+    // a call may give any field a new array, only fields that always get arrays of the same length keep it
+    private void called(Expression instance, Identifier methodName, ArrayList<Expression> args) {
+        ClassDeclaration declaringClass = instance.getType() == null ? null :
+                hierarchy.getDeclaringClass(instance.getType().toString(), methodName);
+        if (declaringClass != null) {
+            MethodDeclaration callee = declaringClass.getMethodDeclaration(methodName);
+            ArrayList<Integer> lengths = new ArrayList<>();
+            for (Expression arg : args)
+                lengths.add(lengthOf(arg, state));
+            ArrayList<Integer> seen = callArgs.get(callee);
+            if (seen != null) {
+                for (int i = 0; i < lengths.size(); i++) {
+                    if (!Objects.equals(seen.get(i), lengths.get(i)))
+                        lengths.set(i, null);
+                }
+            }
+            callArgs.put(callee, lengths);
+        }
+        state.lengths.keySet().removeIf(name -> !locals.contains(name) &&
+                !Objects.equals(fieldLengths.get(name), state.lengths.get(name)));
+    }
+
+    private static void merge(HashMap<String, Integer> seen, String name, Integer length) {
+        if (seen.containsKey(name) && !Objects.equals(seen.get(name), length))
+            seen.put(name, null);
+        else
+            seen.put(name, length);
+    }
+
+    @Override
+    public void visit(Length length) {
+        super.visit(length);
+        Integer known = lengthOf(length.getExpression(), state);
+        if (known != null && fold) {
+            result = Expressions.intValue(known, length.getLine());
+            folded++;
+        }
+        accessed(length.getExpression());
+    }
+
+    @Override
+    public void visit(ArrayCall arrayCall) {
+        super.visit(arrayCall);
+        Integer length = lengthOf(arrayCall.getInstance(), state);
+        Range index = rangeOf(arrayCall.getIndex(), state);
+        if (length != null && index.lo >= 0 && index.hi < length && fold) {
+            arrayCall.setInBounds(true);
+            inBounds++;
+        }
+        accessed(arrayCall.getInstance());
+    }
+
+    @Override
+    public void visit(BinaryExpression binaryExpression) {
+        BinaryOperator op = binaryExpression.getBinaryOperator();
+        if (op == BinaryOperator.and || op == BinaryOperator.or) {
+            // the right side may not run, afterwards only what holds whether it ran or not is known
+            binaryExpression.setLeft(rewrite(binaryExpression.getLeft()));
+            State skipped = state.copy();
+            binaryExpression.setRight(rewrite(binaryExpression.getRight()));
+            state = skipped.merge(state, false);
+            result = binaryExpression;
+        }
+        else if (op == BinaryOperator.assign) {
+            Expression left = binaryExpression.getLeft();
+            if (left instanceof ArrayCall)
+                rewrite(left);
+            binaryExpression.setRight(rewrite(binaryExpression.getRight()));
+            if (left instanceof Identifier)
+                assigned(((Identifier) left).getName(), binaryExpression.getRight());
+            result = binaryExpression;
+        }
+        else
+            super.visit(binaryExpression);
+    }
+
+    @Override
+    public void visit(MethodCall methodCall) {
+        super.visit(methodCall);
+        called(methodCall.getInstance(), methodCall.getMethodName(), methodCall.getArgs());
+    }
+
+    @Override
+    public void visit(MethodCallInMain methodCallInMain) {
+        super.visit(methodCallInMain);
+        called(methodCallInMain.getInstance(), methodCallInMain.getMethodName(), methodCallInMain.getArgs());
+    }
+
+    @Override
+    public void visit(Assign assign) {
+        Expression lValue = assign.getlValue();
+        if (lValue instanceof ArrayCall)
+            rewrite(lValue);
+        assign.setrValue(rewrite(assign.getrValue()));
+        if (lValue instanceof Identifier)
+            assigned(((Identifier) lValue).getName(), assign.getrValue());
+        replacement = assign;
+    }
+
+    @Override
+    public void visit(Conditional conditional) {
+        conditional.setExpression(rewrite(conditional.getExpression()));
+        State alternativeState = state.copy();
+        refine(conditional.getExpression(), true, state);
+        conditional.setConsequenceBody(rewrite(conditional.getConsequenceBody()));
+        State consequenceState = state;
+        state = alternativeState;
+        refine(conditional.getExpression(), false, state);
+        conditional.setAlternativeBody(rewrite(conditional.getAlternativeBody()));
+        state = consequenceState.merge(state, false);
+        replacement = conditional;
+    }
+
+    @Override
+    public void visit(While loop) {
+        // the state at the head of the loop is what holds on entry and after every pass through the body,
+        // ranges that keep growing are widened to the whole int range so this stops
+        State head = state.copy();
+        boolean folding = fold;
+        fold = false;
+        while (true) {
+            state = head.copy();
+            rewrite(loop.getCondition());
+            refine(loop.getCondition(), true, state);
+            rewrite(loop.getBody());
+            State next = head.merge(state, true);
+            if (next.equals(head))
+                break;
+            head = next;
+        }
+        fold = folding;
+        state = head;
+        loop.setCondition(rewrite(loop.getCondition()));
+        State exit = state.copy();
+        refine(loop.getCondition(), false, exit);
+        refine(loop.getCondition(), true, state);
+        loop.setBody(rewrite(loop.getBody()));
+        state = exit;
+        replacement = loop;
+    }
+
+    // values an int can take, bounds past the int range mean the value may have wrapped around
+    private static class Range {
+        static final Range FULL = new Range(Integer.MIN_VALUE, Integer.MAX_VALUE);
+
+        final long lo;
+        final long hi;
+
+        Range(long lo, long hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        static Range of(long lo, long hi) {
+            if (lo < Integer.MIN_VALUE || hi > Integer.MAX_VALUE)
+                return FULL;
+            return new Range(lo, hi);
+        }
+
+        boolean isFull() {
+            return lo == Integer.MIN_VALUE && hi == Integer.MAX_VALUE;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Range && ((Range) other).lo == lo && ((Range) other).hi == hi;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(lo, hi);
+        }
+    }
+
+    // what is known at one point of a method: arrays known not to be null with their length, and int locals
+    // known to stay in a range, a name that is missing is unknown
+    private static class State {
+        HashMap<String, Integer> lengths = new HashMap<>();
+        HashMap<String, Range> ranges = new HashMap<>();
+
+        State copy() {
+            State copy = new State();
+            copy.lengths.putAll(lengths);
+            copy.ranges.putAll(ranges);
+            return copy;
+        }
+
+        void set(String name, Range range) {
+            if (range.isFull() || range.lo > range.hi)
+                ranges.remove(name);
+            else
+                ranges.put(name, range);
+        }
+
+        // what holds on both paths, a widening merge gives up on bounds that moved since this state
+        State merge(State other, boolean widen) {
+            State merged = new State();
+            for (String name : lengths.keySet()) {
+                if (lengths.get(name).equals(other.lengths.get(name)))
+                    merged.lengths.put(name, lengths.get(name));
+            }
+            for (String name : ranges.keySet()) {
+                Range range = ranges.get(name);
+                Range otherRange = other.ranges.get(name);
+                if (otherRange == null)
+                    continue;
+                long lo = Math.min(range.lo, otherRange.lo);
+                long hi = Math.max(range.hi, otherRange.hi);
+                if (widen && lo < range.lo)
+                    lo = Integer.MIN_VALUE;
+                if (widen && hi > range.hi)
+                    hi = Integer.MAX_VALUE;
+                merged.set(name, new Range(lo, hi));
+            }
+            return merged;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof State && ((State) other).lengths.equals(lengths) &&
+                    ((State) other).ranges.equals(ranges);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(lengths, ranges);
+        }
+    }
+}
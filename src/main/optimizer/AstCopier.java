@@ -0,0 +1,118 @@
+package optimizer;
+
+import ast.node.expression.*;
+import ast.node.expression.Value.BooleanValue;
+import ast.node.expression.Value.IntValue;
+import ast.node.expression.Value.ObjectValue;
+import ast.node.expression.Value.StringValue;
+import ast.node.statement.*;
+
+import java.util.HashMap;
+
+// deep copies of expressions and statements, identifiers found in substitutions are replaced by
+// a copy of the expression they map to
+public class AstCopier {
+    private HashMap<String, Expression> substitutions;
+
+    public AstCopier(HashMap<String, Expression> substitutions) {
+        this.substitutions = substitutions;
+    }
+
+    public AstCopier() {
+        this(new HashMap<>());
+    }
+
+    public Expression copy(Expression expression) {
+        if (expression == null)
+            return null;
+        Expression copy;
+        if (expression instanceof Identifier) {
+            Identifier identifier = (Identifier) expression;
+            if (substitutions.containsKey(identifier.getName()))
+                return new AstCopier().copy(substitutions.get(identifier.getName()));
+            copy = new Identifier(identifier.getName());
+        }
+        else if (expression instanceof IntValue)
+            copy = new IntValue(((IntValue) expression).getConstant(), expression.getType());
+        else if (expression instanceof BooleanValue)
+            copy = new BooleanValue(((BooleanValue) expression).isConstant(), expression.getType());
+        else if (expression instanceof StringValue)
+            copy = new StringValue(((StringValue) expression).getConstant(), expression.getType());
+        else if (expression instanceof ObjectValue)
+            copy = new ObjectValue(expression.getType());
+        else if (expression instanceof This)
+            copy = new This();
+        else if (expression instanceof BinaryExpression) {
+            BinaryExpression binaryExpression = (BinaryExpression) expression;
+            copy = new BinaryExpression(copy(binaryExpression.getLeft()), copy(binaryExpression.getRight()),
+                    binaryExpression.getBinaryOperator());
+        }
+        else if (expression instanceof UnaryExpression) {
+            UnaryExpression unaryExpression = (UnaryExpression) expression;
+            copy = new UnaryExpression(unaryExpression.getUnaryOperator(), copy(unaryExpression.getValue()));
+        }
+        else if (expression instanceof ArrayCall) {
+            ArrayCall arrayCall = (ArrayCall) expression;
+            copy = new ArrayCall(copy(arrayCall.getInstance()), copy(arrayCall.getIndex()));
+        }
+        else if (expression instanceof Length)
+            copy = new Length(copy(((Length) expression).getExpression()));
+        else if (expression instanceof MethodCall) {
+            MethodCall methodCall = (MethodCall) expression;
+            MethodCall call = new MethodCall(copy(methodCall.getInstance()),
+                    new Identifier(methodCall.getMethodName().getName()));
+            for (Expression arg : methodCall.getArgs())
+                call.addArg(copy(arg));
+            copy = call;
+        }
+        else if (expression instanceof NewArray) {
+            NewArray newArray = new NewArray();
+            newArray.setExpression(copy(((NewArray) expression).getExpression()));
+            copy = newArray;
+        }
+        else if (expression instanceof NewClass)
+            copy = new NewClass(new Identifier(((NewClass) expression).getClassName().getName()));
+        else
+            throw new IllegalArgumentException("can not copy " + expression);
+        copy.setType(expression.getType());
+        copy.setLine(expression.getLine());
+        return copy;
+    }
+
+    public Statement copy(Statement statement) {
+        if (statement == null)
+            return null;
+        Statement copy;
+        if (statement instanceof Assign)
+            copy = new Assign(copy(((Assign) statement).getlValue()), copy(((Assign) statement).getrValue()));
+        else if (statement instanceof Block) {
+            Block block = new Block();
+            for (Statement inner : ((Block) statement).getBody())
+                block.addStatement(copy(inner));
+            copy = block;
+        }
+        else if (statement instanceof Conditional) {
+            Conditional conditional = (Conditional) statement;
+            Conditional newConditional = new Conditional(copy(conditional.getExpression()),
+                    copy(conditional.getConsequenceBody()));
+            newConditional.setAlternativeBody(copy(conditional.getAlternativeBody()));
+            copy = newConditional;
+        }
+        else if (statement instanceof While)
+            copy = new While(copy(((While) statement).getCondition()), copy(((While) statement).getBody()));
+        else if (statement instanceof Write)
+            copy = new Write(copy(((Write) statement).getArg()));
+        else if (statement instanceof MethodCallInMain) {
+            MethodCallInMain methodCall = (MethodCallInMain) statement;
+            MethodCallInMain call = new MethodCallInMain(copy(methodCall.getInstance()),
+                    new Identifier(methodCall.getMethodName().getName()));
+            for (Expression arg : methodCall.getArgs())
+                call.addArg(copy(arg));
+            copy = call;
+        }
+        else
+            throw new IllegalArgumentException("can not copy " + statement);
+        copy.setLine(statement.getLine());
+        return copy;
+    }
+}
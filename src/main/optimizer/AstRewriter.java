@@ -0,0 +1,219 @@
+package optimizer;
+
+import ast.Visitor;
+import ast.node.Program;
+import ast.node.declaration.ClassDeclaration;
+import ast.node.declaration.MethodDeclaration;
+import ast.node.declaration.VarDeclaration;
+import ast.node.expression.*;
+import ast.node.expression.Value.BooleanValue;
+import ast.node.expression.Value.IntValue;
+import ast.node.expression.Value.ObjectValue;
+import ast.node.expression.Value.StringValue;
+import ast.node.statement.*;
+
+import java.util.ArrayList;
+
+// walks the whole program and lets subclasses replace any expression or statement,
+// visit methods leave the replacement in result (expressions) or replacement (statements)
+public abstract class AstRewriter implements Visitor {
+    protected ClassDeclaration curClass;
+    protected MethodDeclaration curMethod;
+    protected Expression result;
+    protected Statement replacement;
+    private boolean optimizationReport = false;
+
+    public void setOptimizationReport(boolean optimizationReport) { this.optimizationReport = optimizationReport; }
+
+    protected boolean isReporting() { return optimizationReport; }
+
+    // prints one line of the --opt-report output for the method being rewritten
+    protected void report(String pass, String message) {
+        if (optimizationReport)
+            System.out.println(pass + ": " + curClass.getName().getName() + "." + curMethod.getName().getName() + " " +
+                    message);
+    }
+
+    protected Expression rewrite(Expression expression) {
+        if (expression == null)
+            return null;
+        result = expression;
+        expression.accept(this);
+        return result;
+    }
+
+    // returns null when the statement should be removed
+    protected Statement rewrite(Statement statement) {
+        if (statement == null)
+            return null;
+        replacement = statement;
+        statement.accept(this);
+        return replacement;
+    }
+
+    protected void rewriteStatements(ArrayList<Statement> statements) {
+        ArrayList<Statement> rewritten = new ArrayList<>();
+        for (Statement statement : statements) {
+            Statement newStatement = rewrite(statement);
+            if (newStatement != null)
+                rewritten.add(newStatement);
+        }
+        statements.clear();
+        statements.addAll(rewritten);
+    }
+
+    @Override
+    public void visit(Program program) {
+        program.getMainClass().accept(this);
+        for (ClassDeclaration classDec : program.getClasses())
+            classDec.accept(this);
+    }
+
+    @Override
+    public void visit(ClassDeclaration classDeclaration) {
+        curClass = classDeclaration;
+        for (MethodDeclaration methodDec : classDeclaration.getMethodDeclarations())
+            methodDec.accept(this);
+        curClass = null;
+    }
+
+    @Override
+    public void visit(MethodDeclaration methodDeclaration) {
+        curMethod = methodDeclaration;
+        rewriteStatements(methodDeclaration.getBody());
+        methodDeclaration.setReturnValue(rewrite(methodDeclaration.getReturnValue()));
+        curMethod = null;
+    }
+
+    @Override
+    public void visit(VarDeclaration varDeclaration) {
+    }
+
+    @Override
+    public void visit(ArrayCall arrayCall) {
+        arrayCall.setInstance(rewrite(arrayCall.getInstance()));
+        arrayCall.setIndex(rewrite(arrayCall.getIndex()));
+        result = arrayCall;
+    }
+
+    @Override
+    public void visit(BinaryExpression binaryExpression) {
+        binaryExpression.setLeft(rewrite(binaryExpression.getLeft()));
+        binaryExpression.setRight(rewrite(binaryExpression.getRight()));
+        result = binaryExpression;
+    }
+
+    @Override
+    public void visit(Identifier identifier) {
+        result = identifier;
+    }
+
+    @Override
+    public void visit(Length length) {
+        length.setExpression(rewrite(length.getExpression()));
+        result = length;
+    }
+
+    @Override
+    public void visit(MethodCall methodCall) {
+        methodCall.setInstance(rewrite(methodCall.getInstance()));
+        ArrayList<Expression> args = methodCall.getArgs();
+        for (int i = 0; i < args.size(); i++)
+            args.set(i, rewrite(args.get(i)));
+        result = methodCall;
+    }
+
+    @Override
+    public void visit(NewArray newArray) {
+        newArray.setExpression(rewrite(newArray.getExpression()));
+        result = newArray;
+    }
+
+    @Override
+    public void visit(NewClass newClass) {
+        result = newClass;
+    }
+
+    @Override
+    public void visit(This instance) {
+        result = instance;
+    }
+
+    @Override
+    public void visit(UnaryExpression unaryExpression) {
+        unaryExpression.setValue(rewrite(unaryExpression.getValue()));
+        result = unaryExpression;
+    }
+
+    @Override
+    public void visit(BooleanValue value) {
+        result = value;
+    }
+
+    @Override
+    public void visit(IntValue value) {
+        result = value;
+    }
+
+    @Override
+    public void visit(StringValue value) {
+        result = value;
+    }
+
+    @Override
+    public void visit(ObjectValue value) {
+        result = value;
+    }
+
+    @Override
+    public void visit(Assign assign) {
+        // the left side is only rewritten below the top level, the target itself must stay an lvalue
+        Expression lValue = assign.getlValue();
+        if (lValue instanceof ArrayCall) {
+            ArrayCall arrayCall = (ArrayCall) lValue;
+            arrayCall.setInstance(rewrite(arrayCall.getInstance()));
+            arrayCall.setIndex(rewrite(arrayCall.getIndex()));
+        }
+        assign.setrValue(rewrite(assign.getrValue()));
+        replacement = assign;
+    }
+
+    @Override
+    public void visit(Block block) {
+        rewriteStatements(block.getBody());
+        replacement = block;
+    }
+
+    @Override
+    public void visit(Conditional conditional) {
+        conditional.setExpression(rewrite(conditional.getExpression()));
+        Statement consequence = rewrite(conditional.getConsequenceBody());
+        Statement alternative = rewrite(conditional.getAlternativeBody());
+        conditional.setConsequenceBody(consequence == null ? new Block() : consequence);
+        conditional.setAlternativeBody(alternative);
+        replacement = conditional;
+    }
+
+    @Override
+    public void visit(MethodCallInMain methodCallInMain) {
+        methodCallInMain.setInstance(rewrite(methodCallInMain.getInstance()));
+        ArrayList<Expression> args = methodCallInMain.getArgs();
+        for (int i = 0; i < args.size(); i++)
+            args.set(i, rewrite(args.get(i)));
+        replacement = methodCallInMain;
+    }
+
+    @Override
+    public void visit(While loop) {
+        loop.setCondition(rewrite(loop.getCondition()));
+        Statement body = rewrite(loop.getBody());
+        loop.setBody(body == null ? new Block() : body);
+        replacement = loop;
+    }
+
+    @Override
+    public void visit(Write write) {
+        write.setArg(rewrite(write.getArg()));
+        replacement = write;
+    }
+}
@@ -0,0 +1,82 @@
+package optimizer;
+
+import ast.node.declaration.MethodDeclaration;
+import ast.node.declaration.VarDeclaration;
+import ast.node.expression.Expression;
+import ast.node.expression.Identifier;
+import ast.node.expression.MethodCall;
+import ast.node.statement.Assign;
+import ast.node.statement.MethodCallInMain;
+import ast.node.statement.Statement;
+import ast.node.statement.Write;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// replaces a statement that calls a method with a copy of the method's body, used by the passes that inline
+public class CallExpansion {
+    // the call a statement is made of, v = call, writeln(call) or call;, otherwise null
+    public static MethodCall findCall(Statement statement) {
+        if (statement instanceof Assign && ((Assign) statement).getlValue() instanceof Identifier &&
+                ((Assign) statement).getrValue() instanceof MethodCall)
+            return (MethodCall) ((Assign) statement).getrValue();
+        if (statement instanceof Write && ((Write) statement).getArg() instanceof MethodCall)
+            return (MethodCall) ((Write) statement).getArg();
+        if (statement instanceof MethodCallInMain) {
+            MethodCallInMain methodCallInMain = (MethodCallInMain) statement;
+            MethodCall call = new MethodCall(methodCallInMain.getInstance(), methodCallInMain.getMethodName());
+            for (Expression arg : methodCallInMain.getArgs())
+                call.addArg(arg);
+            call.setLine(methodCallInMain.getLine());
+            return call;
+        }
+        return null;
+    }
+
+    // the statements that do what statement does with call replaced by the body of callee, the callee's
+    // arguments and locals become fresh locals of caller and any other name it uses is looked up in substitutions
+    public static ArrayList<Statement> expand(MethodDeclaration caller, Statement statement, MethodCall call,
+                                              MethodDeclaration callee, HashMap<String, Expression> substitutions) {
+        ArrayList<Statement> expansion = new ArrayList<>();
+        HashMap<String, Expression> renames = new HashMap<>(substitutions);
+        int line = statement.getLine();
+        for (int i = 0; i < callee.getArgs().size(); i++) {
+            VarDeclaration arg = callee.getArgs().get(i);
+            String name = newLocal(caller, arg, renames, line);
+            expansion.add(Expressions.assign(name, arg.getType(), call.getArgs().get(i), line));
+        }
+        for (VarDeclaration local : callee.getLocalVars()) {
+            String name = newLocal(caller, local, renames, line);
+            // the callee would have started with a zeroed local, a loop around the call site would not
+            Expression zero = Expressions.zero(local.getType(), line);
+            if (zero != null)
+                expansion.add(Expressions.assign(name, local.getType(), zero, line));
+        }
+        AstCopier copier = new AstCopier(renames);
+        for (Statement calleeStatement : callee.getBody())
+            expansion.add(copier.copy(calleeStatement));
+
+        Expression returnValue = copier.copy(callee.getReturnValue());
+        if (statement instanceof Assign) {
+            ((Assign) statement).setrValue(returnValue);
+            expansion.add(statement);
+        }
+        else if (statement instanceof Write) {
+            ((Write) statement).setArg(returnValue);
+            expansion.add(statement);
+        }
+        else if (!Expressions.isPure(returnValue)) {
+            // the value is dropped but evaluating it may still throw
+            String name = Expressions.newLocal(caller, "ret", returnValue.getType());
+            expansion.add(Expressions.assign(name, returnValue.getType(), returnValue, line));
+        }
+        return expansion;
+    }
+
+    private static String newLocal(MethodDeclaration caller, VarDeclaration var, HashMap<String, Expression> renames,
+                                   int line) {
+        String name = Expressions.newLocal(caller, var.getIdentifier().getName(), var.getType());
+        renames.put(var.getIdentifier().getName(), Expressions.identifier(name, var.getType(), line));
+        return name;
+    }
+}
@@ -0,0 +1,99 @@
+package optimizer;
+
+import ast.node.declaration.MethodDeclaration;
+import ast.node.declaration.VarDeclaration;
+import ast.node.expression.Expression;
+import ast.node.expression.Identifier;
+import ast.node.expression.MethodCall;
+import ast.node.expression.This;
+import ast.node.statement.Assign;
+import ast.node.statement.MethodCallInMain;
+import ast.node.statement.Statement;
+
+import java.util.HashSet;
+
+// size, calls, uses of this and variable names of a method that may be copied into another one
+public class CalleeInfo extends AstRewriter {
+    private int size = 0;
+    private boolean hasCalls = false;
+    private boolean usesThis = false;
+    private boolean assignsArgs = false;
+    private HashSet<String> names = new HashSet<>();
+
+    public static CalleeInfo of(MethodDeclaration methodDeclaration) {
+        CalleeInfo info = new CalleeInfo();
+        methodDeclaration.accept(info);
+        VariableUses uses = VariableUses.of(methodDeclaration);
+        for (VarDeclaration var : methodDeclaration.getArgs()) {
+            if (uses.getWrites(var.getIdentifier().getName()) != 0)
+                info.assignsArgs = true;
+        }
+        return info;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public boolean hasCalls() {
+        return hasCalls;
+    }
+
+    public boolean usesThis() {
+        return usesThis;
+    }
+
+    // a method that assigns to an argument can not have the argument expressions of a call put in their place
+    public boolean assignsArgs() {
+        return assignsArgs;
+    }
+
+    public HashSet<String> getNames() {
+        return names;
+    }
+
+    @Override
+    protected Expression rewrite(Expression expression) {
+        if (expression != null)
+            size++;
+        return super.rewrite(expression);
+    }
+
+    @Override
+    protected Statement rewrite(Statement statement) {
+        if (statement != null)
+            size++;
+        return super.rewrite(statement);
+    }
+
+    @Override
+    public void visit(Identifier identifier) {
+        names.add(identifier.getName());
+        super.visit(identifier);
+    }
+
+    @Override
+    public void visit(This instance) {
+        usesThis = true;
+        super.visit(instance);
+    }
+
+    @Override
+    public void visit(Assign assign) {
+        if (assign.getlValue() instanceof Identifier)
+            names.add(((Identifier) assign.getlValue()).getName());
+        super.visit(assign);
+    }
+
+    @Override
+    public void visit(MethodCall methodCall) {
+        hasCalls = true;
+        super.visit(methodCall);
+    }
+
+    @Override
+    public void visit(MethodCallInMain methodCallInMain) {
+        hasCalls = true;
+        super.visit(methodCallInMain);
+    }
+}
@@ -0,0 +1,81 @@
+package optimizer;
+
+import ast.node.declaration.ClassDeclaration;
+import ast.node.declaration.MethodDeclaration;
+import ast.node.expression.Identifier;
+
+import java.util.HashMap;
+
+// whole program questions about the class tree in classDecMap
+public class ClassHierarchy {
+    private HashMap<String, ClassDeclaration> classDecMap;
+
+    public ClassHierarchy(HashMap<String, ClassDeclaration> classDecMap) {
+        this.classDecMap = classDecMap;
+    }
+
+    public ClassDeclaration getClass(String name) {
+        return classDecMap.get(name);
+    }
+
+    public ClassDeclaration getParent(ClassDeclaration classDec) {
+        return classDec.hasParent() ? classDecMap.get(classDec.getParentName().getName()) : null;
+    }
+
+    public boolean isSubclass(ClassDeclaration classDec, ClassDeclaration ancestor) {
+        while (classDec != null) {
+            if (classDec == ancestor)
+                return true;
+            classDec = getParent(classDec);
+        }
+        return false;
+    }
+
+    public boolean hasSubclasses(ClassDeclaration classDec) {
+        for (ClassDeclaration other : classDecMap.values()) {
+            if (other != classDec && isSubclass(other, classDec))
+                return true;
+        }
+        return false;
+    }
+
+    // true if a class below classDec declares a method with this name again
+    public boolean isOverridden(ClassDeclaration classDec, String methodName) {
+        for (ClassDeclaration other : classDecMap.values()) {
+            if (other == classDec || !isSubclass(other, classDec))
+                continue;
+            for (MethodDeclaration method : other.getMethodDeclarations()) {
+                if (method.getName().getName().equals(methodName))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    // the class that declares the method a call on a receiver of static type className runs
+    public ClassDeclaration getDeclaringClass(String className, Identifier methodName) {
+        ClassDeclaration classDec = classDecMap.get(className);
+        while (classDec != null) {
+            for (MethodDeclaration method : classDec.getMethodDeclarations()) {
+                if (method.getName().getName().equals(methodName.getName()))
+                    return classDec;
+            }
+            classDec = getParent(classDec);
+        }
+        return null;
+    }
+
+    // the only method a call on a receiver of static type className can run, or null if there may be several
+    public MethodDeclaration getUniqueTarget(String className, Identifier methodName) {
+        ClassDeclaration receiverClass = classDecMap.get(className);
+        ClassDeclaration declaringClass = getDeclaringClass(className, methodName);
+        if (receiverClass == null || declaringClass == null || isOverridden(receiverClass, methodName.getName()))
+            return null;
+        return declaringClass.getMethodDeclaration(methodName);
+    }
+
+    // Object is generated by hand, its methods have no smoola body
+    public static boolean isObject(ClassDeclaration classDec) {
+        return classDec.getName().getName().equals("Object");
+    }
+}
@@ -0,0 +1,156 @@
+package optimizer;
+
+import ast.node.Program;
+import ast.node.declaration.ClassDeclaration;
+import ast.node.declaration.MethodDeclaration;
+import ast.node.declaration.VarDeclaration;
+import ast.node.expression.Expression;
+import ast.node.expression.Identifier;
+import ast.node.expression.MethodCall;
+import ast.node.expression.NewClass;
+import ast.node.expression.This;
+import ast.node.statement.Assign;
+import ast.node.statement.MethodCallInMain;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+// marks classes nothing extends and methods nothing overrides final and records the single target of every call
+// site whose receiver type allows only one. methods that never use this are made static when every call to them
+// goes through this or a new object, so a call through null still throws where it did
+public class ClassHierarchyAnalyzer extends AstRewriter {
+    private HashMap<String, ClassDeclaration> classDecMap;
+    private ClassHierarchy hierarchy;
+    private int monomorphic;
+    private int staticCalls;
+
+    public ClassHierarchyAnalyzer(HashMap<String, ClassDeclaration> classDecMap) {
+        this.classDecMap = classDecMap;
+        this.hierarchy = new ClassHierarchy(classDecMap);
+    }
+
+    @Override
+    public void visit(Program program) {
+        MethodDeclaration entry = program.getMainClass().getMethodDeclaration(new Identifier("main"));
+        NullableReceivers receivers = new NullableReceivers();
+        program.accept(receivers);
+        for (ClassDeclaration classDec : classDecMap.values()) {
+            if (ClassHierarchy.isObject(classDec))
+                continue;
+            classDec.setFinal(!hierarchy.hasSubclasses(classDec));
+            for (MethodDeclaration method : classDec.getMethodDeclarations()) {
+                method.setFinal(!hierarchy.isOverridden(classDec, method.getName().getName()));
+                // JavaMain calls main through invokevirtual
+                method.setStatic(method.isFinal() && method != entry && !usesReceiver(method) &&
+                        !receivers.isCalled(method));
+            }
+        }
+        super.visit(program);
+    }
+
+    private static boolean usesReceiver(MethodDeclaration method) {
+        ReceiverUses uses = new ReceiverUses();
+        for (VarDeclaration var : method.getArgs())
+            uses.locals.add(var.getIdentifier().getName());
+        for (VarDeclaration var : method.getLocalVars())
+            uses.locals.add(var.getIdentifier().getName());
+        method.accept(uses);
+        return uses.found;
+    }
+
+    @Override
+    public void visit(MethodDeclaration methodDeclaration) {
+        monomorphic = 0;
+        staticCalls = 0;
+        super.visit(methodDeclaration);
+        curMethod = methodDeclaration;
+        if (methodDeclaration.isStatic())
+            report("class hierarchy", "is static");
+        if (monomorphic != 0)
+            report("class hierarchy", monomorphic + " monomorphic call sites, " + staticCalls + " of them static");
+        curMethod = null;
+    }
+
+    private MethodDeclaration resolve(Expression instance, Identifier methodName) {
+        if (instance.getType() == null)
+            return null;
+        MethodDeclaration target = hierarchy.getUniqueTarget(instance.getType().toString(), methodName);
+        if (target != null) {
+            monomorphic++;
+            if (target.isStatic())
+                staticCalls++;
+        }
+        return target;
+    }
+
+    @Override
+    public void visit(MethodCall methodCall) {
+        super.visit(methodCall);
+        methodCall.setTarget(resolve(methodCall.getInstance(), methodCall.getMethodName()));
+    }
+
+    @Override
+    public void visit(MethodCallInMain methodCallInMain) {
+        super.visit(methodCallInMain);
+        methodCallInMain.setTarget(resolve(methodCallInMain.getInstance(), methodCallInMain.getMethodName()));
+    }
+
+    // finds the methods called through a receiver that may be null, by name when the receiver's type is unknown
+    private class NullableReceivers extends AstRewriter {
+        private HashSet<MethodDeclaration> methods = new HashSet<>();
+        private HashSet<String> names = new HashSet<>();
+
+        boolean isCalled(MethodDeclaration method) {
+            return methods.contains(method) || names.contains(method.getName().getName());
+        }
+
+        private void called(Expression instance, Identifier methodName) {
+            if (instance instanceof This || instance instanceof NewClass)
+                return;
+            ClassDeclaration classDec = instance.getType() == null ? null :
+                    hierarchy.getDeclaringClass(instance.getType().toString(), methodName);
+            if (classDec != null)
+                methods.add(classDec.getMethodDeclaration(methodName));
+            else
+                names.add(methodName.getName());
+        }
+
+        @Override
+        public void visit(MethodCall methodCall) {
+            called(methodCall.getInstance(), methodCall.getMethodName());
+            super.visit(methodCall);
+        }
+
+        @Override
+        public void visit(MethodCallInMain methodCallInMain) {
+            called(methodCallInMain.getInstance(), methodCallInMain.getMethodName());
+            super.visit(methodCallInMain);
+        }
+    }
+
+    // finds any use of this or of a field, which is a use of this as well
+    private static class ReceiverUses extends AstRewriter {
+        private HashSet<String> locals = new HashSet<>();
+        private boolean found = false;
+
+        @Override
+        public void visit(This instance) {
+            found = true;
+            super.visit(instance);
+        }
+
+        @Override
+        public void visit(Identifier identifier) {
+            if (!locals.contains(identifier.getName()))
+                found = true;
+            super.visit(identifier);
+        }
+
+        @Override
+        public void visit(Assign assign) {
+            if (assign.getlValue() instanceof Identifier && !locals.contains(((Identifier) assign.getlValue()).getName()))
+                found = true;
+            super.visit(assign);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package optimizer;
+
+import ast.node.declaration.MethodDeclaration;
+import ast.node.expression.*;
+import ast.node.expression.Value.BooleanValue;
+import ast.node.expression.Value.IntValue;
+
+import java.util.ArrayList;
+
+// folds constant subexpressions, drops algebraic identities and gathers the constants of add/mult chains,
+// all arithmetic wraps like the jvm's and a division by a constant zero is kept so it still throws
+public class ConstantFolder extends AstRewriter {
+    private int simplified;
+
+    @Override
+    public void visit(MethodDeclaration methodDeclaration) {
+        simplified = 0;
+        super.visit(methodDeclaration);
+        curMethod = methodDeclaration;
+        if (simplified != 0)
+            report("constant folding", "simplified " + simplified + " expressions");
+        curMethod = null;
+    }
+
+    @Override
+    public void visit(UnaryExpression unaryExpression) {
+        Expression value = rewrite(unaryExpression.getValue());
+        unaryExpression.setValue(value);
+        result = unaryExpression;
+        int line = unaryExpression.getLine();
+        if (unaryExpression.getUnaryOperator() == UnaryOperator.minus) {
+            if (value instanceof IntValue)
+                result = Expressions.intValue(-((IntValue) value).getConstant(), line);
+            else if (value instanceof UnaryExpression &&
+                    ((UnaryExpression) value).getUnaryOperator() == UnaryOperator.minus)
+                result = ((UnaryExpression) value).getValue();
+        }
+        else {
+            if (value instanceof BooleanValue)
+                result = Expressions.booleanValue(!((BooleanValue) value).isConstant(), line);
+            else if (value instanceof UnaryExpression &&
+                    ((UnaryExpression) value).getUnaryOperator() == UnaryOperator.not)
+                result = ((UnaryExpression) value).getValue();
+        }
+        if (result != unaryExpression)
+            simplified++;
+    }
+
+    @Override
+    public void visit(BinaryExpression binaryExpression) {
+        binaryExpression.setLeft(rewrite(binaryExpression.getLeft()));
+        binaryExpression.setRight(rewrite(binaryExpression.getRight()));
+        Expression simple = simplify(binaryExpression);
+        if (simple == binaryExpression) {
+            BinaryOperator op = binaryExpression.getBinaryOperator();
+            if (op == BinaryOperator.add || op == BinaryOperator.sub)
+                simple = reassociateSum(binaryExpression);
+            else if (op == BinaryOperator.mult)
+                simple = reassociateProduct(binaryExpression);
+        }
+        if (simple != binaryExpression)
+            simplified++;
+        result = simple;
+    }
+
+    private Expression simplify(BinaryExpression binaryExpression) {
+        Expression left = binaryExpression.getLeft();
+        Expression right = binaryExpression.getRight();
+        int line = binaryExpression.getLine();
+        boolean constants = left instanceof IntValue && right instanceof IntValue;
+        int a = constants ? ((IntValue) left).getConstant() : 0;
+        int b = constants ? ((IntValue) right).getConstant() : 0;
+        switch (binaryExpression.getBinaryOperator()) {
+            case add:
+                if (constants)
+                    return Expressions.intValue(a + b, line);
+                if (Expressions.isInt(right, 0))
+                    return left;
+                if (Expressions.isInt(left, 0))
+                    return right;
+                break;
+            case sub:
+                if (constants)
+                    return Expressions.intValue(a - b, line);
+                if (Expressions.isInt(right, 0))
+                    return left;
+                if (Expressions.isInt(left, 0))
+                    return Expressions.unary(UnaryOperator.minus, right, line);
+                if (Expressions.same(left, right) && Expressions.isPure(left))
+                    return Expressions.intValue(0, line);
+                break;
+            case mult:
+                if (constants)
+                    return Expressions.intValue(a * b, line);
+                if (Expressions.isInt(right, 1))
+                    return left;
+                if (Expressions.isInt(left, 1))
+                    return right;
+                if (Expressions.isInt(right, -1))
+                    return Expressions.unary(UnaryOperator.minus, left, line);
+                if (Expressions.isInt(left, -1))
+                    return Expressions.unary(UnaryOperator.minus, right, line);
+                if ((Expressions.isInt(right, 0) && Expressions.isPure(left)) ||
+                        (Expressions.isInt(left, 0) && Expressions.isPure(right)))
+                    return Expressions.intValue(0, line);
+                break;
+            case div:
+                // x / 0 must still throw ArithmeticException at run time
+                if (constants && b != 0)
+                    return Expressions.intValue(a / b, line);
+                if (Expressions.isInt(right, 1))
+                    return left;
+                if (Expressions.isInt(right, -1))
+                    return Expressions.unary(UnaryOperator.minus, left, line);
+                break;
+            case and:
+                if (Expressions.isBoolean(left, true))
+                    return right;
+                if (Expressions.isBoolean(left, false))
+                    return left;
+                if (Expressions.isBoolean(right, true))
+                    return left;
+                if (Expressions.isBoolean(right, false) && Expressions.isPure(left))
+                    return right;
+                break;
+            case or:
+                if (Expressions.isBoolean(left, false))
+                    return right;
+                if (Expressions.isBoolean(left, true))
+                    return left;
+                if (Expressions.isBoolean(right, false))
+                    return left;
+                if (Expressions.isBoolean(right, true) && Expressions.isPure(left))
+                    return right;
+                break;
+            case lt:
+                if (constants)
+                    return Expressions.booleanValue(a < b, line);
+                if (Expressions.same(left, right) && Expressions.isPure(left))
+                    return Expressions.booleanValue(false, line);
+                break;
+            case gt:
+                if (constants)
+                    return Expressions.booleanValue(a > b, line);
+                if (Expressions.same(left, right) && Expressions.isPure(left))
+                    return Expressions.booleanValue(false, line);
+                break;
+            case shl:
+                if (constants)
+                    return Expressions.intValue(a << b, line);
+                break;
+            case shr:
+                if (constants)
+                    return Expressions.intValue(a >> b, line);
+                break;
+            case ushr:
+                if (constants)
+                    return Expressions.intValue(a >>> b, line);
+                break;
+            case eq:
+            case neq:
+                return simplifyEquality(binaryExpression);
+        }
+        return binaryExpression;
+    }
+
+    private Expression simplifyEquality(BinaryExpression binaryExpression) {
+        Expression left = binaryExpression.getLeft();
+        Expression right = binaryExpression.getRight();
+        int line = binaryExpression.getLine();
+        boolean equal = binaryExpression.getBinaryOperator() == BinaryOperator.eq;
+        if (!Expressions.isPrimitive(left))
+            return binaryExpression;
+        if (Expressions.isConstant(left) && Expressions.isConstant(right))
+            return Expressions.booleanValue(Expressions.same(left, right) == equal, line);
+        if (Expressions.same(left, right) && Expressions.isPure(left))
+            return Expressions.booleanValue(equal, line);
+        // b == true -> b, b == false -> !b
+        if (right instanceof BooleanValue) {
+            if (((BooleanValue) right).isConstant() == equal)
+                return left;
+            return Expressions.unary(UnaryOperator.not, left, line);
+        }
+        if (left instanceof BooleanValue) {
+            if (((BooleanValue) left).isConstant() == equal)
+                return right;
+            return Expressions.unary(UnaryOperator.not, right, line);
+        }
+        return binaryExpression;
+    }
+
+    // a + (1 + (b - 2)) -> (a + b) - 1, the other terms keep their order so side effects stay in place
+    private Expression reassociateSum(BinaryExpression binaryExpression) {
+        ArrayList<Expression> terms = new ArrayList<>();
+        ArrayList<Boolean> negated = new ArrayList<>();
+        int[] constant = {0};
+        int constantCount = collectSum(binaryExpression, false, terms, negated, constant);
+        if (constantCount < 2)
+            return binaryExpression;
+
+        int line = binaryExpression.getLine();
+        Expression sum = null;
+        for (int i = 0; i < terms.size(); i++) {
+            if (sum == null)
+                sum = negated.get(i) ? Expressions.unary(UnaryOperator.minus, terms.get(i), line) : terms.get(i);
+            else
+                sum = Expressions.binary(sum, negated.get(i) ? BinaryOperator.sub : BinaryOperator.add, terms.get(i),
+                        line);
+        }
+        if (sum == null)
+            return Expressions.intValue(constant[0], line);
+        if (constant[0] == 0)
+            return sum;
+        if (constant[0] < 0 && constant[0] != Integer.MIN_VALUE)
+            return Expressions.binary(sum, BinaryOperator.sub, Expressions.intValue(-constant[0], line), line);
+        return Expressions.binary(sum, BinaryOperator.add, Expressions.intValue(constant[0], line), line);
+    }
+
+    // returns the number of constant terms found
+    private int collectSum(Expression expression, boolean negate, ArrayList<Expression> terms,
+                           ArrayList<Boolean> negated, int[] constant) {
+        if (expression instanceof IntValue) {
+            int value = ((IntValue) expression).getConstant();
+            constant[0] += negate ? -value : value;
+            return 1;
+        }
+        if (expression instanceof BinaryExpression) {
+            BinaryExpression binaryExpression = (BinaryExpression) expression;
+            BinaryOperator op = binaryExpression.getBinaryOperator();
+            if (op == BinaryOperator.add || op == BinaryOperator.sub) {
+                int count = collectSum(binaryExpression.getLeft(), negate, terms, negated, constant);
+                return count + collectSum(binaryExpression.getRight(), negate != (op == BinaryOperator.sub), terms,
+                        negated, constant);
+            }
+        }
+        if (expression instanceof UnaryExpression &&
+                ((UnaryExpression) expression).getUnaryOperator() == UnaryOperator.minus)
+            return collectSum(((UnaryExpression) expression).getValue(), !negate, terms, negated, constant);
+        terms.add(expression);
+        negated.add(negate);
+        return 0;
+    }
+
+    // 2 * (a * 3) -> a * 6
+    private Expression reassociateProduct(BinaryExpression binaryExpression) {
+        ArrayList<Expression> factors = new ArrayList<>();
+        int[] constant = {1};
+        int constantCount = collectProduct(binaryExpression, factors, constant);
+        if (constantCount < 2)
+            return binaryExpression;
+
+        int line = binaryExpression.getLine();
+        Expression product = null;
+        boolean pure = true;
+        for (Expression factor : factors) {
+            product = product == null ? factor : Expressions.binary(product, BinaryOperator.mult, factor, line);
+            pure &= Expressions.isPure(factor);
+        }
+        if (product == null || (constant[0] == 0 && pure))
+            return Expressions.intValue(constant[0], line);
+        if (constant[0] == 1)
+            return product;
+        if (constant[0] == -1)
+            return Expressions.unary(UnaryOperator.minus, product, line);
+        return Expressions.binary(product, BinaryOperator.mult, Expressions.intValue(constant[0], line), line);
+    }
+
+    private int collectProduct(Expression expression, ArrayList<Expression> factors, int[] constant) {
+        if (expression instanceof IntValue) {
+            constant[0] *= ((IntValue) expression).getConstant();
+            return 1;
+        }
+        if (expression instanceof BinaryExpression &&
+                ((BinaryExpression) expression).getBinaryOperator() == BinaryOperator.mult) {
+            BinaryExpression binaryExpression = (BinaryExpression) expression;
+            return collectProduct(binaryExpression.getLeft(), factors, constant) +
+                    collectProduct(binaryExpression.getRight(), factors, constant);
+        }
+        factors.add(expression);
+        return 0;
+    }
+}
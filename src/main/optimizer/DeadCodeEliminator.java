@@ -0,0 +1,144 @@
+package optimizer;
+
+import ast.node.declaration.MethodDeclaration;
+import ast.node.declaration.VarDeclaration;
+import ast.node.expression.Expression;
+import ast.node.expression.Identifier;
+import ast.node.expression.MethodCall;
+import ast.node.expression.Value.BooleanValue;
+import ast.node.statement.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+// removes branches and loops a constant condition never runs, statements after loops that never exit,
+// and assignments to locals nobody reads (a method call on the right is kept for its side effects)
+public class DeadCodeEliminator extends AstRewriter {
+    private HashSet<String> locals = new HashSet<>();
+    private VariableUses uses;
+    private int removedStatements;
+
+    @Override
+    public void visit(MethodDeclaration methodDeclaration) {
+        removedStatements = 0;
+        int localCount = methodDeclaration.getLocalVars().size();
+
+        // removing one assignment can leave the variables it read unused as well
+        int before;
+        do {
+            before = removedStatements;
+            locals.clear();
+            for (VarDeclaration var : methodDeclaration.getArgs())
+                locals.add(var.getIdentifier().getName());
+            for (VarDeclaration var : methodDeclaration.getLocalVars())
+                locals.add(var.getIdentifier().getName());
+            uses = VariableUses.of(methodDeclaration);
+            super.visit(methodDeclaration);
+        } while (removedStatements != before);
+
+        uses = VariableUses.of(methodDeclaration);
+        methodDeclaration.getLocalVars().removeIf(var -> !uses.isUsed(var.getIdentifier().getName()));
+        int removedLocals = localCount - methodDeclaration.getLocalVars().size();
+
+        curMethod = methodDeclaration;
+        if (removedStatements != 0 || removedLocals != 0)
+            report("dead code", "removed " + removedStatements + " statements and " + removedLocals + " locals");
+        curMethod = null;
+    }
+
+    @Override
+    protected void rewriteStatements(ArrayList<Statement> statements) {
+        super.rewriteStatements(statements);
+        // nothing after a loop that never exits can run
+        for (int i = 0; i < statements.size(); i++) {
+            if (neverCompletes(statements.get(i))) {
+                while (statements.size() > i + 1) {
+                    statements.remove(i + 1);
+                    removedStatements++;
+                }
+            }
+        }
+    }
+
+    private static boolean neverCompletes(Statement statement) {
+        if (statement instanceof While)
+            return Expressions.isBoolean(((While) statement).getCondition(), true);
+        if (statement instanceof Block) {
+            for (Statement inner : ((Block) statement).getBody()) {
+                if (neverCompletes(inner))
+                    return true;
+            }
+            return false;
+        }
+        if (statement instanceof Conditional) {
+            Conditional conditional = (Conditional) statement;
+            return conditional.getAlternativeBody() != null && neverCompletes(conditional.getConsequenceBody()) &&
+                    neverCompletes(conditional.getAlternativeBody());
+        }
+        return false;
+    }
+
+    private static boolean isEmpty(Statement statement) {
+        return statement == null || (statement instanceof Block && ((Block) statement).getBody().isEmpty());
+    }
+
+    @Override
+    public void visit(Block block) {
+        super.visit(block);
+        // not counted, an empty body of an if or while comes back as a fresh empty block
+        if (block.getBody().isEmpty())
+            replacement = null;
+    }
+
+    @Override
+    public void visit(Conditional conditional) {
+        super.visit(conditional);
+        Expression condition = conditional.getExpression();
+        if (condition instanceof BooleanValue) {
+            replacement = ((BooleanValue) condition).isConstant() ? conditional.getConsequenceBody() :
+                    conditional.getAlternativeBody();
+            if (isEmpty(replacement))
+                replacement = null;
+            removedStatements++;
+        }
+        else if (isEmpty(conditional.getConsequenceBody()) && isEmpty(conditional.getAlternativeBody()) &&
+                Expressions.isPure(condition)) {
+            replacement = null;
+            removedStatements++;
+        }
+    }
+
+    @Override
+    public void visit(While loop) {
+        super.visit(loop);
+        if (Expressions.isBoolean(loop.getCondition(), false)) {
+            replacement = null;
+            removedStatements++;
+        }
+    }
+
+    @Override
+    public void visit(Assign assign) {
+        super.visit(assign);
+        if (!(assign.getlValue() instanceof Identifier))
+            return;
+        String name = ((Identifier) assign.getlValue()).getName();
+        if (!locals.contains(name) || uses.getReads(name) != 0)
+            return;
+        Expression rValue = assign.getrValue();
+        if (Expressions.isPure(rValue)) {
+            replacement = null;
+            removedStatements++;
+        }
+        else if (rValue instanceof MethodCall) {
+            // keep the call, drop the store of its result
+            MethodCall methodCall = (MethodCall) rValue;
+            MethodCallInMain call = new MethodCallInMain(methodCall.getInstance(), methodCall.getMethodName());
+            for (Expression arg : methodCall.getArgs())
+                call.addArg(arg);
+            call.setLine(assign.getLine());
+            replacement = call;
+            removedStatements++;
+        }
+    }
+}
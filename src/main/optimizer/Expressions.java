@@ -0,0 +1,159 @@
+package optimizer;
+
+import ast.Type.PrimitiveType.BooleanType;
+import ast.Type.PrimitiveType.IntType;
+import ast.Type.PrimitiveType.StringType;
+import ast.Type.Type;
+import ast.node.declaration.MethodDeclaration;
+import ast.node.declaration.VarDeclaration;
+import ast.node.expression.*;
+import ast.node.expression.Value.BooleanValue;
+import ast.node.expression.Value.IntValue;
+import ast.node.expression.Value.StringValue;
+import ast.node.statement.Assign;
+
+import java.util.HashSet;
+
+// helpers shared by the ast passes
+public class Expressions {
+    public static boolean isInt(Expression expression, int value) {
+        return expression instanceof IntValue && ((IntValue) expression).getConstant() == value;
+    }
+
+    public static boolean isBoolean(Expression expression, boolean value) {
+        return expression instanceof BooleanValue && ((BooleanValue) expression).isConstant() == value;
+    }
+
+    public static boolean isConstant(Expression expression) {
+        return expression instanceof IntValue || expression instanceof BooleanValue;
+    }
+
+    public static IntValue intValue(int value, int line) {
+        IntValue intValue = new IntValue(value, new IntType());
+        intValue.setLine(line);
+        return intValue;
+    }
+
+    public static BooleanValue booleanValue(boolean value, int line) {
+        BooleanValue booleanValue = new BooleanValue(value, new BooleanType());
+        booleanValue.setLine(line);
+        return booleanValue;
+    }
+
+    // the value a local or field of this type starts with, null for arrays and objects
+    public static Expression zero(Type type, int line) {
+        if (type instanceof IntType)
+            return intValue(0, line);
+        if (type instanceof BooleanType)
+            return booleanValue(false, line);
+        if (!(type instanceof StringType))
+            return null;
+        StringValue zero = new StringValue("\"\"", new StringType());
+        zero.setLine(line);
+        return zero;
+    }
+
+    public static BinaryExpression binary(Expression left, BinaryOperator op, Expression right, int line) {
+        BinaryExpression binaryExpression = new BinaryExpression(left, right, op);
+        binaryExpression.setType(op.isArithmetic() ? new IntType() : new BooleanType());
+        binaryExpression.setLine(line);
+        return binaryExpression;
+    }
+
+    public static Identifier identifier(String name, Type type, int line) {
+        Identifier identifier = new Identifier(name);
+        identifier.setType(type);
+        identifier.setLine(line);
+        return identifier;
+    }
+
+    public static Assign assign(String name, Type type, Expression value, int line) {
+        Assign assign = new Assign(identifier(name, type, line), value);
+        assign.setLine(line);
+        return assign;
+    }
+
+    // declares a local the source can not name, identifiers never contain a '$'
+    public static String newLocal(MethodDeclaration methodDeclaration, String prefix, Type type) {
+        HashSet<String> names = new HashSet<>();
+        for (VarDeclaration var : methodDeclaration.getArgs())
+            names.add(var.getIdentifier().getName());
+        for (VarDeclaration var : methodDeclaration.getLocalVars())
+            names.add(var.getIdentifier().getName());
+        int index = 0;
+        while (names.contains(prefix + "$" + index))
+            index++;
+        String name = prefix + "$" + index;
+        methodDeclaration.addLocalVar(new VarDeclaration(new Identifier(name), type));
+        return name;
+    }
+
+    public static UnaryExpression unary(UnaryOperator op, Expression value, int line) {
+        UnaryExpression unaryExpression = new UnaryExpression(op, value);
+        unaryExpression.setType(value.getType());
+        unaryExpression.setLine(line);
+        return unaryExpression;
+    }
+
+    // true if evaluating the expression can neither throw, call a method, allocate nor write anything,
+    // so it may be dropped, duplicated or moved without changing what the program does
+    public static boolean isPure(Expression expression) {
+        if (expression instanceof IntValue || expression instanceof BooleanValue ||
+                expression instanceof StringValue || expression instanceof Identifier || expression instanceof This)
+            return true;
+        if (expression instanceof UnaryExpression)
+            return isPure(((UnaryExpression) expression).getValue());
+        if (expression instanceof BinaryExpression) {
+            BinaryExpression binaryExpression = (BinaryExpression) expression;
+            BinaryOperator op = binaryExpression.getBinaryOperator();
+            if (op == BinaryOperator.assign)
+                return false;
+            // idiv throws on a zero divisor, == on objects calls equals
+            if (op == BinaryOperator.div && (!(binaryExpression.getRight() instanceof IntValue) ||
+                    isInt(binaryExpression.getRight(), 0)))
+                return false;
+            if ((op == BinaryOperator.eq || op == BinaryOperator.neq) && !isPrimitive(binaryExpression.getLeft()))
+                return false;
+            return isPure(binaryExpression.getLeft()) && isPure(binaryExpression.getRight());
+        }
+        return false;
+    }
+
+    public static boolean isPrimitive(Expression expression) {
+        return expression.getType() != null &&
+                (expression.getType().subtype(new IntType()) || expression.getType().subtype(new BooleanType()));
+    }
+
+    // structural equality, two pure expressions that are the same evaluate to the same value
+    public static boolean same(Expression a, Expression b) {
+        if (a == b)
+            return true;
+        if (a == null || b == null || a.getClass() != b.getClass())
+            return false;
+        if (a instanceof IntValue)
+            return ((IntValue) a).getConstant() == ((IntValue) b).getConstant();
+        if (a instanceof BooleanValue)
+            return ((BooleanValue) a).isConstant() == ((BooleanValue) b).isConstant();
+        if (a instanceof StringValue)
+            return ((StringValue) a).getConstant().equals(((StringValue) b).getConstant());
+        if (a instanceof Identifier)
+            return ((Identifier) a).getName().equals(((Identifier) b).getName());
+        if (a instanceof This)
+            return true;
+        if (a instanceof UnaryExpression)
+            return ((UnaryExpression) a).getUnaryOperator() == ((UnaryExpression) b).getUnaryOperator() &&
+                    same(((UnaryExpression) a).getValue(), ((UnaryExpression) b).getValue());
+        if (a instanceof BinaryExpression) {
+            BinaryExpression x = (BinaryExpression) a;
+            BinaryExpression y = (BinaryExpression) b;
+            return x.getBinaryOperator() == y.getBinaryOperator() &&
+                    same(x.getLeft(), y.getLeft()) && same(x.getRight(), y.getRight());
+        }
+        if (a instanceof ArrayCall)
+            return same(((ArrayCall) a).getInstance(), ((ArrayCall) b).getInstance()) &&
+                    same(((ArrayCall) a).getIndex(), ((ArrayCall) b).getIndex());
+        if (a instanceof Length)
+            return same(((Length) a).getExpression(), ((Length) b).getExpression());
+        return false;
+    }
+}
@@ -0,0 +1,174 @@
+package optimizer;
+
+import ast.node.Program;
+import ast.node.declaration.ClassDeclaration;
+import ast.node.declaration.MethodDeclaration;
+import ast.node.declaration.VarDeclaration;
+import ast.node.expression.*;
+import ast.node.statement.*;
+import profile.Profile;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+// replaces calls on this to small methods that call nothing themselves with a copy of their body,
+// callee arguments and locals become fresh locals of the caller. with a profile, calls it never saw made stay
+// calls and hot ones may copy callees twice the size. the calls it looks at are all still where the source has
+// them, callees with calls of their own are never copied
+public class Inliner extends AstRewriter {
+    private static final int MAX_ROUNDS = 3;
+    // ast nodes of a callee that is copied into a statement, and of one that is only a return expression
+    private static final int MAX_BODY_SIZE = 60;
+    private static final int MAX_EXPRESSION_SIZE = 12;
+    // how many nodes inlining may add to a single caller
+    private static final int MAX_GROWTH = 400;
+
+    private ClassHierarchy hierarchy;
+    private Profile profile;
+    private HashSet<String> callerNames = new HashSet<>();
+    private boolean changed;
+    private int growth;
+    private int inlined;
+    // calls left alone for the profile, each is reported in the first round it is seen
+    private HashSet<Expression> coldCalls = new HashSet<>();
+    private int cold;
+
+    // profile is null without --profile-use
+    public Inliner(HashMap<String, ClassDeclaration> classDecMap, Profile profile) {
+        this.hierarchy = new ClassHierarchy(classDecMap);
+        this.profile = profile;
+    }
+
+    @Override
+    public void visit(Program program) {
+        // a caller that only called leaves becomes a leaf itself and can be inlined in the next round
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            changed = false;
+            super.visit(program);
+            if (!changed)
+                break;
+        }
+    }
+
+    @Override
+    public void visit(MethodDeclaration methodDeclaration) {
+        inlined = 0;
+        cold = 0;
+        growth = 0;
+        callerNames.clear();
+        for (VarDeclaration var : methodDeclaration.getArgs())
+            callerNames.add(var.getIdentifier().getName());
+        for (VarDeclaration var : methodDeclaration.getLocalVars())
+            callerNames.add(var.getIdentifier().getName());
+        super.visit(methodDeclaration);
+        curMethod = methodDeclaration;
+        if (inlined != 0)
+            report("inlining", "inlined " + inlined + " calls");
+        if (cold != 0)
+            report("inlining", "left " + cold + " calls the profile never saw made");
+        curMethod = null;
+    }
+
+    private MethodDeclaration getTarget(Expression instance, Identifier methodName) {
+        if (!(instance instanceof This) || instance.getType() == null)
+            return null;
+        String className = instance.getType().toString();
+        MethodDeclaration target = hierarchy.getUniqueTarget(className, methodName);
+        if (target == null || target == curMethod ||
+                ClassHierarchy.isObject(hierarchy.getDeclaringClass(className, methodName)))
+            return null;
+        return target;
+    }
+
+    // how many times the usual size a callee copied to this call may have, 0 when it is not to be inlined
+    private int getBudgetScale(Expression call) {
+        if (profile == null)
+            return 1;
+        long count = profile.getCount(Profile.CALL, curClass.getName().getName(), curMethod.getName().getName(),
+                call.getLine());
+        if (count == 0) {
+            if (coldCalls.add(call))
+                cold++;
+            return 0;
+        }
+        return profile.isHot(Profile.CALL, count) ? 2 : 1;
+    }
+
+    // a callee can be copied into this method if it calls nothing and none of the fields it uses
+    // is hidden by a local of the caller
+    private boolean canInline(MethodDeclaration callee, CalleeInfo info, int budget) {
+        if (info.getSize() > budget || growth + info.getSize() > MAX_GROWTH)
+            return false;
+        if (info.hasCalls())
+            return false;
+        HashSet<String> calleeNames = new HashSet<>();
+        for (VarDeclaration var : callee.getArgs())
+            calleeNames.add(var.getIdentifier().getName());
+        for (VarDeclaration var : callee.getLocalVars())
+            calleeNames.add(var.getIdentifier().getName());
+        for (String name : info.getNames()) {
+            if (!calleeNames.contains(name) && callerNames.contains(name))
+                return false;
+        }
+        return true;
+    }
+
+    // a callee that is just a return expression and gets pure arguments is substituted in place
+    @Override
+    public void visit(MethodCall methodCall) {
+        super.visit(methodCall);
+        MethodDeclaration callee = getTarget(methodCall.getInstance(), methodCall.getMethodName());
+        if (callee == null || !callee.getBody().isEmpty() || !callee.getLocalVars().isEmpty())
+            return;
+        for (Expression arg : methodCall.getArgs()) {
+            if (!Expressions.isPure(arg))
+                return;
+        }
+        int scale = getBudgetScale(methodCall);
+        CalleeInfo info = CalleeInfo.of(callee);
+        if (scale == 0 || info.assignsArgs() || !canInline(callee, info, scale * MAX_EXPRESSION_SIZE))
+            return;
+        HashMap<String, Expression> substitutions = new HashMap<>();
+        for (int i = 0; i < callee.getArgs().size(); i++)
+            substitutions.put(callee.getArgs().get(i).getIdentifier().getName(), methodCall.getArgs().get(i));
+        result = new AstCopier(substitutions).copy(callee.getReturnValue());
+        growth += info.getSize();
+        inlined++;
+        changed = true;
+    }
+
+    @Override
+    protected Statement rewrite(Statement statement) {
+        Statement rewritten = super.rewrite(statement);
+        ArrayList<Statement> expansion = expand(rewritten);
+        if (expansion == null)
+            return rewritten;
+        Block block = new Block();
+        for (Statement inner : expansion)
+            block.addStatement(inner);
+        block.setLine(rewritten.getLine());
+        return block;
+    }
+
+    // the statement with its call replaced by the callee's body, or null if it has no call that can be inlined
+    private ArrayList<Statement> expand(Statement statement) {
+        MethodCall call = CallExpansion.findCall(statement);
+        if (call == null)
+            return null;
+        MethodDeclaration callee = getTarget(call.getInstance(), call.getMethodName());
+        if (callee == null)
+            return null;
+        int scale = getBudgetScale(call);
+        CalleeInfo info = CalleeInfo.of(callee);
+        if (scale == 0 || !canInline(callee, info, scale * MAX_BODY_SIZE))
+            return null;
+        ArrayList<Statement> expansion = CallExpansion.expand(curMethod, statement, call, callee, new HashMap<>());
+        for (VarDeclaration var : curMethod.getLocalVars())
+            callerNames.add(var.getIdentifier().getName());
+        growth += info.getSize();
+        inlined++;
+        changed = true;
+        return expansion;
+    }
+}
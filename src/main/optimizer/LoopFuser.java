@@ -0,0 +1,317 @@
+package optimizer;
+
+import ast.Type.PrimitiveType.IntType;
+import ast.node.declaration.MethodDeclaration;
+import ast.node.declaration.VarDeclaration;
+import ast.node.expression.*;
+import ast.node.expression.Value.IntValue;
+import ast.node.statement.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+// works on loops that follow each other. a loop whose condition the loop right before it just left false, with
+// nothing in between, never runs and is removed. two counting loops
+//
+//     i = s; while (i < n) { a; i = i + 1; }  j = s; while (j < n) { b; j = j + 1; }
+//
+// run as one, i = s; j = s; while (i < n) { a; b; i = i + 1; j = j + 1; }, when doing a and b turn by turn
+// can not be told apart from doing all of a first: neither body calls, prints or allocates, no variable one
+// of them writes is used by the other, every array access is known to stay in bounds and, if any array is
+// written, every access is to the element of the current turn
+public class LoopFuser extends AstRewriter {
+    private HashSet<String> locals = new HashSet<>();
+    private int fused;
+    private int removed;
+
+    @Override
+    public void visit(MethodDeclaration methodDeclaration) {
+        fused = 0;
+        removed = 0;
+        locals.clear();
+        for (VarDeclaration var : methodDeclaration.getArgs())
+            locals.add(var.getIdentifier().getName());
+        for (VarDeclaration var : methodDeclaration.getLocalVars())
+            locals.add(var.getIdentifier().getName());
+        super.visit(methodDeclaration);
+        curMethod = methodDeclaration;
+        if (fused != 0 || removed != 0)
+            report("loop fusion", "fused " + fused + " loops, removed " + removed + " loops that never run");
+        curMethod = null;
+    }
+
+    @Override
+    protected void rewriteStatements(ArrayList<Statement> statements) {
+        super.rewriteStatements(statements);
+        int i = 0;
+        while (i < statements.size()) {
+            if (i + 1 < statements.size() && statements.get(i) instanceof While &&
+                    statements.get(i + 1) instanceof While &&
+                    isFalseAfter(((While) statements.get(i)).getCondition(),
+                            ((While) statements.get(i + 1)).getCondition())) {
+                statements.remove(i + 1);
+                removed++;
+            }
+            else if (i + 3 < statements.size() && fuse(statements, i))
+                fused++;
+            else
+                i++;
+        }
+    }
+
+    // whether condition is false when tested right after a loop that ran while previous held
+    private static boolean isFalseAfter(Expression previous, Expression condition) {
+        if (isRepeatable(condition) && Expressions.same(previous, condition))
+            return true;
+        if (!(condition instanceof BinaryExpression) ||
+                ((BinaryExpression) condition).getBinaryOperator() != BinaryOperator.and)
+            return false;
+        // the left side of && is always evaluated, the right side only when the left is true
+        BinaryExpression and = (BinaryExpression) condition;
+        return isFalseAfter(previous, and.getLeft()) ||
+                Expressions.isPure(and.getLeft()) && isFalseAfter(previous, and.getRight());
+    }
+
+    // evaluating it again with nothing changed since gives the same value, and does not throw if it did not the
+    // first time
+    private static boolean isRepeatable(Expression expression) {
+        if (expression instanceof ArrayCall)
+            return isRepeatable(((ArrayCall) expression).getInstance()) &&
+                    isRepeatable(((ArrayCall) expression).getIndex());
+        if (expression instanceof Length)
+            return isRepeatable(((Length) expression).getExpression());
+        if (expression instanceof UnaryExpression)
+            return isRepeatable(((UnaryExpression) expression).getValue());
+        if (expression instanceof BinaryExpression) {
+            BinaryExpression binaryExpression = (BinaryExpression) expression;
+            BinaryOperator op = binaryExpression.getBinaryOperator();
+            if (op == BinaryOperator.assign || (op == BinaryOperator.eq || op == BinaryOperator.neq) &&
+                    !Expressions.isPrimitive(binaryExpression.getLeft()))
+                return false;
+            return isRepeatable(binaryExpression.getLeft()) && isRepeatable(binaryExpression.getRight());
+        }
+        return Expressions.isPure(expression);
+    }
+
+    // statements[i..i + 3] as two counting loops, each after the assignment that starts its variable
+    private boolean fuse(ArrayList<Statement> statements, int i) {
+        CountingLoop first = CountingLoop.of(statements.get(i), statements.get(i + 1));
+        CountingLoop second = CountingLoop.of(statements.get(i + 2), statements.get(i + 3));
+        if (first == null || second == null || !Expressions.same(first.start, second.start) ||
+                !Expressions.same(first.bound, second.bound) || !locals.contains(first.variable) ||
+                !locals.contains(second.variable))
+            return false;
+
+        Effects firstEffects = new Effects(first.variable);
+        Effects secondEffects = new Effects(second.variable);
+        for (Statement statement : first.body)
+            firstEffects.rewrite(statement);
+        for (Statement statement : second.body)
+            secondEffects.rewrite(statement);
+        if (!firstEffects.safe || !secondEffects.safe)
+            return false;
+        // the second loop starts and ends where the first did
+        Effects limits = new Effects(null);
+        limits.rewrite(first.start);
+        limits.rewrite(first.bound);
+        if (!limits.safe || firstEffects.writesAny(limits.read) || secondEffects.writesAny(limits.read) ||
+                limits.uses(first.variable) || limits.uses(second.variable))
+            return false;
+        if (firstEffects.writesAny(secondEffects.read) || firstEffects.writesAny(secondEffects.written) ||
+                secondEffects.writesAny(firstEffects.read))
+            return false;
+        if (!first.variable.equals(second.variable) && (firstEffects.uses(second.variable) ||
+                secondEffects.uses(first.variable)))
+            return false;
+        if ((firstEffects.writesArrays || secondEffects.writesArrays) &&
+                (!firstEffects.accessesCurrent || !secondEffects.accessesCurrent))
+            return false;
+
+        Block body = new Block();
+        for (Statement statement : first.body)
+            body.addStatement(statement);
+        for (Statement statement : second.body)
+            body.addStatement(statement);
+        body.addStatement(first.step);
+        if (!first.variable.equals(second.variable))
+            body.addStatement(second.step);
+        first.loop.setBody(body);
+        statements.remove(i + 3);
+        if (first.variable.equals(second.variable))
+            statements.remove(i + 2);
+        else {
+            // the second variable is started before the loop now
+            statements.set(i + 1, statements.get(i + 2));
+            statements.set(i + 2, first.loop);
+        }
+        return true;
+    }
+
+    // v = start; while (v < bound) { body; v = v + 1; }
+    private static class CountingLoop {
+        private String variable;
+        private Expression start;
+        private Expression bound;
+        private While loop;
+        private ArrayList<Statement> body = new ArrayList<>();
+        private Assign step;
+
+        static CountingLoop of(Statement init, Statement statement) {
+            if (!(init instanceof Assign) || !(statement instanceof While))
+                return null;
+            Assign assign = (Assign) init;
+            While loop = (While) statement;
+            if (!(assign.getlValue() instanceof Identifier) || !(assign.getlValue().getType() instanceof IntType) ||
+                    !(loop.getCondition() instanceof BinaryExpression))
+                return null;
+            CountingLoop counting = new CountingLoop();
+            counting.variable = ((Identifier) assign.getlValue()).getName();
+            counting.start = assign.getrValue();
+            counting.loop = loop;
+            BinaryExpression condition = (BinaryExpression) loop.getCondition();
+            if (condition.getBinaryOperator() != BinaryOperator.lt || !isVariable(condition.getLeft(), counting.variable))
+                return null;
+            counting.bound = condition.getRight();
+
+            if (loop.getBody() instanceof Block)
+                counting.body.addAll(((Block) loop.getBody()).getBody());
+            else
+                counting.body.add(loop.getBody());
+            if (counting.body.isEmpty() || !(counting.body.get(counting.body.size() - 1) instanceof Assign))
+                return null;
+            counting.step = (Assign) counting.body.remove(counting.body.size() - 1);
+            if (!isVariable(counting.step.getlValue(), counting.variable) ||
+                    !(counting.step.getrValue() instanceof BinaryExpression))
+                return null;
+            BinaryExpression step = (BinaryExpression) counting.step.getrValue();
+            if (step.getBinaryOperator() != BinaryOperator.add || !isVariable(step.getLeft(), counting.variable) ||
+                    !Expressions.isInt(step.getRight(), 1))
+                return null;
+            return counting;
+        }
+
+        private static boolean isVariable(Expression expression, String name) {
+            return expression instanceof Identifier && ((Identifier) expression).getName().equals(name);
+        }
+    }
+
+    // what the body of a counting loop reads and writes, and whether it could be interleaved with another one
+    private static class Effects extends AstRewriter {
+        private String variable;
+        private HashSet<String> read = new HashSet<>();
+        private HashSet<String> written = new HashSet<>();
+        private boolean safe = true;
+        private boolean writesArrays = false;
+        // every array access is at the loop variable
+        private boolean accessesCurrent = true;
+
+        Effects(String variable) {
+            this.variable = variable;
+        }
+
+        boolean writesAny(HashSet<String> names) {
+            for (String name : names) {
+                if (written.contains(name))
+                    return true;
+            }
+            return false;
+        }
+
+        boolean uses(String name) {
+            return read.contains(name) || written.contains(name);
+        }
+
+        @Override
+        public void visit(Identifier identifier) {
+            read.add(identifier.getName());
+            result = identifier;
+        }
+
+        @Override
+        public void visit(Assign assign) {
+            write(assign.getlValue());
+            assign.setrValue(rewrite(assign.getrValue()));
+            replacement = assign;
+        }
+
+        // the target of an assignment, a statement or one nested in an expression like s = t = t + 1
+        private void write(Expression lValue) {
+            if (lValue instanceof Identifier) {
+                String name = ((Identifier) lValue).getName();
+                written.add(name);
+                if (name.equals(variable))
+                    safe = false;
+            }
+            else if (lValue instanceof ArrayCall) {
+                writesArrays = true;
+                visit((ArrayCall) lValue);
+            }
+            else
+                safe = false;
+        }
+
+        @Override
+        public void visit(ArrayCall arrayCall) {
+            if (!arrayCall.isInBounds())
+                safe = false;
+            if (!(arrayCall.getIndex() instanceof Identifier) ||
+                    !((Identifier) arrayCall.getIndex()).getName().equals(variable))
+                accessesCurrent = false;
+            super.visit(arrayCall);
+        }
+
+        @Override
+        public void visit(BinaryExpression binaryExpression) {
+            BinaryOperator op = binaryExpression.getBinaryOperator();
+            if (op == BinaryOperator.assign) {
+                write(binaryExpression.getLeft());
+                binaryExpression.setRight(rewrite(binaryExpression.getRight()));
+                result = binaryExpression;
+                return;
+            }
+            if (op == BinaryOperator.div && !(binaryExpression.getRight() instanceof IntValue &&
+                    !Expressions.isInt(binaryExpression.getRight(), 0)))
+                safe = false;
+            if ((op == BinaryOperator.eq || op == BinaryOperator.neq) &&
+                    !Expressions.isPrimitive(binaryExpression.getLeft()))
+                safe = false;
+            super.visit(binaryExpression);
+        }
+
+        @Override
+        public void visit(Length length) {
+            safe = false;
+            super.visit(length);
+        }
+
+        @Override
+        public void visit(MethodCall methodCall) {
+            safe = false;
+            super.visit(methodCall);
+        }
+
+        @Override
+        public void visit(MethodCallInMain methodCallInMain) {
+            safe = false;
+            super.visit(methodCallInMain);
+        }
+
+        @Override
+        public void visit(NewArray newArray) {
+            safe = false;
+            super.visit(newArray);
+        }
+
+        @Override
+        public void visit(NewClass newClass) {
+            safe = false;
+            super.visit(newClass);
+        }
+
+        @Override
+        public void visit(Write write) {
+            safe = false;
+            super.visit(write);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package optimizer;
+
+import ast.node.declaration.MethodDeclaration;
+import ast.node.declaration.VarDeclaration;
+import ast.node.expression.*;
+import ast.node.expression.Value.BooleanValue;
+import ast.node.expression.Value.IntValue;
+import ast.node.statement.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+// computes expressions that do not change while a loop runs once before the loop, into fresh locals
+public class LoopInvariantMover extends AstRewriter {
+    private HashSet<String> locals = new HashSet<>();
+    private int hoisted;
+
+    @Override
+    public void visit(MethodDeclaration methodDeclaration) {
+        hoisted = 0;
+        locals.clear();
+        for (VarDeclaration var : methodDeclaration.getArgs())
+            locals.add(var.getIdentifier().getName());
+        for (VarDeclaration var : methodDeclaration.getLocalVars())
+            locals.add(var.getIdentifier().getName());
+        super.visit(methodDeclaration);
+        curMethod = methodDeclaration;
+        if (hoisted != 0)
+            report("loop invariant code motion", "hoisted " + hoisted + " expressions");
+        curMethod = null;
+    }
+
+    @Override
+    public void visit(While loop) {
+        Statement moved = hoist(loop);
+        super.visit(loop);
+        replacement = moved;
+    }
+
+    private Statement hoist(While loop) {
+        LoopEffects effects = new LoopEffects();
+        effects.rewrite(loop.getCondition());
+        effects.rewrite(loop.getBody());
+
+        // expressions that may throw are only moved if the first test of the condition evaluates them
+        // before anything else that could throw or have a side effect
+        HashSet<Expression> evaluatedFirst = new HashSet<>();
+        collectEvaluatedFirst(loop.getCondition(), effects, evaluatedFirst, new boolean[]{true});
+
+        Hoister hoister = new Hoister(effects, evaluatedFirst);
+        loop.setCondition(hoister.rewrite(loop.getCondition()));
+        loop.setBody(hoister.rewrite(loop.getBody()));
+        if (hoister.assignments.isEmpty())
+            return loop;
+
+        Block block = new Block();
+        for (Assign assign : hoister.assignments)
+            block.addStatement(assign);
+        block.addStatement(loop);
+        hoisted += hoister.assignments.size();
+        return block;
+    }
+
+    // walks the condition in evaluation order, clean stays true while everything so far could be reordered
+    private void collectEvaluatedFirst(Expression expression, LoopEffects effects, HashSet<Expression> evaluatedFirst,
+                                       boolean[] clean) {
+        if (!clean[0])
+            return;
+        if (expression instanceof BinaryExpression) {
+            BinaryExpression binaryExpression = (BinaryExpression) expression;
+            collectEvaluatedFirst(binaryExpression.getLeft(), effects, evaluatedFirst, clean);
+            // the right side of && and || may be skipped
+            BinaryOperator op = binaryExpression.getBinaryOperator();
+            if (op == BinaryOperator.and || op == BinaryOperator.or)
+                clean[0] = false;
+            else
+                collectEvaluatedFirst(binaryExpression.getRight(), effects, evaluatedFirst, clean);
+            if (!Expressions.isPure(binaryExpression))
+                clean[0] = false;
+        }
+        else if (expression instanceof UnaryExpression) {
+            collectEvaluatedFirst(((UnaryExpression) expression).getValue(), effects, evaluatedFirst, clean);
+        }
+        else if (expression instanceof Length) {
+            Expression array = ((Length) expression).getExpression();
+            collectEvaluatedFirst(array, effects, evaluatedFirst, clean);
+            if (clean[0] && isInvariant(array, effects))
+                evaluatedFirst.add(expression);
+            else
+                clean[0] = false;
+        }
+        else if (!Expressions.isPure(expression)) {
+            clean[0] = false;
+        }
+    }
+
+    private boolean isInvariant(Expression expression, LoopEffects effects) {
+        if (expression instanceof IntValue || expression instanceof BooleanValue || expression instanceof This)
+            return true;
+        if (expression instanceof Identifier) {
+            String name = ((Identifier) expression).getName();
+            if (locals.contains(name))
+                return !effects.written.contains(name);
+            // a field, any call may change it
+            return !effects.written.contains(name) && !effects.hasCalls;
+        }
+        if (expression instanceof UnaryExpression)
+            return isInvariant(((UnaryExpression) expression).getValue(), effects);
+        if (expression instanceof BinaryExpression) {
+            BinaryExpression binaryExpression = (BinaryExpression) expression;
+            BinaryOperator op = binaryExpression.getBinaryOperator();
+            if (op == BinaryOperator.assign)
+                return false;
+            if (op == BinaryOperator.div && !(binaryExpression.getRight() instanceof IntValue &&
+                    !Expressions.isInt(binaryExpression.getRight(), 0)))
+                return false;
+            if ((op == BinaryOperator.eq || op == BinaryOperator.neq) && !Expressions.isPrimitive(binaryExpression.getLeft()))
+                return false;
+            return isInvariant(binaryExpression.getLeft(), effects) && isInvariant(binaryExpression.getRight(), effects);
+        }
+        if (expression instanceof Length)
+            return isInvariant(((Length) expression).getExpression(), effects);
+        return false;
+    }
+
+    // what a loop writes: local and field names that are assigned, and whether it calls any method
+    private static class LoopEffects extends AstRewriter {
+        private HashSet<String> written = new HashSet<>();
+        private boolean hasCalls = false;
+
+        @Override
+        public void visit(Assign assign) {
+            if (assign.getlValue() instanceof Identifier)
+                written.add(((Identifier) assign.getlValue()).getName());
+            super.visit(assign);
+        }
+
+        // an assignment nested in an expression, like c = l = l + 10
+        @Override
+        public void visit(BinaryExpression binaryExpression) {
+            if (binaryExpression.getBinaryOperator() == BinaryOperator.assign &&
+                    binaryExpression.getLeft() instanceof Identifier)
+                written.add(((Identifier) binaryExpression.getLeft()).getName());
+            super.visit(binaryExpression);
+        }
+
+        @Override
+        public void visit(MethodCall methodCall) {
+            hasCalls = true;
+            super.visit(methodCall);
+        }
+
+        @Override
+        public void visit(MethodCallInMain methodCallInMain) {
+            hasCalls = true;
+            super.visit(methodCallInMain);
+        }
+    }
+
+    // replaces the largest invariant subexpressions worth a local with reads of that local
+    private class Hoister extends AstRewriter {
+        private LoopEffects effects;
+        private HashSet<Expression> evaluatedFirst;
+        private ArrayList<Assign> assignments = new ArrayList<>();
+
+        Hoister(LoopEffects effects, HashSet<Expression> evaluatedFirst) {
+            this.effects = effects;
+            this.evaluatedFirst = evaluatedFirst;
+        }
+
+        private boolean hoist(Expression expression) {
+            if (!isInvariant(expression, effects))
+                return false;
+            if (expression instanceof Length && !evaluatedFirst.contains(expression))
+                return false;
+            if (!(expression instanceof Length) && !Expressions.isPure(expression))
+                return false;
+            // constants, locals and this are already as cheap as a local read
+            if (expression instanceof IntValue || expression instanceof BooleanValue ||
+                    expression instanceof This ||
+                    (expression instanceof Identifier && locals.contains(((Identifier) expression).getName())))
+                return false;
+            int line = expression.getLine();
+            for (Assign assign : assignments) {
+                if (Expressions.same(assign.getrValue(), expression)) {
+                    String name = ((Identifier) assign.getlValue()).getName();
+                    result = Expressions.identifier(name, expression.getType(), line);
+                    return true;
+                }
+            }
+            String name = Expressions.newLocal(LoopInvariantMover.this.curMethod, "inv", expression.getType());
+            locals.add(name);
+            assignments.add(Expressions.assign(name, expression.getType(), expression, line));
+            result = Expressions.identifier(name, expression.getType(), line);
+            return true;
+        }
+
+        @Override
+        public void visit(BinaryExpression binaryExpression) {
+            if (!hoist(binaryExpression))
+                super.visit(binaryExpression);
+        }
+
+        @Override
+        public void visit(UnaryExpression unaryExpression) {
+            if (!hoist(unaryExpression))
+                super.visit(unaryExpression);
+        }
+
+        @Override
+        public void visit(Identifier identifier) {
+            if (!hoist(identifier))
+                super.visit(identifier);
+        }
+
+        @Override
+        public void visit(Length length) {
+            if (!hoist(length))
+                super.visit(length);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package optimizer;
+
+import ast.node.Program;
+import ast.node.declaration.ClassDeclaration;
+import profile.Profile;
+
+import java.util.HashMap;
+
+// runs the ast passes between type checking and code generation
+public class Optimizer {
+    private HashMap<String, ClassDeclaration> classDecMap;
+    private boolean optimizationReport = false;
+    private Profile profile;
+
+    public void setClassDecMap(HashMap<String, ClassDeclaration> classDecMap) { this.classDecMap = classDecMap; }
+
+    public void setOptimizationReport(boolean optimizationReport) { this.optimizationReport = optimizationReport; }
+
+    public void setProfile(Profile profile) { this.profile = profile; }
+
+    public void optimize(Program program) {
+        run(new Inliner(classDecMap, profile), program);
+        run(new ScalarReplacer(classDecMap), program);
+        run(new ArrayLengthAnalyzer(classDecMap), program);
+        run(new ConstantFolder(), program);
+        run(new DeadCodeEliminator(), program);
+        run(new LoopFuser(), program);
+        run(new LoopInvariantMover(), program);
+        run(new StrengthReducer(), program);
+        run(new TreeShaker(classDecMap), program);
+        run(new ClassHierarchyAnalyzer(classDecMap), program);
+    }
+
+    private void run(AstRewriter pass, Program program) {
+        pass.setOptimizationReport(optimizationReport);
+        program.accept(pass);
+    }
+}
@@ -0,0 +1,297 @@
+package optimizer;
+
+import ast.Type.UserDefinedType.UserDefinedType;
+import ast.node.declaration.ClassDeclaration;
+import ast.node.declaration.MethodDeclaration;
+import ast.node.declaration.VarDeclaration;
+import ast.node.expression.*;
+import ast.node.statement.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+// escape analysis: an object that a local gets from new and that is only ever used as the receiver of calls
+// never leaves its method, so when the methods it runs call nothing and do not use this, its fields become
+// locals of the method and every call is replaced by the body it would run
+public class ScalarReplacer extends AstRewriter {
+    // ast nodes of a method whose body is copied into a call site
+    private static final int MAX_BODY_SIZE = 60;
+
+    private enum Assignment { NONE, ASSIGNED, SCOPED, FAIL }
+
+    private ClassHierarchy hierarchy;
+    private int replaced;
+
+    public ScalarReplacer(HashMap<String, ClassDeclaration> classDecMap) {
+        this.hierarchy = new ClassHierarchy(classDecMap);
+    }
+
+    @Override
+    public void visit(MethodDeclaration methodDeclaration) {
+        curMethod = methodDeclaration;
+        replaced = 0;
+        for (VarDeclaration var : new ArrayList<>(methodDeclaration.getLocalVars())) {
+            if (var.getType() instanceof UserDefinedType && replace(var))
+                replaced++;
+        }
+        if (replaced != 0)
+            report("escape analysis", "replaced " + replaced + " objects with their fields");
+        curMethod = null;
+    }
+
+    private boolean replace(VarDeclaration var) {
+        String name = var.getIdentifier().getName();
+        ObjectUses uses = new ObjectUses(name);
+        curMethod.accept(uses);
+        if (uses.escapes || uses.reads != uses.receiverReads || uses.className == null)
+            return false;
+        ClassDeclaration classDec = hierarchy.getClass(uses.className);
+        LinkedHashMap<String, VarDeclaration> fields = getFields(classDec);
+        if (fields == null)
+            return false;
+        HashMap<String, MethodDeclaration> methods = new HashMap<>();
+        for (String methodName : uses.methodNames) {
+            MethodDeclaration method = getMethod(classDec, methodName);
+            if (method == null)
+                return false;
+            methods.put(methodName, method);
+        }
+        // a call before the first allocation would have thrown a NullPointerException
+        if (assignedFirst(curMethod.getBody(), name) == Assignment.FAIL)
+            return false;
+
+        AstCopier copier = new AstCopier();
+        ArrayList<Statement> body = new ArrayList<>();
+        for (Statement statement : curMethod.getBody())
+            body.add(copier.copy(statement));
+        Expression returnValue = copier.copy(curMethod.getReturnValue());
+        int localCount = curMethod.getLocalVars().size();
+
+        LinkedHashMap<String, Expression> fieldLocals = new LinkedHashMap<>();
+        for (VarDeclaration field : fields.values()) {
+            String fieldName = field.getIdentifier().getName();
+            String local = Expressions.newLocal(curMethod, name + "$" + fieldName, field.getType());
+            fieldLocals.put(fieldName, Expressions.identifier(local, field.getType(), var.getLine()));
+        }
+        Replacement replacement = new Replacement(name, fieldLocals, methods);
+        replacement.rewriteStatements(curMethod.getBody());
+        curMethod.setReturnValue(replacement.rewrite(curMethod.getReturnValue()));
+        if (!VariableUses.of(curMethod).isUsed(name)) {
+            curMethod.getLocalVars().remove(var);
+            return true;
+        }
+
+        // a call sat somewhere no body can be put, like inside a larger expression, so the method is put back
+        curMethod.getBody().clear();
+        curMethod.getBody().addAll(body);
+        curMethod.setReturnValue(returnValue);
+        while (curMethod.getLocalVars().size() > localCount)
+            curMethod.getLocalVars().remove(curMethod.getLocalVars().size() - 1);
+        return false;
+    }
+
+    // the fields of an object of this class, or null if one of them can not be held in a local that starts zeroed
+    private LinkedHashMap<String, VarDeclaration> getFields(ClassDeclaration classDec) {
+        LinkedHashMap<String, VarDeclaration> fields = new LinkedHashMap<>();
+        for (; classDec != null && !ClassHierarchy.isObject(classDec); classDec = hierarchy.getParent(classDec)) {
+            for (VarDeclaration field : classDec.getVarDeclarations()) {
+                String fieldName = field.getIdentifier().getName();
+                if (fields.containsKey(fieldName) || Expressions.zero(field.getType(), 0) == null)
+                    return null;
+                fields.put(fieldName, field);
+            }
+        }
+        return fields;
+    }
+
+    // the method a call on an object of exactly this class runs, or null if its body can not be copied
+    private MethodDeclaration getMethod(ClassDeclaration classDec, String methodName) {
+        Identifier name = new Identifier(methodName);
+        ClassDeclaration declaringClass = hierarchy.getDeclaringClass(classDec.getName().getName(), name);
+        if (declaringClass == null || ClassHierarchy.isObject(declaringClass))
+            return null;
+        MethodDeclaration method = declaringClass.getMethodDeclaration(name);
+        CalleeInfo info = CalleeInfo.of(method);
+        if (info.hasCalls() || info.usesThis() || info.getSize() > MAX_BODY_SIZE)
+            return null;
+        return method;
+    }
+
+    // whether every use of the local in these statements comes after it was given an object, ASSIGNED if it
+    // still holds one after the last statement and SCOPED if all uses are inside a loop or branch that allocates
+    private Assignment assignedFirst(ArrayList<Statement> statements, String name) {
+        Assignment state = Assignment.NONE;
+        for (Statement statement : statements) {
+            if (!VariableUses.of(statement).isUsed(name))
+                continue;
+            if (state == Assignment.ASSIGNED)
+                return Assignment.ASSIGNED;
+            if (state == Assignment.SCOPED)
+                return Assignment.FAIL;
+            state = assignedFirst(statement, name);
+            if (state == Assignment.FAIL)
+                return Assignment.FAIL;
+        }
+        return state;
+    }
+
+    private Assignment assignedFirst(Statement statement, String name) {
+        if (statement == null || !VariableUses.of(statement).isUsed(name))
+            return Assignment.NONE;
+        if (statement instanceof Assign && isVariable(((Assign) statement).getlValue(), name))
+            return Assignment.ASSIGNED;
+        if (statement instanceof Block)
+            return assignedFirst(((Block) statement).getBody(), name);
+        if (statement instanceof While) {
+            While loop = (While) statement;
+            if (uses(loop.getCondition(), name) || assignedFirst(loop.getBody(), name) == Assignment.FAIL)
+                return Assignment.FAIL;
+            return Assignment.SCOPED;
+        }
+        if (statement instanceof Conditional) {
+            Conditional conditional = (Conditional) statement;
+            if (uses(conditional.getExpression(), name))
+                return Assignment.FAIL;
+            Assignment consequence = assignedFirst(conditional.getConsequenceBody(), name);
+            Assignment alternative = assignedFirst(conditional.getAlternativeBody(), name);
+            if (consequence == Assignment.FAIL || alternative == Assignment.FAIL)
+                return Assignment.FAIL;
+            if (consequence == Assignment.ASSIGNED && alternative == Assignment.ASSIGNED)
+                return Assignment.ASSIGNED;
+            return Assignment.SCOPED;
+        }
+        return Assignment.FAIL;
+    }
+
+    private static boolean uses(Expression expression, String name) {
+        VariableUses uses = new VariableUses();
+        uses.rewrite(expression);
+        return uses.isUsed(name);
+    }
+
+    private static boolean isVariable(Expression expression, String name) {
+        return expression instanceof Identifier && ((Identifier) expression).getName().equals(name);
+    }
+
+    // how a local is used: the class it is allocated with, the methods called on it and whether it is read
+    // anywhere other than as a receiver or given anything but a new object of that class
+    private static class ObjectUses extends AstRewriter {
+        private String name;
+        private String className;
+        private HashSet<String> methodNames = new HashSet<>();
+        private int reads = 0;
+        private int receiverReads = 0;
+        private boolean escapes = false;
+
+        ObjectUses(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void visit(Identifier identifier) {
+            if (identifier.getName().equals(name))
+                reads++;
+            super.visit(identifier);
+        }
+
+        @Override
+        public void visit(MethodCall methodCall) {
+            if (isVariable(methodCall.getInstance(), name)) {
+                receiverReads++;
+                methodNames.add(methodCall.getMethodName().getName());
+            }
+            super.visit(methodCall);
+        }
+
+        @Override
+        public void visit(MethodCallInMain methodCallInMain) {
+            if (isVariable(methodCallInMain.getInstance(), name)) {
+                receiverReads++;
+                methodNames.add(methodCallInMain.getMethodName().getName());
+            }
+            super.visit(methodCallInMain);
+        }
+
+        @Override
+        public void visit(Assign assign) {
+            if (isVariable(assign.getlValue(), name)) {
+                if (!(assign.getrValue() instanceof NewClass))
+                    escapes = true;
+                else {
+                    String allocated = ((NewClass) assign.getrValue()).getClassName().getName();
+                    if (className != null && !className.equals(allocated))
+                        escapes = true;
+                    className = allocated;
+                }
+            }
+            super.visit(assign);
+        }
+    }
+
+    // zeroes the field locals where the object was allocated and copies method bodies over the calls on it
+    private class Replacement extends AstRewriter {
+        private String name;
+        private HashMap<String, Expression> fieldLocals;
+        private HashMap<String, MethodDeclaration> methods;
+
+        Replacement(String name, HashMap<String, Expression> fieldLocals, HashMap<String, MethodDeclaration> methods) {
+            this.name = name;
+            this.fieldLocals = fieldLocals;
+            this.methods = methods;
+        }
+
+        // a method that is just a return expression and gets pure arguments is substituted in place
+        @Override
+        public void visit(MethodCall methodCall) {
+            super.visit(methodCall);
+            if (!isVariable(methodCall.getInstance(), name))
+                return;
+            MethodDeclaration callee = methods.get(methodCall.getMethodName().getName());
+            if (!callee.getBody().isEmpty() || !callee.getLocalVars().isEmpty() || CalleeInfo.of(callee).assignsArgs())
+                return;
+            for (Expression arg : methodCall.getArgs()) {
+                if (!Expressions.isPure(arg))
+                    return;
+            }
+            HashMap<String, Expression> substitutions = new HashMap<>(fieldLocals);
+            for (int i = 0; i < callee.getArgs().size(); i++)
+                substitutions.put(callee.getArgs().get(i).getIdentifier().getName(), methodCall.getArgs().get(i));
+            result = new AstCopier(substitutions).copy(callee.getReturnValue());
+        }
+
+        @Override
+        protected Statement rewrite(Statement statement) {
+            Statement rewritten = super.rewrite(statement);
+            if (rewritten instanceof Assign && isVariable(((Assign) rewritten).getlValue(), name)) {
+                // new only zeroes the fields, the constructor of a smoola class does nothing else
+                ArrayList<Statement> zeroes = new ArrayList<>();
+                for (Expression local : fieldLocals.values()) {
+                    Identifier identifier = (Identifier) local;
+                    zeroes.add(Expressions.assign(identifier.getName(), identifier.getType(),
+                            Expressions.zero(identifier.getType(), rewritten.getLine()), rewritten.getLine()));
+                }
+                return block(zeroes, rewritten.getLine());
+            }
+            MethodCall call = CallExpansion.findCall(rewritten);
+            if (call == null || !isVariable(call.getInstance(), name))
+                return rewritten;
+            MethodDeclaration callee = methods.get(call.getMethodName().getName());
+            ArrayList<Statement> expansion = CallExpansion.expand(ScalarReplacer.this.curMethod, rewritten, call,
+                    callee, fieldLocals);
+            // the arguments now get their own assignments, and may be calls on the same object
+            for (int i = 0; i < callee.getArgs().size(); i++)
+                expansion.set(i, rewrite(expansion.get(i)));
+            return block(expansion, rewritten.getLine());
+        }
+
+        private Block block(ArrayList<Statement> statements, int line) {
+            Block block = new Block();
+            for (Statement statement : statements)
+                block.addStatement(statement);
+            block.setLine(line);
+            return block;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package optimizer;
+
+import ast.Type.PrimitiveType.IntType;
+import ast.node.declaration.MethodDeclaration;
+import ast.node.declaration.VarDeclaration;
+import ast.node.expression.*;
+import ast.node.expression.Value.IntValue;
+import ast.node.statement.Assign;
+import ast.node.statement.Block;
+import ast.node.statement.Statement;
+import ast.node.statement.While;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+// replaces multiplication and division by powers of two with shifts, and keeps expressions like l + i
+// that follow a loop's induction variable in their own local which is bumped next to the variable
+public class StrengthReducer extends AstRewriter {
+    private HashSet<String> intLocals = new HashSet<>();
+    private int shifts;
+    private int derived;
+
+    @Override
+    public void visit(MethodDeclaration methodDeclaration) {
+        shifts = 0;
+        derived = 0;
+        intLocals.clear();
+        for (VarDeclaration var : methodDeclaration.getArgs()) {
+            if (var.getType() instanceof IntType)
+                intLocals.add(var.getIdentifier().getName());
+        }
+        for (VarDeclaration var : methodDeclaration.getLocalVars()) {
+            if (var.getType() instanceof IntType)
+                intLocals.add(var.getIdentifier().getName());
+        }
+        super.visit(methodDeclaration);
+        curMethod = methodDeclaration;
+        if (shifts != 0 || derived != 0)
+            report("strength reduction", "introduced " + shifts + " shifts and " + derived +
+                    " induction variables");
+        curMethod = null;
+    }
+
+    // k if value is 2^k for some k >= 1, otherwise -1
+    private static int log2(Expression expression) {
+        if (!(expression instanceof IntValue))
+            return -1;
+        int value = ((IntValue) expression).getConstant();
+        if (value < 2 || Integer.bitCount(value) != 1)
+            return -1;
+        return Integer.numberOfTrailingZeros(value);
+    }
+
+    @Override
+    public void visit(BinaryExpression binaryExpression) {
+        super.visit(binaryExpression);
+        Expression left = binaryExpression.getLeft();
+        Expression right = binaryExpression.getRight();
+        int line = binaryExpression.getLine();
+        if (binaryExpression.getBinaryOperator() == BinaryOperator.mult) {
+            // x * 2^k == x << k for every int x, overflow included
+            if (log2(right) != -1) {
+                result = Expressions.binary(left, BinaryOperator.shl, Expressions.intValue(log2(right), line), line);
+                shifts++;
+            }
+            else if (log2(left) != -1) {
+                result = Expressions.binary(right, BinaryOperator.shl, Expressions.intValue(log2(left), line), line);
+                shifts++;
+            }
+        }
+        else if (binaryExpression.getBinaryOperator() == BinaryOperator.div && log2(right) != -1 &&
+                left instanceof Identifier) {
+            // idiv rounds toward zero and ishr toward negative infinity, so a negative x is biased by 2^k - 1 first:
+            // x / 2^k == (x + ((x >> 31) >>> (32 - k))) >> k
+            int k = log2(right);
+            Expression sign = Expressions.binary(copy((Identifier) left), BinaryOperator.shr,
+                    Expressions.intValue(31, line), line);
+            Expression bias = Expressions.binary(k == 1 ? copy((Identifier) left) : sign, BinaryOperator.ushr,
+                    Expressions.intValue(32 - k, line), line);
+            Expression biased = Expressions.binary(left, BinaryOperator.add, bias, line);
+            result = Expressions.binary(biased, BinaryOperator.shr, Expressions.intValue(k, line), line);
+            shifts++;
+        }
+    }
+
+    private static Identifier copy(Identifier identifier) {
+        return Expressions.identifier(identifier.getName(), identifier.getType(), identifier.getLine());
+    }
+
+    @Override
+    public void visit(While loop) {
+        Statement reduced = reduceInductionVariables(loop);
+        super.visit(loop);
+        if (reduced != loop) {
+            ArrayList<Statement> statements = ((Block) reduced).getBody();
+            for (int i = 0; i < statements.size() - 1; i++)
+                rewrite(statements.get(i));
+        }
+        replacement = reduced;
+    }
+
+    // rewrites the loop in place, returns the statement that should take its place
+    private Statement reduceInductionVariables(While loop) {
+        if (!(loop.getBody() instanceof Block)) {
+            Block block = new Block();
+            block.addStatement(loop.getBody());
+            loop.setBody(block);
+        }
+        ArrayList<Statement> body = ((Block) loop.getBody()).getBody();
+        VariableUses uses = VariableUses.of(loop.getBody());
+
+        // basic induction variables: int locals whose only write in the loop is i = i + c at the top of the body
+        HashMap<String, Integer> steps = new HashMap<>();
+        HashMap<String, Assign> updates = new HashMap<>();
+        for (Statement statement : body) {
+            if (!(statement instanceof Assign) || !(((Assign) statement).getlValue() instanceof Identifier))
+                continue;
+            Assign assign = (Assign) statement;
+            String name = ((Identifier) assign.getlValue()).getName();
+            Integer step = getStep(name, assign.getrValue());
+            if (step != null && intLocals.contains(name) && uses.getWrites(name) == 1) {
+                steps.put(name, step);
+                updates.put(name, assign);
+            }
+        }
+        if (steps.isEmpty())
+            return loop;
+
+        DerivedExpressions rewriter = new DerivedExpressions(steps, uses, new HashSet<>(updates.values()));
+        loop.setCondition(rewriter.rewrite(loop.getCondition()));
+        rewriter.rewriteStatements(body);
+        if (rewriter.temps.isEmpty())
+            return loop;
+
+        Block replacement = new Block();
+        for (int i = 0; i < rewriter.temps.size(); i++) {
+            String temp = rewriter.temps.get(i);
+            Expression expression = rewriter.expressions.get(i);
+            String variable = rewriter.variables.get(i);
+            int line = expression.getLine();
+            replacement.addStatement(Expressions.assign(temp, new IntType(), expression, line));
+            derived++;
+            // the temp changes by coefficient * step whenever the variable changes by step
+            int delta = rewriter.coefficients.get(i) * steps.get(variable);
+            if (delta == 0)
+                continue;
+            Expression bumped = Expressions.binary(Expressions.identifier(temp, new IntType(), line),
+                    BinaryOperator.add, Expressions.intValue(delta, line), line);
+            body.add(body.indexOf(updates.get(variable)) + 1, Expressions.assign(temp, new IntType(), bumped, line));
+        }
+        replacement.addStatement(loop);
+        return replacement;
+    }
+
+    private static Integer getStep(String name, Expression value) {
+        if (!(value instanceof BinaryExpression))
+            return null;
+        BinaryExpression binaryExpression = (BinaryExpression) value;
+        Expression left = binaryExpression.getLeft();
+        Expression right = binaryExpression.getRight();
+        boolean leftIsVariable = left instanceof Identifier && ((Identifier) left).getName().equals(name);
+        boolean rightIsVariable = right instanceof Identifier && ((Identifier) right).getName().equals(name);
+        if (binaryExpression.getBinaryOperator() == BinaryOperator.add) {
+            if (leftIsVariable && right instanceof IntValue)
+                return ((IntValue) right).getConstant();
+            if (rightIsVariable && left instanceof IntValue)
+                return ((IntValue) left).getConstant();
+        }
+        else if (binaryExpression.getBinaryOperator() == BinaryOperator.sub && leftIsVariable &&
+                right instanceof IntValue)
+            return -((IntValue) right).getConstant();
+        return null;
+    }
+
+    // replaces every largest subexpression that is linear in one induction variable with a temp
+    private class DerivedExpressions extends AstRewriter {
+        private HashMap<String, Integer> steps;
+        private VariableUses uses;
+        private HashSet<Assign> updates;
+        private ArrayList<String> temps = new ArrayList<>();
+        private ArrayList<Expression> expressions = new ArrayList<>();
+        private ArrayList<String> variables = new ArrayList<>();
+        private ArrayList<Integer> coefficients = new ArrayList<>();
+
+        // set by linear() to the induction variable it found
+        private String variable;
+
+        DerivedExpressions(HashMap<String, Integer> steps, VariableUses uses, HashSet<Assign> updates) {
+            this.steps = steps;
+            this.uses = uses;
+            this.updates = updates;
+        }
+
+        // the coefficient of the induction variable if expression is c * i + <invariant>, otherwise null
+        private Integer linear(Expression expression) {
+            if (expression instanceof Identifier && steps.containsKey(((Identifier) expression).getName())) {
+                variable = ((Identifier) expression).getName();
+                return 1;
+            }
+            if (expression instanceof UnaryExpression &&
+                    ((UnaryExpression) expression).getUnaryOperator() == UnaryOperator.minus) {
+                Integer coefficient = linear(((UnaryExpression) expression).getValue());
+                return coefficient == null ? null : -coefficient;
+            }
+            if (!(expression instanceof BinaryExpression))
+                return null;
+            BinaryExpression binaryExpression = (BinaryExpression) expression;
+            Expression left = binaryExpression.getLeft();
+            Expression right = binaryExpression.getRight();
+            switch (binaryExpression.getBinaryOperator()) {
+                case add:
+                    if (isInvariant(right))
+                        return linear(left);
+                    if (isInvariant(left))
+                        return linear(right);
+                    return null;
+                case sub:
+                    if (isInvariant(right))
+                        return linear(left);
+                    if (isInvariant(left)) {
+                        Integer coefficient = linear(right);
+                        return coefficient == null ? null : -coefficient;
+                    }
+                    return null;
+                case mult:
+                    if (right instanceof IntValue) {
+                        Integer coefficient = linear(left);
+                        return coefficient == null ? null : coefficient * ((IntValue) right).getConstant();
+                    }
+                    if (left instanceof IntValue) {
+                        Integer coefficient = linear(right);
+                        return coefficient == null ? null : coefficient * ((IntValue) left).getConstant();
+                    }
+                    return null;
+                default:
+                    return null;
+            }
+        }
+
+        private boolean isInvariant(Expression expression) {
+            if (expression instanceof IntValue)
+                return true;
+            if (expression instanceof Identifier) {
+                String name = ((Identifier) expression).getName();
+                return intLocals.contains(name) && uses.getWrites(name) == 0;
+            }
+            if (expression instanceof UnaryExpression)
+                return ((UnaryExpression) expression).getUnaryOperator() == UnaryOperator.minus &&
+                        isInvariant(((UnaryExpression) expression).getValue());
+            if (expression instanceof BinaryExpression) {
+                BinaryOperator op = ((BinaryExpression) expression).getBinaryOperator();
+                return (op == BinaryOperator.add || op == BinaryOperator.sub || op == BinaryOperator.mult) &&
+                        isInvariant(((BinaryExpression) expression).getLeft()) &&
+                        isInvariant(((BinaryExpression) expression).getRight());
+            }
+            return false;
+        }
+
+        private boolean replace(Expression expression) {
+            Integer coefficient = linear(expression);
+            if (coefficient == null)
+                return false;
+            int line = expression.getLine();
+            for (int i = 0; i < expressions.size(); i++) {
+                if (Expressions.same(expressions.get(i), expression)) {
+                    result = Expressions.identifier(temps.get(i), new IntType(), line);
+                    return true;
+                }
+            }
+            String temp = Expressions.newLocal(StrengthReducer.this.curMethod, "iv", new IntType());
+            intLocals.add(temp);
+            temps.add(temp);
+            expressions.add(expression);
+            variables.add(variable);
+            coefficients.add(coefficient);
+            result = Expressions.identifier(temp, new IntType(), line);
+            return true;
+        }
+
+        @Override
+        public void visit(BinaryExpression binaryExpression) {
+            if (!replace(binaryExpression))
+                super.visit(binaryExpression);
+        }
+
+        @Override
+        public void visit(UnaryExpression unaryExpression) {
+            if (!replace(unaryExpression))
+                super.visit(unaryExpression);
+        }
+
+        @Override
+        public void visit(Assign assign) {
+            // i = i + c itself stays as it is
+            if (updates.contains(assign))
+                replacement = assign;
+            else
+                super.visit(assign);
+        }
+    }
+}
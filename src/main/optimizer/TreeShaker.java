@@ -0,0 +1,160 @@
+package optimizer;
+
+import ast.Type.Type;
+import ast.Type.UserDefinedType.UserDefinedType;
+import ast.node.Program;
+import ast.node.declaration.ClassDeclaration;
+import ast.node.declaration.MethodDeclaration;
+import ast.node.declaration.VarDeclaration;
+import ast.node.expression.Expression;
+import ast.node.expression.Identifier;
+import ast.node.expression.MethodCall;
+import ast.node.expression.NewClass;
+import ast.node.statement.MethodCallInMain;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+
+// drops the classes and methods main can not reach. starting from main, a call can run the method its receiver's
+// class has or inherits under that name, for the receiver's static class and every class below it that some
+// reachable code instantiates. a class is kept when it is instantiated, declares a reachable method, is the static
+// class of a call or the type of something reachable code or a kept class declares, and so are its ancestors.
+// it runs before the class hierarchy analysis, which then does not see overrides no receiver can have
+public class TreeShaker extends AstRewriter {
+    private HashMap<String, ClassDeclaration> classDecMap;
+    private ClassHierarchy hierarchy;
+    private HashSet<ClassDeclaration> instantiated = new HashSet<>();
+    private HashSet<ClassDeclaration> kept = new HashSet<>();
+    private HashSet<MethodDeclaration> reachable = new HashSet<>();
+    private ArrayList<MethodDeclaration> work = new ArrayList<>();
+    // static class and method name of every call in reachable code
+    private HashSet<String> calls = new HashSet<>();
+    private ArrayList<ClassDeclaration> callClasses = new ArrayList<>();
+    private ArrayList<Identifier> callNames = new ArrayList<>();
+
+    public TreeShaker(HashMap<String, ClassDeclaration> classDecMap) {
+        this.classDecMap = classDecMap;
+        this.hierarchy = new ClassHierarchy(classDecMap);
+    }
+
+    @Override
+    public void visit(Program program) {
+        ClassDeclaration mainClass = program.getMainClass();
+        instantiated.add(mainClass);
+        keep(mainClass);
+        reach(mainClass.getMethodDeclaration(new Identifier("main")));
+
+        int resolved = 0;
+        while (!work.isEmpty() || resolved < callClasses.size()) {
+            while (!work.isEmpty()) {
+                MethodDeclaration method = work.remove(work.size() - 1);
+                method.accept(this);
+            }
+            // every call is resolved again once more classes are instantiated, the list only grows
+            int calls = callClasses.size();
+            for (int i = 0; i < calls; i++) {
+                ClassDeclaration receiver = callClasses.get(i);
+                reach(receiver, callNames.get(i));
+                for (ClassDeclaration classDec : new ArrayList<>(instantiated)) {
+                    if (hierarchy.isSubclass(classDec, receiver))
+                        reach(classDec, callNames.get(i));
+                }
+            }
+            if (work.isEmpty())
+                resolved = calls;
+        }
+
+        Iterator<ClassDeclaration> classes = program.getClasses().iterator();
+        while (classes.hasNext()) {
+            ClassDeclaration classDec = classes.next();
+            curClass = classDec;
+            if (!kept.contains(classDec)) {
+                // later passes and the generator only look up the classes that are left
+                classes.remove();
+                classDecMap.remove(classDec.getName().getName());
+                if (isReporting())
+                    System.out.println("tree shaking: " + classDec.getName().getName() +
+                            " removed, nothing reachable instantiates or refers to it");
+                continue;
+            }
+            Iterator<MethodDeclaration> methods = classDec.getMethodDeclarations().iterator();
+            while (methods.hasNext()) {
+                curMethod = methods.next();
+                if (!reachable.contains(curMethod)) {
+                    methods.remove();
+                    report("tree shaking", "removed, no reachable call can run it");
+                }
+            }
+            curMethod = null;
+        }
+        curClass = null;
+    }
+
+    private void reach(MethodDeclaration method) {
+        if (method != null && reachable.add(method))
+            work.add(method);
+    }
+
+    // the method a receiver of exactly this class runs
+    private void reach(ClassDeclaration receiver, Identifier methodName) {
+        ClassDeclaration declaring = hierarchy.getDeclaringClass(receiver.getName().getName(), methodName);
+        if (declaring != null && !ClassHierarchy.isObject(declaring))
+            reach(declaring.getMethodDeclaration(methodName));
+    }
+
+    private void keep(ClassDeclaration classDec) {
+        while (classDec != null && kept.add(classDec)) {
+            for (VarDeclaration field : classDec.getVarDeclarations())
+                keep(field.getType());
+            classDec = hierarchy.getParent(classDec);
+        }
+    }
+
+    private void keep(Type type) {
+        if (type instanceof UserDefinedType)
+            keep(hierarchy.getClass(((UserDefinedType) type).getName().getName()));
+    }
+
+    private void call(Expression instance, Identifier methodName) {
+        ClassDeclaration receiver = hierarchy.getClass(instance.getType().toString());
+        if (receiver == null || !calls.add(receiver.getName().getName() + "." + methodName.getName()))
+            return;
+        keep(receiver);
+        callClasses.add(receiver);
+        callNames.add(methodName);
+    }
+
+    @Override
+    public void visit(MethodDeclaration methodDeclaration) {
+        keep(methodDeclaration.getReturnType());
+        for (VarDeclaration var : methodDeclaration.getArgs())
+            keep(var.getType());
+        for (VarDeclaration var : methodDeclaration.getLocalVars())
+            keep(var.getType());
+        super.visit(methodDeclaration);
+    }
+
+    @Override
+    public void visit(NewClass newClass) {
+        ClassDeclaration classDec = hierarchy.getClass(newClass.getClassName().getName());
+        if (classDec != null) {
+            instantiated.add(classDec);
+            keep(classDec);
+        }
+        super.visit(newClass);
+    }
+
+    @Override
+    public void visit(MethodCall methodCall) {
+        call(methodCall.getInstance(), methodCall.getMethodName());
+        super.visit(methodCall);
+    }
+
+    @Override
+    public void visit(MethodCallInMain methodCallInMain) {
+        call(methodCallInMain.getInstance(), methodCallInMain.getMethodName());
+        super.visit(methodCallInMain);
+    }
+}
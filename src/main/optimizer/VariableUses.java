@@ -0,0 +1,66 @@
+package optimizer;
+
+import ast.node.declaration.MethodDeclaration;
+import ast.node.expression.BinaryExpression;
+import ast.node.expression.BinaryOperator;
+import ast.node.expression.Identifier;
+import ast.node.statement.Assign;
+import ast.node.statement.Statement;
+
+import java.util.HashMap;
+
+// counts how often each variable name is read and assigned in a method
+public class VariableUses extends AstRewriter {
+    private HashMap<String, Integer> reads = new HashMap<>();
+    private HashMap<String, Integer> writes = new HashMap<>();
+
+    public static VariableUses of(MethodDeclaration methodDeclaration) {
+        VariableUses uses = new VariableUses();
+        methodDeclaration.accept(uses);
+        return uses;
+    }
+
+    public static VariableUses of(Statement statement) {
+        VariableUses uses = new VariableUses();
+        uses.rewrite(statement);
+        return uses;
+    }
+
+    public int getReads(String name) {
+        return reads.getOrDefault(name, 0);
+    }
+
+    public int getWrites(String name) {
+        return writes.getOrDefault(name, 0);
+    }
+
+    public boolean isUsed(String name) {
+        return reads.containsKey(name) || writes.containsKey(name);
+    }
+
+    @Override
+    public void visit(Identifier identifier) {
+        reads.merge(identifier.getName(), 1, Integer::sum);
+        result = identifier;
+    }
+
+    @Override
+    public void visit(Assign assign) {
+        if (assign.getlValue() instanceof Identifier)
+            writes.merge(((Identifier) assign.getlValue()).getName(), 1, Integer::sum);
+        super.visit(assign);
+    }
+
+    // the target of an assignment nested in an expression, like c = i = 8, is written and not read
+    @Override
+    public void visit(BinaryExpression binaryExpression) {
+        if (binaryExpression.getBinaryOperator() != BinaryOperator.assign ||
+                !(binaryExpression.getLeft() instanceof Identifier)) {
+            super.visit(binaryExpression);
+            return;
+        }
+        writes.merge(((Identifier) binaryExpression.getLeft()).getName(), 1, Integer::sum);
+        binaryExpression.setRight(rewrite(binaryExpression.getRight()));
+        result = binaryExpression;
+    }
+}
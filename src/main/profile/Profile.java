@@ -0,0 +1,80 @@
+package profile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+
+// the counts a program built with --profile-generate writes when it exits, read back for --profile-use. a record
+// names the kind of site, the method it is in and its line, so it still applies after edits that leave those be:
+//
+//     loop Sorter.sort 12 4000
+//
+// method counts the calls a method took, loop the turns of a while, then and else the times each arm of a
+// conditional ran and call the calls made at a call site. sites of the same kind on one line add up. the whole
+// program is one file, so a line of a method is never one of another method, and code the optimizer moved into a
+// method from another one has no records there
+public class Profile {
+    // the class the instrumented program counts in and that writes the profile when it exits
+    public static final String RUNTIME_CLASS = "SmoolaProfile";
+    public static final String DEFAULT_FILE = "smoola.profile";
+
+    public static final String METHOD = "method";
+    public static final String LOOP = "loop";
+    public static final String THEN = "then";
+    public static final String ELSE = "else";
+    public static final String CALL = "call";
+
+    // a site is hot when it ran at least a hundredth as often as the hottest one of its kind
+    private static final int HOT_RATIO = 100;
+
+    private HashMap<String, Long> counts = new HashMap<>();
+    private HashMap<String, Long> maxCounts = new HashMap<>();
+
+    public static Profile read(String fileName) throws IOException {
+        Profile profile = new Profile();
+        for (String line : Files.readAllLines(Paths.get(fileName))) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            String[] tokens = line.split("\\s+");
+            int dot = tokens.length == 4 ? tokens[1].indexOf('.') : -1;
+            if (dot == -1)
+                throw new IOException("malformed profile record in " + fileName + ": " + line);
+            try {
+                profile.add(tokens[0], tokens[1].substring(0, dot), tokens[1].substring(dot + 1),
+                        Integer.parseInt(tokens[2]), Long.parseLong(tokens[3]));
+            }
+            catch (NumberFormatException e) {
+                throw new IOException("malformed profile record in " + fileName + ": " + line);
+            }
+        }
+        return profile;
+    }
+
+    // the line of a record without its count
+    public static String getSite(String kind, String className, String methodName, int line) {
+        return kind + " " + className + "." + methodName + " " + line;
+    }
+
+    private void add(String kind, String className, String methodName, int line, long count) {
+        String site = getSite(kind, className, methodName, line);
+        long total = counts.getOrDefault(site, 0L) + count;
+        counts.put(site, total);
+        maxCounts.put(kind, Math.max(maxCounts.getOrDefault(kind, 0L), total));
+    }
+
+    // -1 when the profile has no record of the site, because it was added or moved since
+    public long getCount(String kind, String className, String methodName, int line) {
+        return counts.getOrDefault(getSite(kind, className, methodName, line), -1L);
+    }
+
+    public boolean isHot(String kind, long count) {
+        return count > 0 && count * HOT_RATIO >= maxCounts.getOrDefault(kind, 0L);
+    }
+
+    // a method the profile knows of but never saw called
+    public boolean isCold(String className, String methodName, int line) {
+        return getCount(METHOD, className, methodName, line) == 0;
+    }
+}
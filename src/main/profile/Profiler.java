@@ -0,0 +1,68 @@
+package profile;
+
+// what a program built with --profile-time or --profile-alloc reports when it exits. with --profile-time every
+// method tells the profiler class when it is entered and when it returns, and every loop how many turns it took
+// once it is left. with --profile-alloc every new counts itself and the bytes it took at its site. each thread
+// counts in arrays of its own, so nothing on the way in or out of a method or at a new takes a lock, and the
+// report adds them up. times are wall clock microseconds: total is from entry to return, counted once for a
+// method that recurses, and self leaves out the calls it made. the methods come in order of total time, the
+// loops in order of turns and the allocation sites in order of bytes:
+//
+//           total        self       calls  method
+//           15230        2210           1  Main.main, line 3
+//
+//           turns  loop
+//            4000  Sorter.sort, line 12
+//
+//           bytes      allocs  site
+//          112000        2000  Sorter.merge, line 30, new int[10]
+//
+// with --profile-time=<file> or --profile-alloc=<file> the same goes to file as json instead of to the standard
+// error
+public class Profiler {
+    public static final String RUNTIME_CLASS = "SmoolaProfiler";
+
+    // the report is made with String.format, an entry gets the separator from the entry before it, its name, its
+    // line, what it allocates and its counts: calls, total and self for a method, turns for a loop and allocations
+    // and bytes for a site
+    public static final String TEXT_METHODS =
+            "\nsmoola profile, times in microseconds\n      total        self       calls  method\n";
+    public static final String TEXT_METHOD = "%6$11d %7$11d %5$11d  %2$s, line %3$s%n";
+    public static final String TEXT_LOOPS = "\n      turns  loop\n";
+    public static final String TEXT_LOOP = "%5$11d  %2$s, line %3$s%n";
+    public static final String TEXT_ALLOCATIONS =
+            "\nsmoola allocations, sizes in bytes\n      bytes      allocs  site\n";
+    public static final String TEXT_ALLOCATION = "%6$11d %5$11d  %2$s, line %3$s, %4$s%n";
+    public static final String TEXT_END = "";
+    public static final String TEXT_SEPARATOR = "";
+
+    public static final String JSON_START = "{\n";
+    public static final String JSON_BETWEEN = "\n  ],\n";
+    public static final String JSON_METHODS = "  \"methods\": [\n";
+    public static final String JSON_METHOD = "%1$s    {\"method\": \"%2$s\", \"line\": %3$s, \"calls\": %5$d, " +
+            "\"total_us\": %6$d, \"self_us\": %7$d}";
+    public static final String JSON_LOOPS = "  \"loops\": [\n";
+    public static final String JSON_LOOP = "%1$s    {\"loop\": \"%2$s\", \"line\": %3$s, \"turns\": %5$d}";
+    public static final String JSON_ALLOCATIONS = "  \"allocations\": [\n";
+    public static final String JSON_ALLOCATION = "%1$s    {\"method\": \"%2$s\", \"line\": %3$s, \"new\": \"%4$s\", " +
+            "\"allocations\": %5$d, \"bytes\": %6$d}";
+    public static final String JSON_END = "\n  ]\n}\n";
+    public static final String JSON_SEPARATOR = ",\n";
+
+    // the sizes HotSpot gives objects on a 64 bit jvm with compressed references: a header of 12 bytes, and an
+    // array's length after it, with the whole rounded up to 8 bytes
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+
+    public static int getObjectSize(int fieldBytes) {
+        return align(OBJECT_HEADER + fieldBytes);
+    }
+
+    public static int getIntArraySize(int length) {
+        return align(ARRAY_HEADER + 4 * length);
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+}